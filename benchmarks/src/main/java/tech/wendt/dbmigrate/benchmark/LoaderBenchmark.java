@@ -0,0 +1,94 @@
+package tech.wendt.dbmigrate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wendt.dbmigrate.Migration;
+import tech.wendt.dbmigrate.SqlStatementReader;
+import tech.wendt.dbmigrate.StatementSource;
+import tech.wendt.dbmigrate.TokenizedScript;
+import tech.wendt.dbmigrate.impl.ResourceMigrationLoader;
+import tech.wendt.dbmigrate.impl.TokenizedScriptCache;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists and loads all migrations of a directory or jar on the class path, and splits them into statements with
+ * and without a warm {@link TokenizedScriptCache}, as a starting process would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoaderBenchmark {
+
+    @Param({"directory", "jar"})
+    private String source;
+
+    @Param({"100", "1000", "10000", "100000"})
+    private int migrationCount;
+
+    @Param({"false", "true"})
+    private boolean cached;
+
+    private Path tempDir;
+    private URLClassLoader classLoader;
+    private ResourceMigrationLoader loader;
+
+    @Setup
+    public void createMigrations() throws Exception {
+        tempDir = Files.createTempDirectory("dbmigrate-benchmark");
+        Path root = tempDir.resolve("root");
+        SyntheticMigrations.createDirectory(root, "migrations", migrationCount, 5);
+        Path classPath = "jar".equals(source) ? SyntheticMigrations.createJar(root, tempDir.resolve("migrations.jar"))
+                : root;
+        classLoader = new URLClassLoader(new URL[]{classPath.toUri().toURL()}, null);
+        loader = new ResourceMigrationLoader("/migrations", classLoader, StandardCharsets.UTF_8,
+                cached ? new TokenizedScriptCache(tempDir.resolve("cache"), Long.MAX_VALUE) : null);
+        loadAndSplit();
+    }
+
+    @TearDown
+    public void deleteMigrations() throws Exception {
+        loader.close();
+        classLoader.close();
+        SyntheticMigrations.delete(tempDir);
+    }
+
+    @Benchmark
+    public List<Migration> loadMigrations() throws Exception {
+        return loader.loadMigrations();
+    }
+
+    @Benchmark
+    public long loadAndSplit() throws Exception {
+        long statementCount = 0;
+        for (Migration migration : loader.loadMigrations()) {
+            try (StatementSource statements = migration.getUpScript() instanceof TokenizedScript
+                    ? ((TokenizedScript) migration.getUpScript()).openStatements()
+                    : new SqlStatementReader(migration.getUpScript().open())) {
+                while (statements.nextStatement() != null) {
+                    statementCount++;
+                }
+            }
+        }
+        return statementCount;
+    }
+}
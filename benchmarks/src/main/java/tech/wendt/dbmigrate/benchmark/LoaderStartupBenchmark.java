@@ -0,0 +1,96 @@
+package tech.wendt.dbmigrate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wendt.dbmigrate.MigrationInfo;
+import tech.wendt.dbmigrate.impl.MigrationIndexGenerator;
+import tech.wendt.dbmigrate.impl.ResourceMigrationLoader;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists the migrations packaged in a jar with a new loader, once by walking the jar directory, once by reading a
+ * generated index and once while another loader keeps the jar open.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderStartupBenchmark {
+
+    @Param({"10000"})
+    private int migrationCount;
+
+    private Path tempDir;
+    private URLClassLoader plainClassLoader;
+    private URLClassLoader indexedClassLoader;
+    private URLClassLoader sharedClassLoader;
+    private ResourceMigrationLoader sharedLoader;
+
+    @Setup
+    public void createJars() throws Exception {
+        tempDir = Files.createTempDirectory("dbmigrate-benchmark");
+        Path plainRoot = tempDir.resolve("plain");
+        SyntheticMigrations.createDirectory(plainRoot, "migrations", migrationCount, 1);
+        Path indexedRoot = tempDir.resolve("indexed");
+        MigrationIndexGenerator.generate(
+                SyntheticMigrations.createDirectory(indexedRoot, "migrations", migrationCount, 1));
+
+        plainClassLoader = classLoader(SyntheticMigrations.createJar(plainRoot, tempDir.resolve("plain.jar")));
+        indexedClassLoader = classLoader(SyntheticMigrations.createJar(indexedRoot, tempDir.resolve("indexed.jar")));
+        sharedClassLoader = classLoader(SyntheticMigrations.createJar(plainRoot, tempDir.resolve("shared.jar")));
+        sharedLoader = new ResourceMigrationLoader("/migrations", sharedClassLoader);
+        sharedLoader.loadMigrationInfos();
+    }
+
+    @TearDown
+    public void deleteJars() throws Exception {
+        sharedLoader.close();
+        plainClassLoader.close();
+        indexedClassLoader.close();
+        sharedClassLoader.close();
+        SyntheticMigrations.delete(tempDir);
+    }
+
+    @Benchmark
+    public List<? extends MigrationInfo> listJar() throws Exception {
+        return list(plainClassLoader);
+    }
+
+    @Benchmark
+    public List<? extends MigrationInfo> readIndex() throws Exception {
+        return list(indexedClassLoader);
+    }
+
+    @Benchmark
+    public List<? extends MigrationInfo> listSharedJar() throws Exception {
+        return list(sharedClassLoader);
+    }
+
+    private static List<? extends MigrationInfo> list(ClassLoader classLoader) throws Exception {
+        try (ResourceMigrationLoader loader = new ResourceMigrationLoader("/migrations", classLoader)) {
+            return loader.loadMigrationInfos();
+        }
+    }
+
+    private static URLClassLoader classLoader(Path jar) throws Exception {
+        return new URLClassLoader(new URL[]{jar.toUri().toURL()}, null);
+    }
+}
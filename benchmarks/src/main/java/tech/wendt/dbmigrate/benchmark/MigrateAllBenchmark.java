@@ -0,0 +1,75 @@
+package tech.wendt.dbmigrate.benchmark;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wendt.dbmigrate.DbMigrator;
+import tech.wendt.dbmigrate.Migration;
+import tech.wendt.dbmigrate.MigrationLoader;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies many trivial migrations against an in-memory H2 database, so that the measured time is dominated by
+ * the per-migration overhead of the migrator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MigrateAllBenchmark {
+
+    private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+    @Param({"100", "1000", "5000"})
+    private int migrationCount;
+
+    private MigrationLoader migrationLoader;
+    private Connection keepAlive;
+    private DbMigrator migrator;
+
+    @Setup(Level.Trial)
+    public void createMigrations() {
+        List<Migration> migrations = new ArrayList<>(migrationCount);
+        for (int i = 1; i <= migrationCount; i++) {
+            migrations.add(new Migration("migration" + i, i, "SELECT " + i));
+        }
+        migrationLoader = () -> new ArrayList<>(migrations);
+    }
+
+    @Setup(Level.Invocation)
+    public void createDatabase() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:migrate_all_" + DATABASE_COUNTER.incrementAndGet());
+        keepAlive = dataSource.getConnection();
+        migrator = new DbMigrator("benchmark_migration", dataSource, migrationLoader);
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropDatabase() throws Exception {
+        migrator.close();
+        keepAlive.close();
+    }
+
+    @Benchmark
+    public void migrateAll() throws Exception {
+        migrator.migrateAll();
+    }
+}
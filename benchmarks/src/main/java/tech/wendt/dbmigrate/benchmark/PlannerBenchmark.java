@@ -0,0 +1,66 @@
+package tech.wendt.dbmigrate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wendt.dbmigrate.Migration;
+import tech.wendt.dbmigrate.MigrationEntry;
+import tech.wendt.dbmigrate.MigrationException;
+import tech.wendt.dbmigrate.MigrationPlanner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans migrations and rollbacks for a history where all but the newest ten migrations are applied.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlannerBenchmark {
+
+    private static final int PENDING = 10;
+
+    @Param({"100", "10000", "100000"})
+    private int migrationCount;
+
+    private List<Migration> available;
+    private List<MigrationEntry> applied;
+
+    @Setup
+    public void createMigrations() {
+        available = new ArrayList<>(migrationCount);
+        applied = new ArrayList<>(migrationCount);
+        for (int i = 1; i <= migrationCount; i++) {
+            available.add(new Migration("migration" + i, i, "SELECT 1"));
+            if (i <= migrationCount - PENDING) {
+                MigrationEntry entry = new MigrationEntry();
+                entry.setOrder(i);
+                entry.setName("migration" + i);
+                applied.add(entry);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Migration> planMigration() throws MigrationException {
+        return MigrationPlanner.planMigration(available, applied);
+    }
+
+    @Benchmark
+    public List<Migration> planRollback() throws MigrationException {
+        return MigrationPlanner.planRollback(available, applied, Integer.MIN_VALUE);
+    }
+}
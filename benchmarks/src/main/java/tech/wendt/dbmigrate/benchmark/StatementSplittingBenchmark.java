@@ -0,0 +1,76 @@
+package tech.wendt.dbmigrate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import tech.wendt.dbmigrate.SqlStatementReader;
+
+import java.io.BufferedWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splits a script file into statements while streaming it from disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx256m")
+public class StatementSplittingBenchmark {
+
+    private static final String[] STATEMENTS = {
+            "INSERT INTO t (id, text) VALUES (%s, 'semicolon; in a string');\n",
+            "-- comment with ; separator\nUPDATE t SET text = \"quoted;identifier\" WHERE id = %s;\n",
+            "/* block ; comment */ DELETE FROM t WHERE id = %s;\n",
+            "CREATE FUNCTION f%s() RETURNS int AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql;\n"};
+
+    @Param({"1024", "1048576", "104857600", "524288000"})
+    private long scriptSize;
+
+    private Path script;
+
+    @Setup
+    public void createScript() throws Exception {
+        script = Files.createTempFile("dbmigrate-benchmark", ".sql");
+        try (BufferedWriter writer = Files.newBufferedWriter(script, StandardCharsets.UTF_8)) {
+            long written = 0;
+            for (int i = 0; written < scriptSize; i++) {
+                String statement = String.format(STATEMENTS[i % STATEMENTS.length], i);
+                writer.write(statement);
+                written += statement.length();
+            }
+        }
+    }
+
+    @TearDown
+    public void deleteScript() throws Exception {
+        Files.deleteIfExists(script);
+    }
+
+    @Benchmark
+    public int split() throws Exception {
+        int count = 0;
+        try (SqlStatementReader reader = new SqlStatementReader(FileChannel.open(script, StandardOpenOption.READ),
+                StandardCharsets.UTF_8)) {
+            while (reader.nextStatement() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
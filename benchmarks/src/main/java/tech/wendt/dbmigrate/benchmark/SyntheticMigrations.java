@@ -0,0 +1,83 @@
+package tech.wendt.dbmigrate.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Creates migration directories and jars for benchmarks.
+ */
+final class SyntheticMigrations {
+
+    private SyntheticMigrations() {
+    }
+
+    /**
+     * Writes {@code count} migrations with up and down scripts into {@code root/resourceName}.
+     */
+    static Path createDirectory(Path root, String resourceName, int count, int statementsPerScript)
+            throws IOException {
+        Path directory = Files.createDirectories(root.resolve(resourceName));
+        for (int i = 1; i <= count; i++) {
+            StringBuilder up = new StringBuilder();
+            for (int j = 0; j < statementsPerScript; j++) {
+                up.append("INSERT INTO t_").append(i).append(" VALUES (").append(j).append(", 'value;").append(j)
+                        .append("');\n");
+            }
+            Files.write(directory.resolve(i + "__migration" + i + "_up.sql"),
+                    up.toString().getBytes(StandardCharsets.UTF_8));
+            Files.write(directory.resolve(i + "__migration" + i + "_down.sql"),
+                    ("DELETE FROM t_" + i + ";\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return directory;
+    }
+
+    /**
+     * Packages all files below {@code root} into a jar.
+     */
+    static Path createJar(Path root, Path jar) throws IOException {
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(root)) {
+                        output.putNextEntry(new JarEntry(entryName(root, dir) + "/"));
+                        output.closeEntry();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    output.putNextEntry(new JarEntry(entryName(root, file)));
+                    Files.copy(file, output);
+                    output.closeEntry();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return jar;
+    }
+
+    static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted((left, right) -> right.compareTo(left))::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String entryName(Path root, Path path) {
+        return root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+}
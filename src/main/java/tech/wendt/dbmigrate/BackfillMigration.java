@@ -0,0 +1,298 @@
+package tech.wendt.dbmigrate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Updates the rows of a table in small committed chunks of an integral key instead of one long transaction.
+ * <p>
+ * The chunk statement contains two parameters, the exclusive lower and the inclusive upper key of the chunk, for
+ * example {@code UPDATE users SET email_lower = LOWER(email) WHERE id > ? AND id <= ?}, so a range starting at
+ * {@link Long#MIN_VALUE} is rejected instead of skipped. The size of the chunks is adapted after every chunk, so
+ * that chunks take about the target time. Between chunks the backfill can be throttled to a number of rows per
+ * second and paused.
+ * <p>
+ * When applied by {@link DbMigrator}, the position of every committed chunk is stored with the progress of
+ * checkpointed migrations, so a failed backfill continues after its last committed chunk. It is recorded in the
+ * history as not transactional.
+ */
+public class BackfillMigration extends Migration {
+
+    private static final long PAUSE_POLL_MILLIS = 100;
+
+    private final String table;
+    private final String keyColumn;
+    private final String chunkStatement;
+    private Long fromKey;
+    private Long toKey;
+    private long initialChunkSize = 1000;
+    private long maxChunkSize = 1_000_000;
+    private long targetChunkMillis = 200;
+    private long maxRowsPerSecond = 0;
+    private BooleanSupplier pauseCondition = () -> false;
+    private volatile boolean paused;
+    private volatile BackfillProgress progress;
+
+    /**
+     * The table and key column are put into the key range query as given and are not escaped, so they must be
+     * trusted identifiers and quoted by the caller where the database requires it.
+     *
+     * @param table          the table to backfill
+     * @param keyColumn      an integral column of the table, usually its primary key
+     * @param chunkStatement the statement executed for every chunk with the exclusive lower and inclusive upper key
+     * @param downSql        the script to roll the backfill back, may be {@code null}
+     */
+    public BackfillMigration(String name, int order, String table, String keyColumn, String chunkStatement,
+                             String downSql) {
+        super(name, order, ScriptSource.of(chunkStatement), downSql != null ? ScriptSource.of(downSql) : null);
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.chunkStatement = chunkStatement;
+    }
+
+    /**
+     * Limits the backfill to the given keys instead of the smallest and largest key of the table.
+     */
+    public void setKeyRange(long fromKey, long toKey) {
+        if (fromKey > toKey) {
+            throw new IllegalArgumentException(String.format("Empty key range: %s..%s", fromKey, toKey));
+        }
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+    }
+
+    public void setInitialChunkSize(long initialChunkSize) {
+        if (initialChunkSize < 1) {
+            throw new IllegalArgumentException(String.format("Chunk size must be positive: %s", initialChunkSize));
+        }
+        this.initialChunkSize = initialChunkSize;
+    }
+
+    public void setMaxChunkSize(long maxChunkSize) {
+        if (maxChunkSize < 1) {
+            throw new IllegalArgumentException(String.format("Chunk size must be positive: %s", maxChunkSize));
+        }
+        this.maxChunkSize = maxChunkSize;
+    }
+
+    /**
+     * The time a single chunk should take, chunk sizes are adapted towards it.
+     */
+    public void setTargetChunkMillis(long targetChunkMillis) {
+        if (targetChunkMillis < 1) {
+            throw new IllegalArgumentException(String.format("Target time must be positive: %s", targetChunkMillis));
+        }
+        this.targetChunkMillis = targetChunkMillis;
+    }
+
+    /**
+     * Waits between chunks so that at most the given number of rows is updated per second, 0 for no limit.
+     */
+    public void setMaxRowsPerSecond(long maxRowsPerSecond) {
+        if (maxRowsPerSecond < 0) {
+            throw new IllegalArgumentException(String.format("Rate must not be negative: %s", maxRowsPerSecond));
+        }
+        this.maxRowsPerSecond = maxRowsPerSecond;
+    }
+
+    /**
+     * Waits before every chunk while the condition holds, for example while replicas lag behind.
+     */
+    public void setPauseCondition(BooleanSupplier pauseCondition) {
+        this.pauseCondition = pauseCondition;
+    }
+
+    /**
+     * Stops the backfill before its next chunk until {@link #resume()} is called.
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * @return the progress of the running or last run of the backfill, or {@code null} if it did not start yet
+     */
+    public BackfillProgress getProgress() {
+        return progress;
+    }
+
+    @Override
+    ScriptExecution up(MigrationSession session) throws SQLException {
+        long start = System.nanoTime();
+        MigrationListener listener = session.getListener();
+        Connection connection = session.getConnection();
+        CheckpointProgress checkpoint = session.getProgress();
+        session.flush();
+        listener.migrationStarted(this, false);
+        try {
+            long[] range = keyRange(connection);
+            int chunks = 0;
+            if (range != null) {
+                chunks = backfill(connection, checkpoint, listener, range[0], range[1]);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            session.finished(this, false, elapsedNanos, chunks);
+            return new ScriptExecution(chunks, checksum(), elapsedNanos, false);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            listener.migrationFailed(this, false, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Plans the chunk statement once, with the rows of the key range as its estimate.
+     */
+    @Override
+    PlannedMigration planUp(DryRunPlanner planner, Connection connection) {
+        String rowQuery = String.format("SELECT %s FROM %s", keyColumn, table);
+        if (fromKey != null) {
+            rowQuery += String.format(" WHERE %s >= %s AND %s <= %s", keyColumn, fromKey, keyColumn, toKey);
+        }
+        return planner.analyseChunked(connection, this, rowQuery, 1, 0);
+    }
+
+    private int backfill(Connection connection, CheckpointProgress checkpoint, MigrationListener listener,
+                         long first, long last) throws SQLException {
+        if (first == Long.MIN_VALUE) {
+            throw new SQLException(String.format("The backfill %s__%s cannot include the key %s, as the lower bound "
+                    + "of its chunks is exclusive", getOrder(), getName(), first));
+        }
+        long position = first - 1;
+        int chunks = 0;
+        long checksum = checksum();
+        if (checkpoint != null) {
+            checkpoint.createIfNotExists();
+            long[] saved = checkpoint.read(this);
+            if (saved != null) {
+                if (saved[1] != checksum) {
+                    throw new SQLException(String.format("The backfill %s__%s changed since it was started",
+                            getOrder(), getName()));
+                }
+                chunks = (int) saved[0];
+                position = Math.max(position, saved[2]);
+            }
+        }
+        // Chunks and rows committed in this run, the checkpoint counts the chunks of all runs
+        int runChunks = 0;
+        long rows = 0;
+        long chunkSize = Math.min(initialChunkSize, maxChunkSize);
+        try (PreparedStatement statement = connection.prepareStatement(chunkStatement)) {
+            while (position < last) {
+                progress = new BackfillProgress(first, last, position, rows, runChunks, chunkSize, paused);
+                awaitResume(first, last, position, rows, runChunks, chunkSize);
+                long upper = isLastChunk(position, last, chunkSize) ? last : position + chunkSize;
+                long chunkStart = System.nanoTime();
+                statement.setLong(1, position);
+                statement.setLong(2, upper);
+                int updated = statement.executeUpdate();
+                chunks++;
+                runChunks++;
+                if (checkpoint != null) {
+                    checkpoint.save(this, chunks, checksum, upper);
+                }
+                connection.commit();
+                long chunkNanos = System.nanoTime() - chunkStart;
+                listener.statementExecuted(this, chunks - 1, chunkStatement, chunkNanos, updated);
+                position = upper;
+                rows += Math.max(0, updated);
+                chunkSize = adapt(chunkSize, chunkNanos);
+                throttle(updated, chunkNanos);
+            }
+        }
+        progress = new BackfillProgress(first, last, position, rows, runChunks, chunkSize, false);
+        return chunks;
+    }
+
+    /**
+     * @return whether the chunk after the position reaches the last key, also for ranges wider than
+     * {@link Long#MAX_VALUE}, where the difference overflows
+     */
+    static boolean isLastChunk(long position, long last, long chunkSize) {
+        long remaining = last - position;
+        return remaining > 0 && remaining <= chunkSize;
+    }
+
+    /**
+     * @return the chunk size scaled towards the target time, by at most a factor of two per chunk
+     */
+    private long adapt(long chunkSize, long chunkNanos) {
+        double targetNanos = targetChunkMillis * 1_000_000d;
+        double factor = Math.max(0.5, Math.min(2, targetNanos / Math.max(1, chunkNanos)));
+        return Math.max(1, Math.min(maxChunkSize, (long) (chunkSize * factor)));
+    }
+
+    private void throttle(int updated, long chunkNanos) throws SQLException {
+        if (maxRowsPerSecond <= 0 || updated <= 0) {
+            return;
+        }
+        long minimumNanos = updated * 1_000_000_000L / maxRowsPerSecond;
+        sleep((minimumNanos - chunkNanos) / 1_000_000);
+    }
+
+    private void awaitResume(long first, long last, long position, long rows, int chunks, long chunkSize)
+            throws SQLException {
+        while (paused || pauseCondition.getAsBoolean()) {
+            progress = new BackfillProgress(first, last, position, rows, chunks, chunkSize, true);
+            synchronized (this) {
+                if (paused) {
+                    try {
+                        wait(PAUSE_POLL_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while the backfill was paused", e);
+                    }
+                    continue;
+                }
+            }
+            sleep(PAUSE_POLL_MILLIS);
+        }
+    }
+
+    private long[] keyRange(Connection connection) throws SQLException {
+        if (fromKey != null) {
+            return new long[]{fromKey, toKey};
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(String.format("SELECT MIN(%s), MAX(%s) FROM %s",
+                     keyColumn, keyColumn, table))) {
+            result.next();
+            long min = result.getLong(1);
+            if (result.wasNull()) {
+                return null;
+            }
+            return new long[]{min, result.getLong(2)};
+        } finally {
+            connection.commit();
+        }
+    }
+
+    private long checksum() {
+        CRC32 checksum = new CRC32();
+        checksum.update(chunkStatement.getBytes(StandardCharsets.UTF_8));
+        return checksum.getValue();
+    }
+
+    private static void sleep(long millis) throws SQLException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while throttling the backfill", e);
+        }
+    }
+}
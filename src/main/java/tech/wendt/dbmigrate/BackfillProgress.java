@@ -0,0 +1,91 @@
+package tech.wendt.dbmigrate;
+
+/**
+ * A snapshot of the progress of a {@link BackfillMigration}.
+ * <p>
+ * The position covers all runs of the backfill, while the rows and chunks only count the current run, so a resumed
+ * backfill starts counting them at 0.
+ */
+public class BackfillProgress {
+
+    private final long fromKey;
+    private final long toKey;
+    private final long position;
+    private final long rows;
+    private final int chunks;
+    private final long chunkSize;
+    private final boolean paused;
+
+    BackfillProgress(long fromKey, long toKey, long position, long rows, int chunks, long chunkSize,
+                     boolean paused) {
+        this.fromKey = fromKey;
+        this.toKey = toKey;
+        this.position = position;
+        this.rows = rows;
+        this.chunks = chunks;
+        this.chunkSize = chunkSize;
+        this.paused = paused;
+    }
+
+    /**
+     * @return the smallest key of the backfill
+     */
+    public long getFromKey() {
+        return fromKey;
+    }
+
+    /**
+     * @return the largest key of the backfill
+     */
+    public long getToKey() {
+        return toKey;
+    }
+
+    /**
+     * @return the largest key of the last committed chunk
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of rows updated by the chunks committed in this run
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of chunks committed in this run
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the size of the next chunk in keys
+     */
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return the share of the key range that is committed, between 0 and 1
+     */
+    public double getFraction() {
+        if (toKey <= fromKey) {
+            return position >= toKey ? 1 : 0;
+        }
+        return Math.max(0, Math.min(1, (double) (position - fromKey + 1) / ((double) toKey - fromKey + 1)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f%% (key %s of %s..%s), %s rows in %s chunks, chunk size %s%s", getFraction() * 100,
+                position, fromKey, toKey, rows, chunks, chunkSize, paused ? ", paused" : "");
+    }
+}
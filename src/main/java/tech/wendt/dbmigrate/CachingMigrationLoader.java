@@ -0,0 +1,88 @@
+package tech.wendt.dbmigrate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lists migrations from another loader only once and shares recently loaded migrations between threads.
+ * <p>
+ * At most {@code capacity} migrations are kept, the least recently used ones are dropped. Migrators that work on
+ * the same load window share its scripts without all scripts being held for the whole run. Requests for more
+ * migrations than fit are passed to the other loader.
+ */
+class CachingMigrationLoader implements MigrationLoader {
+
+    private final MigrationLoader delegate;
+    private final int capacity;
+    private final Map<String, Migration> migrations;
+    private volatile List<? extends MigrationInfo> migrationInfos;
+
+    CachingMigrationLoader(MigrationLoader delegate, int capacity) {
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.migrations = new LinkedHashMap<String, Migration>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Migration> eldest) {
+                return size() > CachingMigrationLoader.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public List<Migration> loadMigrations() throws IOException {
+        return loadMigrations(loadMigrationInfos());
+    }
+
+    @Override
+    public List<? extends MigrationInfo> loadMigrationInfos() throws IOException {
+        List<? extends MigrationInfo> result = migrationInfos;
+        if (result == null) {
+            synchronized (this) {
+                result = migrationInfos;
+                if (result == null) {
+                    result = delegate.loadMigrationInfos();
+                    migrationInfos = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Migration> loadMigrations(List<? extends MigrationInfo> infos) throws IOException {
+        if (infos.size() > capacity) {
+            return delegate.loadMigrations(infos);
+        }
+        Map<String, Migration> loaded = new HashMap<>();
+        synchronized (this) {
+            List<MigrationInfo> missing = new ArrayList<>();
+            for (MigrationInfo info : infos) {
+                Migration migration = migrations.get(key(info));
+                if (migration != null) {
+                    loaded.put(key(info), migration);
+                } else {
+                    missing.add(info);
+                }
+            }
+            if (!missing.isEmpty()) {
+                for (Migration migration : delegate.loadMigrations(missing)) {
+                    migrations.put(key(migration), migration);
+                    loaded.put(key(migration), migration);
+                }
+            }
+        }
+        List<Migration> result = new ArrayList<>(infos.size());
+        for (MigrationInfo info : infos) {
+            result.add(loaded.get(key(info)));
+        }
+        return result;
+    }
+
+    private static String key(MigrationInfo migration) {
+        return migration.getOrder() + "__" + migration.getName();
+    }
+}
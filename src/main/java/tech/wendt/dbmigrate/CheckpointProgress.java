@@ -0,0 +1,155 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.db.DatabaseType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+
+/**
+ * Stores how many statements of a checkpointed migration are committed in the table
+ * {@code <migration table>_progress}, together with a checksum of those statements to detect changed scripts when
+ * resuming. The table is created when the first checkpointed migration runs.
+ */
+class CheckpointProgress {
+
+    private final Connection connection;
+    private final String createTable;
+    private final String selectTable;
+    private final String select;
+    private final String update;
+    private final String insert;
+    private final String delete;
+    private boolean tableExists;
+
+    CheckpointProgress(Connection connection, DatabaseType databaseType, String migrationTableName) {
+        this.connection = connection;
+        String table = escape(databaseType, migrationTableName + "_progress");
+        String order = escape(databaseType, "order");
+        String name = escape(databaseType, "name");
+        String statementCount = escape(databaseType, "statement_count");
+        String checksum = escape(databaseType, "checksum");
+        String position = escape(databaseType, "position");
+        String updatedAt = escape(databaseType, "updated_at");
+        String ifNotExists = databaseType.isCreateIfNotExistsSupported() ? "IF NOT EXISTS " : "";
+        createTable = String.format("CREATE TABLE %s%s (%s INTEGER NOT NULL PRIMARY KEY, %s VARCHAR(255) NOT NULL, " +
+                "%s INTEGER NOT NULL, %s BIGINT NOT NULL, %s BIGINT NOT NULL, %s BIGINT NOT NULL)",
+                ifNotExists, table, order, name, statementCount, checksum, position, updatedAt);
+        selectTable = String.format("SELECT %s FROM %s WHERE 1 = 0", order, table);
+        select = String.format("SELECT %s, %s, %s FROM %s WHERE %s = ? AND %s = ?",
+                statementCount, checksum, position, table, order, name);
+        update = String.format("UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ? AND %s = ?",
+                table, statementCount, checksum, position, updatedAt, order, name);
+        insert = String.format("INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?)",
+                table, order, name, statementCount, checksum, position, updatedAt);
+        delete = String.format("DELETE FROM %s WHERE %s = ? AND %s = ?", table, order, name);
+    }
+
+    /**
+     * Creates the table if it does not exist and commits.
+     */
+    void createIfNotExists() throws SQLException {
+        if (tableExists) {
+            return;
+        }
+        if (!exists()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(createTable);
+                connection.commit();
+            } catch (SQLException e) {
+                // created by another process in the meantime
+                connection.rollback();
+                if (!exists()) {
+                    throw e;
+                }
+            }
+        }
+        tableExists = true;
+    }
+
+    /**
+     * @return the number of committed statements, their checksum and the position of the last committed chunk, or
+     * {@code null} if the migration was not started before
+     */
+    long[] read(MigrationInfo migration) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(select)) {
+            statement.setInt(1, migration.getOrder());
+            statement.setString(2, migration.getName());
+            try (ResultSet row = statement.executeQuery()) {
+                return row.next() ? new long[]{row.getInt(1), row.getLong(2), row.getLong(3)} : null;
+            }
+        }
+    }
+
+    /**
+     * Stores the progress in the current transaction of the connection.
+     */
+    void save(MigrationInfo migration, int statementCount, long checksum) throws SQLException {
+        save(migration, statementCount, checksum, 0);
+    }
+
+    /**
+     * Stores the progress including the position of a chunked migration in the current transaction of the
+     * connection.
+     */
+    void save(MigrationInfo migration, int statementCount, long checksum, long position) throws SQLException {
+        long now = System.currentTimeMillis();
+        try (PreparedStatement statement = connection.prepareStatement(update)) {
+            statement.setInt(1, statementCount);
+            statement.setLong(2, checksum);
+            statement.setLong(3, position);
+            statement.setLong(4, now);
+            statement.setInt(5, migration.getOrder());
+            statement.setString(6, migration.getName());
+            if (statement.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(insert)) {
+            statement.setInt(1, migration.getOrder());
+            statement.setString(2, migration.getName());
+            statement.setInt(3, statementCount);
+            statement.setLong(4, checksum);
+            statement.setLong(5, position);
+            statement.setLong(6, now);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Removes the progress in the current transaction of the connection.
+     */
+    void delete(MigrationInfo migration) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(delete)) {
+            statement.setInt(1, migration.getOrder());
+            statement.setString(2, migration.getName());
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Probes the table within a savepoint, so that statements of the current transaction are kept although a failed
+     * query aborts the transaction on PostgreSQL.
+     */
+    private boolean exists() throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery(selectTable).close();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback(savepoint);
+            return false;
+        } finally {
+            connection.releaseSavepoint(savepoint);
+        }
+    }
+
+    private static String escape(DatabaseType databaseType, String name) {
+        StringBuilder escaped = new StringBuilder();
+        databaseType.appendEscapedEntityName(escaped, name);
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package tech.wendt.dbmigrate;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.zip.CRC32;
+
+/**
+ * Computes the CRC32 of the UTF-8 encoding of all characters read through it, which equals the checksum of the
+ * bytes of a UTF-8 script file without byte order mark.
+ */
+class ChecksumReader extends FilterReader {
+
+    private final CRC32 checksum = new CRC32();
+    private byte[] encoded = new byte[0];
+    private char highSurrogate;
+
+    ChecksumReader(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        char[] single = new char[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0];
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        int read = in.read(buffer, offset, length);
+        if (read > 0) {
+            update(buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        char[] skipped = new char[(int) Math.min(n, 8192)];
+        int read = read(skipped, 0, skipped.length);
+        return Math.max(0, read);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    long getChecksum() {
+        return checksum.getValue();
+    }
+
+    private void update(char[] buffer, int offset, int length) {
+        if (encoded.length < length * 3 + 4) {
+            encoded = new byte[length * 3 + 4];
+        }
+        int position = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = buffer[i];
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    encoded[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    encoded[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    encoded[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    encoded[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    continue;
+                }
+                position = encode(high, position);
+            }
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else {
+                position = encode(c, position);
+            }
+        }
+        checksum.update(encoded, 0, position);
+    }
+
+    private int encode(char c, int position) {
+        if (c < 0x80) {
+            encoded[position++] = (byte) c;
+        } else if (c < 0x800) {
+            encoded[position++] = (byte) (0xC0 | (c >> 6));
+            encoded[position++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            encoded[position++] = (byte) (0xE0 | (c >> 12));
+            encoded[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            encoded[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return position;
+    }
+}
@@ -0,0 +1,87 @@
+package tech.wendt.dbmigrate;
+
+class CompositeMigrationListener implements MigrationListener {
+
+    private final MigrationListener[] listeners;
+
+    CompositeMigrationListener(MigrationListener[] listeners) {
+        this.listeners = listeners.clone();
+    }
+
+    @Override
+    public void migrationsListed(int count, long nanos) {
+        for (MigrationListener listener : listeners) {
+            listener.migrationsListed(count, nanos);
+        }
+    }
+
+    @Override
+    public void historyQueried(int entries, long nanos) {
+        for (MigrationListener listener : listeners) {
+            listener.historyQueried(entries, nanos);
+        }
+    }
+
+    @Override
+    public void migrationsPlanned(int planned, long nanos) {
+        for (MigrationListener listener : listeners) {
+            listener.migrationsPlanned(planned, nanos);
+        }
+    }
+
+    @Override
+    public void scriptsLoaded(int count, long nanos) {
+        for (MigrationListener listener : listeners) {
+            listener.scriptsLoaded(count, nanos);
+        }
+    }
+
+    @Override
+    public void connectionAcquired(long nanos) {
+        for (MigrationListener listener : listeners) {
+            listener.connectionAcquired(nanos);
+        }
+    }
+
+    @Override
+    public void migrationStarted(MigrationInfo migration, boolean rollback) {
+        for (MigrationListener listener : listeners) {
+            listener.migrationStarted(migration, rollback);
+        }
+    }
+
+    @Override
+    public void statementExecuted(MigrationInfo migration, int index, String statement, long nanos, int rowCount) {
+        for (MigrationListener listener : listeners) {
+            listener.statementExecuted(migration, index, statement, nanos, rowCount);
+        }
+    }
+
+    @Override
+    public void batchExecuted(MigrationInfo migration, int firstIndex, int size, long nanos, int rowCount) {
+        for (MigrationListener listener : listeners) {
+            listener.batchExecuted(migration, firstIndex, size, nanos, rowCount);
+        }
+    }
+
+    @Override
+    public void migrationFinished(MigrationInfo migration, boolean rollback, long nanos, int statementCount) {
+        for (MigrationListener listener : listeners) {
+            listener.migrationFinished(migration, rollback, nanos, statementCount);
+        }
+    }
+
+    @Override
+    public void migrationFailed(MigrationInfo migration, boolean rollback, long nanos, Exception failure) {
+        for (MigrationListener listener : listeners) {
+            listener.migrationFailed(migration, rollback, nanos, failure);
+        }
+    }
+
+    @Override
+    public void historyUpdated(MigrationInfo migration, long nanos) {
+        for (MigrationListener listener : listeners) {
+            listener.historyUpdated(migration, nanos);
+        }
+    }
+}
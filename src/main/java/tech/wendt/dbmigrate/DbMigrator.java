@@ -1,6 +1,7 @@
 package tech.wendt.dbmigrate;
 
 import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.db.DatabaseType;
 import com.j256.ormlite.dao.DaoManager;
 import com.j256.ormlite.field.DatabaseFieldConfig;
 import com.j256.ormlite.jdbc.DataSourceConnectionSource;
@@ -13,33 +14,71 @@ import javax.sql.DataSource;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
-public class DbMigrator {
+public class DbMigrator implements AutoCloseable {
+
+    static final int LOAD_WINDOW = 64;
+    private static final Map<String, String> DETAIL_COLUMN_TYPES = new LinkedHashMap<>();
+
+    static {
+        DETAIL_COLUMN_TYPES.put("applied_at", "BIGINT");
+        DETAIL_COLUMN_TYPES.put("execution_time_ms", "BIGINT");
+        DETAIL_COLUMN_TYPES.put("checksum", "BIGINT");
+        DETAIL_COLUMN_TYPES.put("statement_count", "INTEGER");
+        DETAIL_COLUMN_TYPES.put("host", "VARCHAR(255)");
+        DETAIL_COLUMN_TYPES.put("transactional", "BOOLEAN");
+    }
 
     private String migrationTableName;
     private ConnectionSource connectionSource;
+    private String databaseUrl;
     private MigrationLoader migrationLoader;
     private Dao<MigrationEntry, Integer> migrationDao;
+    private MigrationHistory history;
+    private StatementExecutor statementExecutor;
+    private int parallelism;
+    private int groupSize;
+    private boolean singleTransactionRollback;
+    private MigrationLock migrationLock;
+    private MigrationListener listener;
+    private Migration baseline;
 
     public DbMigrator(String migrationTableName, DataSource dataSource, MigrationLoader migrationLoader)
             throws MigrationException {
+        this(migrationTableName, dataSource, migrationLoader, new MigrationSettings());
+    }
+
+    public DbMigrator(String migrationTableName, DataSource dataSource, MigrationLoader migrationLoader,
+                      MigrationSettings settings) throws MigrationException {
         this.migrationTableName = migrationTableName;
         this.migrationLoader = migrationLoader;
+        this.statementExecutor = new StatementExecutor(settings.getBatchSize());
+        this.parallelism = settings.getParallelism();
+        this.groupSize = settings.getGroupSize();
+        this.singleTransactionRollback = settings.isSingleTransactionRollback();
+        this.listener = settings.getListener();
+        this.baseline = settings.getBaseline();
         init(dataSource);
+        if (settings.isLocking()) {
+            this.migrationLock = new MigrationLock(dataSource, connectionSource.getDatabaseType(), databaseUrl,
+                    migrationTableName, settings.getLockLeaseMillis(), settings.getLockTimeoutMillis());
+        }
     }
 
     private void init(DataSource dataSource) throws MigrationException {
-        try (
-                Connection connection = dataSource.getConnection();
-                ConnectionSource connectionSource =
-                        new DataSourceConnectionSource(dataSource, connection.getMetaData().getURL())
-        ) {
-            this.connectionSource = connectionSource;
+        try (Connection connection = dataSource.getConnection()) {
+            databaseUrl = connection.getMetaData().getURL();
+            connectionSource = new DataSourceConnectionSource(dataSource, databaseUrl);
             List<DatabaseFieldConfig> fields = new ArrayList<>();
             DatabaseFieldConfig idField = new DatabaseFieldConfig("id");
             idField.setGeneratedId(true);
@@ -55,81 +94,296 @@ public class DbMigrator {
             nameField.setCanBeNull(false);
             fields.add(nameField);
 
+            fields.add(detailField("appliedAt", "applied_at"));
+            fields.add(detailField("executionTimeMs", "execution_time_ms"));
+            fields.add(detailField("checksum", "checksum"));
+            fields.add(detailField("statementCount", "statement_count"));
+            fields.add(detailField("host", "host"));
+            fields.add(detailField("transactional", "transactional"));
+
             DatabaseTableConfig<MigrationEntry> tableConfig =
                     new DatabaseTableConfig<>(MigrationEntry.class, migrationTableName, fields);
             tableConfig.setTableName(migrationTableName);
 
-            TableUtils.createTableIfNotExists(connectionSource, tableConfig);
+            synchronized (SchemaMonitors.of(databaseUrl)) {
+                TableUtils.createTableIfNotExists(connectionSource, tableConfig);
+                upgradeTable(connection);
+            }
             migrationDao = DaoManager.createDao(connectionSource, tableConfig);
-        } catch (SQLException | IOException e) {
+            history = new MigrationHistory(migrationDao);
+        } catch (SQLException e) {
             throw new MigrationException("Could not initialize Migration", e);
         }
     }
 
+    private static DatabaseFieldConfig detailField(String fieldName, String columnName) {
+        DatabaseFieldConfig field = new DatabaseFieldConfig(fieldName);
+        field.setColumnName(columnName);
+        field.setCanBeNull(true);
+        return field;
+    }
+
+    /**
+     * Adds the columns of migration details to history tables that were created before they existed. Entries that
+     * were applied before have no details.
+     */
+    private void upgradeTable(Connection connection) throws SQLException {
+        DatabaseType databaseType = connectionSource.getDatabaseType();
+        StringBuilder table = new StringBuilder();
+        databaseType.appendEscapedEntityName(table, migrationTableName);
+        StringBuilder columns = new StringBuilder();
+        for (String column : DETAIL_COLUMN_TYPES.keySet()) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            databaseType.appendEscapedEntityName(columns, column);
+        }
+        if (selects(connection, String.format("SELECT %s FROM %s WHERE 1 = 0", columns, table))) {
+            return;
+        }
+        for (Map.Entry<String, String> column : DETAIL_COLUMN_TYPES.entrySet()) {
+            StringBuilder name = new StringBuilder();
+            databaseType.appendEscapedEntityName(name, column.getKey());
+            if (selects(connection, String.format("SELECT %s FROM %s WHERE 1 = 0", name, table))) {
+                continue;
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(String.format("ALTER TABLE %s ADD %s %s", table, name, column.getValue()));
+            } catch (SQLException e) {
+                // another process may have added the column in the meantime
+                if (!selects(connection, String.format("SELECT %s FROM %s WHERE 1 = 0", name, table))) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static boolean selects(Connection connection, String query) {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery(query).close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the applied migrations with the details recorded when they were applied
+     */
+    public MigrationHistory getHistory() {
+        return history;
+    }
+
     public void migrateAll() throws MigrationException {
         try {
-            List<Migration> migrations = migrationLoader.loadMigrations();
+            List<? extends MigrationInfo> migrations = listMigrations();
             migrate(migrations);
         } catch (SQLException | IOException e) {
             throw new MigrationException("Could not execute migration", e);
         }
     }
 
-    private void migrate(List<Migration> migrations) throws SQLException, MigrationException {
-        removeCompletedMigrations(migrations);
-        List<Migration> sortedMigrations = migrations.stream()
-                .sorted(Comparator.comparingInt(Migration::getOrder))
-                .collect(Collectors.toList());
+    private void migrate(List<? extends MigrationInfo> migrations)
+            throws SQLException, IOException, MigrationException {
+        locked(MigrationLock.fingerprint(migrations), () -> applyMigrations(migrations));
+    }
+
+    private void applyMigrations(List<? extends MigrationInfo> migrations)
+            throws SQLException, IOException, MigrationException {
+        if (baseline != null) {
+            applyBaseline(migrations);
+        }
+        if (parallelism > 1) {
+            migrateParallel(migrations);
+            return;
+        }
+        try (MigrationSession session = openSession()) {
+            List<MigrationEntry> history = queryHistory();
+            long planStart = System.nanoTime();
+            List<? extends MigrationInfo> pendingMigrations = MigrationPlanner.planMigration(migrations, history);
+            listener.migrationsPlanned(pendingMigrations.size(), System.nanoTime() - planStart);
+            if (pendingMigrations.isEmpty()) {
+                return;
+            }
+            for (List<? extends MigrationInfo> window : loadWindows(pendingMigrations)) {
+                for (Migration migration : loadScripts(window)) {
+                    ScriptExecution execution = migration.up(session);
+                    session.record(migration, execution);
+                }
+            }
+            session.flush();
+        }
+    }
 
-        for (Migration migration : sortedMigrations) {
-            MigrationEntry migrationEntry = new MigrationEntry();
-            migrationEntry.setName(migration.getName());
-            migrationEntry.setOrder(migration.getOrder());
-            migration.up(connectionSource);
-            migrationDao.create(migrationEntry);
+    /**
+     * Executes the baseline instead of the migrations it stands in for, if the history is empty and the migrations
+     * to apply reach the order of the baseline. The migrations it stands in for are recorded as applied afterwards.
+     */
+    private void applyBaseline(List<? extends MigrationInfo> migrations) throws SQLException, MigrationException {
+        List<MigrationInfo> replaced = baselineReplaces(migrations);
+        if (replaced == null) {
+            return;
+        }
+        try (MigrationSession session = openSession()) {
+            baseline.up(session);
+            session.recordBaseline(replaced);
         }
     }
 
-    private int removeCompletedMigrations(List<Migration> migrations) throws SQLException, MigrationException {
-        List<MigrationEntry> existingMigrations = migrationDao.queryForAll()
-                .stream()
-                .sorted(Comparator.comparingInt(MigrationEntry::getOrder))
+    /**
+     * @return the migrations the baseline stands in for, or {@code null} if the baseline is not applied
+     */
+    private List<MigrationInfo> baselineReplaces(List<? extends MigrationInfo> migrations)
+            throws SQLException, MigrationException {
+        if (baseline == null) {
+            return null;
+        }
+        int baselineOrder = baseline.getOrder();
+        if (migrations.stream().noneMatch(migration -> migration.getOrder() >= baselineOrder)
+                || migrationDao.countOf() > 0) {
+            return null;
+        }
+        List<MigrationInfo> replaced = migrations.stream()
+                .filter(migration -> migration.getOrder() <= baselineOrder)
+                .sorted(Comparator.comparingInt(MigrationInfo::getOrder))
                 .collect(Collectors.toList());
+        if (replaced.isEmpty()) {
+            throw new MigrationException(String.format("Baseline %s__%s stands in for no available migration",
+                    baselineOrder, baseline.getName()));
+        }
+        return replaced;
+    }
+
+    /**
+     * Applies migrations in the order of the dependencies declared in their headers. Migrations older than the most
+     * recent applied one, which remain after a failed parallel run, may still be applied as long as no applied
+     * migration depends on them.
+     */
+    private void migrateParallel(List<? extends MigrationInfo> migrations)
+            throws SQLException, IOException, MigrationException {
+        List<MigrationEntry> history = queryHistory();
+        long planStart = System.nanoTime();
+        List<? extends MigrationInfo> pendingMigrations = MigrationPlanner.planMigration(migrations, history, true);
+        listener.migrationsPlanned(pendingMigrations.size(), System.nanoTime() - planStart);
+        if (pendingMigrations.isEmpty()) {
+            return;
+        }
+        Set<Integer> pendingOrders = pendingMigrations.stream()
+                .map(MigrationInfo::getOrder)
+                .collect(Collectors.toSet());
+        int lowestPending = pendingMigrations.get(0).getOrder();
+        List<MigrationInfo> graphMigrations = migrations.stream()
+                .filter(migration -> migration.getOrder() >= lowestPending)
+                .sorted(Comparator.comparingInt(MigrationInfo::getOrder))
+                .collect(Collectors.toList());
+        Map<Integer, MigrationHeader> headers = new HashMap<>();
+        for (List<? extends MigrationInfo> window : loadWindows(graphMigrations)) {
+            for (Migration migration : loadScripts(window)) {
+                headers.put(migration.getOrder(), MigrationHeader.read(migration.getUpScript()));
+            }
+        }
+        MigrationGraph graph = MigrationGraph.build(graphMigrations, headers);
 
-        int lastMigrationNumber;
-        if (!existingMigrations.isEmpty()) {
-            lastMigrationNumber = existingMigrations.get(existingMigrations.size() - 1).getOrder();
-        } else {
-            lastMigrationNumber = -1;
+        Set<Integer> availableOrders = migrations.stream()
+                .map(MigrationInfo::getOrder)
+                .collect(Collectors.toSet());
+        List<MigrationInfo> illegal = new ArrayList<>();
+        for (MigrationInfo migration : graphMigrations) {
+            for (int dependency : graph.dependenciesOf(migration.getOrder())) {
+                if (!availableOrders.contains(dependency)) {
+                    throw new MigrationException(String.format("Migration %s__%s depends on unknown migration %s",
+                            migration.getOrder(), migration.getName(), dependency));
+                }
+                if (!pendingOrders.contains(migration.getOrder()) && pendingOrders.contains(dependency)) {
+                    illegal.add(migration);
+                    break;
+                }
+            }
         }
-        for (MigrationEntry entry : existingMigrations) {
-            migrations.removeIf(migration ->
-                    migration.getOrder() == entry.getOrder() && migration.getName().equals(entry.getName()));
+        if (!illegal.isEmpty()) {
+            throw new MigrationException(String.format("There are migrations in the database that depend on " +
+                    "migrations that are not in the database: %s", MigrationPlanner.describe(illegal)));
         }
-        checkNoIllegalMigrations(migrations, lastMigrationNumber);
-        return lastMigrationNumber;
+        new ParallelMigrationExecutor(connectionSource, statementExecutor, migrationTableName, migrationLoader,
+                parallelism, listener).migrate(pendingMigrations, graph);
     }
 
-    private void checkNoIllegalMigrations(List<? extends MigrationInfo> migrations, int lastMigrationNumber)
-            throws MigrationException {
-        List<MigrationInfo> illegalMigrations = migrations.stream()
-                .filter(migration -> migration.getOrder() <= lastMigrationNumber)
-                .collect(Collectors.toList());
-        if (!illegalMigrations.isEmpty()) {
-            String illegalMigrationsString = illegalMigrations.stream()
-                    .map(migration ->
-                            String.format("%s__%s", migration.getOrder(), migration.getName()))
-                    .reduce(String::concat)
-                    .orElse("This should not happen");
-            throw new MigrationException(
-                    String.format("There are migrations that are not in the database, " +
-                            "but smaller then the most recent migration number: %s", illegalMigrationsString));
+    /**
+     * Runs the action while holding the migration lock, if locking is enabled.
+     *
+     * @param upToDate the fingerprint of the history that makes the action unnecessary, or {@code null}
+     */
+    private void locked(Long upToDate, MigrationAction action) throws SQLException, IOException, MigrationException {
+        if (migrationLock == null) {
+            action.run();
+            return;
+        }
+        if (!migrationLock.acquire(upToDate)) {
+            if (MigrationLock.fingerprint(queryHistory()) == upToDate) {
+                return;
+            }
+            // the history changed after the fingerprint was published
+            migrationLock.acquire(null);
         }
+        try {
+            action.run();
+        } catch (SQLException | IOException | MigrationException | RuntimeException e) {
+            try {
+                migrationLock.release(MigrationLock.fingerprint(queryHistory()));
+            } catch (SQLException | MigrationException releaseFailure) {
+                e.addSuppressed(releaseFailure);
+            }
+            throw e;
+        }
+        migrationLock.release(MigrationLock.fingerprint(queryHistory()));
+    }
+
+    /**
+     * Splits migrations into windows that are loaded one after another, so that only the scripts of one window are
+     * prepared by the loader at a time.
+     */
+    private static List<List<? extends MigrationInfo>> loadWindows(List<? extends MigrationInfo> migrations) {
+        List<List<? extends MigrationInfo>> windows = new ArrayList<>();
+        for (int start = 0; start < migrations.size(); start += LOAD_WINDOW) {
+            windows.add(migrations.subList(start, Math.min(start + LOAD_WINDOW, migrations.size())));
+        }
+        return windows;
+    }
+
+    private MigrationSession openSession() throws SQLException {
+        return openSession(groupSize);
+    }
+
+    private MigrationSession openSession(int groupSize) throws SQLException {
+        return new MigrationSession(connectionSource, statementExecutor, migrationTableName, listener, groupSize);
+    }
+
+    private List<? extends MigrationInfo> listMigrations() throws IOException {
+        long start = System.nanoTime();
+        List<? extends MigrationInfo> migrations = migrationLoader.loadMigrationInfos();
+        listener.migrationsListed(migrations.size(), System.nanoTime() - start);
+        return migrations;
+    }
+
+    private List<Migration> loadScripts(List<? extends MigrationInfo> migrations) throws IOException {
+        long start = System.nanoTime();
+        List<Migration> loaded = migrationLoader.loadMigrations(migrations);
+        listener.scriptsLoaded(loaded.size(), System.nanoTime() - start);
+        return loaded;
+    }
+
+    private List<MigrationEntry> queryHistory() throws SQLException {
+        long start = System.nanoTime();
+        List<MigrationEntry> history = migrationDao.queryBuilder()
+                .selectColumns("order", "name")
+                .query();
+        listener.historyQueried(history.size(), System.nanoTime() - start);
+        return history;
     }
 
     public void migrate(int migrationNumber) throws MigrationException {
         try {
-            List<Migration> migrations = migrationLoader.loadMigrations().stream()
+            List<MigrationInfo> migrations = listMigrations().stream()
                     .filter(migration -> migration.getOrder() <= migrationNumber)
                     .collect(Collectors.toList());
             migrate(migrations);
@@ -140,71 +394,209 @@ public class DbMigrator {
 
     public void rollbackAll() throws MigrationException {
         try {
-            List<Migration> migrations = migrationLoader.loadMigrations();
-            rollback(migrations);
+            List<? extends MigrationInfo> migrations = listMigrations();
+            rollback(migrations, Integer.MIN_VALUE);
         } catch (SQLException | IOException e) {
             throw new MigrationException("Could not execute rollback", e);
         }
 
     }
 
-    private void rollback(List<Migration> migrations) throws SQLException, MigrationException {
-        List<MigrationEntry> migrationEntries = retrieveMigrationsToRollback(migrations);
-        List<Migration> sortedMigrations = migrations.stream()
-                .sorted((left, right) -> Integer.compare(right.getOrder(), left.getOrder()))
-                .collect(Collectors.toList());
+    private void rollback(List<? extends MigrationInfo> migrations, int fromOrder)
+            throws SQLException, IOException, MigrationException {
+        locked(null, () -> applyRollbacks(migrations, fromOrder));
+    }
 
-        for (Migration migration : sortedMigrations) {
-            Optional<MigrationEntry> migrationEntry = migrationEntries.stream()
-                    .filter(entry -> entry.getOrder() == migration.getOrder() && entry.getName().equals(migration.getName()))
-                    .findAny();
-            if (migrationEntry.isPresent()) {
-                migration.down(connectionSource);
-                migrationDao.delete(migrationEntry.get());
+    /**
+     * Checks that every migration to roll back has a down script before any of them is rolled back. With a
+     * parallelism above 1, independent migrations are rolled back concurrently in the reverse order of their
+     * dependencies, unless all of them are rolled back in a single transaction.
+     */
+    private void applyRollbacks(List<? extends MigrationInfo> migrations, int fromOrder)
+            throws SQLException, IOException, MigrationException {
+        List<MigrationEntry> history = queryHistory();
+        long planStart = System.nanoTime();
+        List<? extends MigrationInfo> rollbacks = MigrationPlanner.planRollback(migrations, history, fromOrder);
+        listener.migrationsPlanned(rollbacks.size(), System.nanoTime() - planStart);
+        if (rollbacks.isEmpty()) {
+            return;
+        }
+        boolean parallel = parallelism > 1 && !singleTransactionRollback;
+        Map<Integer, MigrationHeader> headers = validateRollbacks(rollbacks, parallel);
+        if (parallel) {
+            List<MigrationInfo> ascending = new ArrayList<>(rollbacks);
+            Collections.reverse(ascending);
+            new ParallelMigrationExecutor(connectionSource, statementExecutor, migrationTableName, migrationLoader,
+                    parallelism, listener).rollback(rollbacks, MigrationGraph.build(ascending, headers));
+            return;
+        }
+        try (MigrationSession session = openSession(singleTransactionRollback ? Integer.MAX_VALUE : groupSize)) {
+            for (List<? extends MigrationInfo> window : loadWindows(rollbacks)) {
+                for (Migration migration : loadScripts(window)) {
+                    migration.down(session);
+                    session.remove(migration);
+                }
             }
+            session.flush();
         }
     }
 
-    private List<MigrationEntry> retrieveMigrationsToRollback(List<Migration> migrations) throws SQLException, MigrationException {
-        List<MigrationEntry> existingMigrations = migrationDao.queryForAll()
-                .stream()
-                .sorted(Comparator.comparingInt(MigrationEntry::getOrder))
-                .collect(Collectors.toList());
-        int lastMigrationNumber;
-        if (!existingMigrations.isEmpty()) {
-            lastMigrationNumber = existingMigrations.get(existingMigrations.size() - 1).getOrder();
-        } else {
-            lastMigrationNumber = -1;
-        }
-        List<MigrationEntry> toRemove = new ArrayList<>();
-        for (MigrationEntry entry : existingMigrations) {
-            for (Migration migration : migrations) {
-                if (migration.getOrder() == entry.getOrder()
-                        && migration.getName().equals(entry.getName())
-                        && entry.getOrder() <= lastMigrationNumber) {
-                    toRemove.add(entry);
-                    break;
+    /**
+     * @param readHeaders whether to read the headers of the up scripts for the dependencies between the migrations
+     * @return the headers of the up scripts by order, empty if they are not read
+     * @throws MigrationException if a migration has no down script
+     */
+    private Map<Integer, MigrationHeader> validateRollbacks(List<? extends MigrationInfo> rollbacks,
+                                                            boolean readHeaders)
+            throws IOException, MigrationException {
+        Map<Integer, MigrationHeader> headers = new HashMap<>();
+        List<MigrationInfo> irreversible = new ArrayList<>();
+        for (List<? extends MigrationInfo> window : loadWindows(rollbacks)) {
+            for (Migration migration : loadScripts(window)) {
+                if (migration.getDownScript() == null) {
+                    irreversible.add(migration);
+                } else if (readHeaders) {
+                    headers.put(migration.getOrder(), MigrationHeader.read(migration.getUpScript()));
                 }
             }
         }
-        existingMigrations.removeAll(toRemove);
-        checkNoIllegalMigrations(existingMigrations, lastMigrationNumber);
-
-        if (existingMigrations.isEmpty()) {
-            return toRemove;
-        } else {
-            throw new MigrationException("");
+        if (!irreversible.isEmpty()) {
+            throw new MigrationException(String.format("There are migrations to roll back without a down script: %s",
+                    MigrationPlanner.describe(irreversible)));
         }
+        return headers;
     }
 
     public void rollback(int migrationNumber) throws MigrationException {
         try {
-            List<Migration> migrations = migrationLoader.loadMigrations().stream()
+            List<MigrationInfo> migrations = listMigrations().stream()
                     .filter(migration -> migration.getOrder() >= migrationNumber)
                     .collect(Collectors.toList());
-            rollback(migrations);
+            rollback(migrations, migrationNumber);
         } catch (SQLException | IOException e) {
             throw new MigrationException("Could not execute rollback", e);
         }
     }
+
+    /**
+     * Analyses the migrations {@link #migrateAll()} would apply without executing them.
+     */
+    public MigrationPlan planMigrateAll() throws MigrationException {
+        try {
+            return planMigrations(listMigrations());
+        } catch (SQLException | IOException e) {
+            throw new MigrationException("Could not plan migration", e);
+        }
+    }
+
+    /**
+     * Analyses the migrations {@link #migrate(int)} would apply without executing them.
+     */
+    public MigrationPlan planMigrate(int migrationNumber) throws MigrationException {
+        try {
+            List<MigrationInfo> migrations = listMigrations().stream()
+                    .filter(migration -> migration.getOrder() <= migrationNumber)
+                    .collect(Collectors.toList());
+            return planMigrations(migrations);
+        } catch (SQLException | IOException e) {
+            throw new MigrationException("Could not plan migration", e);
+        }
+    }
+
+    /**
+     * Analyses the down scripts {@link #rollbackAll()} would execute without executing them.
+     */
+    public MigrationPlan planRollbackAll() throws MigrationException {
+        try {
+            return planRollbacks(listMigrations(), Integer.MIN_VALUE);
+        } catch (SQLException | IOException e) {
+            throw new MigrationException("Could not plan rollback", e);
+        }
+    }
+
+    /**
+     * Analyses the down scripts {@link #rollback(int)} would execute without executing them.
+     */
+    public MigrationPlan planRollback(int migrationNumber) throws MigrationException {
+        try {
+            List<MigrationInfo> migrations = listMigrations().stream()
+                    .filter(migration -> migration.getOrder() >= migrationNumber)
+                    .collect(Collectors.toList());
+            return planRollbacks(migrations, migrationNumber);
+        } catch (SQLException | IOException e) {
+            throw new MigrationException("Could not plan rollback", e);
+        }
+    }
+
+    private MigrationPlan planMigrations(List<? extends MigrationInfo> migrations)
+            throws SQLException, IOException, MigrationException {
+        long planStart = System.nanoTime();
+        Migration plannedBaseline = null;
+        if (baselineReplaces(migrations) != null) {
+            // The baseline is executed on the empty history instead of the migrations up to its order
+            plannedBaseline = baseline;
+            int baselineOrder = baseline.getOrder();
+            migrations = migrations.stream()
+                    .filter(migration -> migration.getOrder() > baselineOrder)
+                    .collect(Collectors.toList());
+        }
+        List<MigrationEntry> history = queryHistory();
+        List<? extends MigrationInfo> pendingMigrations =
+                MigrationPlanner.planMigration(migrations, history, parallelism > 1);
+        listener.migrationsPlanned(pendingMigrations.size() + (plannedBaseline != null ? 1 : 0),
+                System.nanoTime() - planStart);
+        return dryRun(plannedBaseline, pendingMigrations, false);
+    }
+
+    private MigrationPlan planRollbacks(List<? extends MigrationInfo> migrations, int fromOrder)
+            throws SQLException, IOException, MigrationException {
+        List<MigrationEntry> history = queryHistory();
+        long planStart = System.nanoTime();
+        List<? extends MigrationInfo> rollbacks = MigrationPlanner.planRollback(migrations, history, fromOrder);
+        listener.migrationsPlanned(rollbacks.size(), System.nanoTime() - planStart);
+        validateRollbacks(rollbacks, false);
+        return dryRun(null, rollbacks, true);
+    }
+
+    /**
+     * @param baseline the baseline to analyse before the migrations, or {@code null}
+     */
+    private MigrationPlan dryRun(Migration baseline, List<? extends MigrationInfo> migrations, boolean rollback)
+            throws SQLException, IOException {
+        List<PlannedMigration> planned = new ArrayList<>();
+        if (baseline == null && migrations.isEmpty()) {
+            return new MigrationPlan(planned);
+        }
+        DryRunPlanner planner = new DryRunPlanner(connectionSource.getDatabaseType().getDatabaseName());
+        try (MigrationSession session = openSession()) {
+            try {
+                if (baseline != null) {
+                    planned.add(baseline.planUp(planner, session.getConnection()));
+                }
+                for (List<? extends MigrationInfo> window : loadWindows(migrations)) {
+                    for (Migration migration : loadScripts(window)) {
+                        planned.add(rollback
+                                ? planner.analyse(session.getConnection(), migration, migration.getDownScript(), true)
+                                : migration.planUp(planner, session.getConnection()));
+                    }
+                }
+            } finally {
+                session.getConnection().rollback();
+            }
+        }
+        return new MigrationPlan(planned);
+    }
+
+    @Override
+    public void close() throws MigrationException {
+        try {
+            connectionSource.close();
+        } catch (IOException e) {
+            throw new MigrationException("Could not close migration connection source", e);
+        }
+    }
+
+    private interface MigrationAction {
+        void run() throws SQLException, IOException, MigrationException;
+    }
 }
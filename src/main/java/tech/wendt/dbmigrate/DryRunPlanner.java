@@ -0,0 +1,190 @@
+package tech.wendt.dbmigrate;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Analyses scripts without executing them.
+ * <p>
+ * Every statement is classified, statements that may rewrite or lock whole tables are flagged and, on databases
+ * that support it, the number of rows affected by DML is estimated with {@code EXPLAIN}. Estimates are taken in a
+ * transaction that is rolled back, against the current schema, so statements on tables created by earlier pending
+ * statements have no estimate. Migrations that change tables in chunks, like {@link BackfillMigration} and
+ * {@link OnlineSchemaChangeMigration}, are planned by their chunks instead of the script they are recorded with.
+ */
+class DryRunPlanner {
+
+    private static final int MAX_STATEMENT_LENGTH = 100;
+    private static final String[] DDL_KEYWORDS = {"CREATE", "ALTER", "DROP", "TRUNCATE", "RENAME", "COMMENT"};
+    private static final String[] DML_KEYWORDS = {"INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE", "UPSERT"};
+    private static final Pattern[] REWRITES = {
+            Pattern.compile("^ALTER\\s+TABLE\\b.*\\bALTER\\s+(COLUMN\\s+)?\\S+\\s+(SET\\s+DATA\\s+)?TYPE\\b"),
+            Pattern.compile("^ALTER\\s+TABLE\\b.*\\b(MODIFY|CHANGE)\\s+(COLUMN\\s+)?\\S+"),
+            Pattern.compile("^ALTER\\s+TABLE\\b.*\\bADD\\s+(COLUMN\\s+)?.*\\bNOT\\s+NULL\\b.*\\bDEFAULT\\b"),
+            Pattern.compile("^ALTER\\s+TABLE\\b.*\\bADD\\s+(COLUMN\\s+)?.*\\bDEFAULT\\b.*\\bNOT\\s+NULL\\b"),
+            Pattern.compile("^ALTER\\s+TABLE\\b.*\\bADD\\s+(CONSTRAINT\\s+\\S+\\s+)?PRIMARY\\s+KEY\\b"),
+            Pattern.compile("^ALTER\\s+TABLE\\b.*\\bENGINE\\s*="),
+            Pattern.compile("^CREATE\\s+(UNIQUE\\s+)?INDEX\\b(?!\\s+CONCURRENTLY)"),
+            Pattern.compile("^(VACUUM\\s+FULL|CLUSTER|OPTIMIZE\\s+TABLE)\\b")};
+    private static final Pattern UNFILTERED = Pattern.compile("^(UPDATE|DELETE)\\b(?!.*\\bWHERE\\b)");
+    private static final Pattern POSTGRES_ROWS = Pattern.compile("rows=(\\d+)");
+
+    private final Dialect dialect;
+
+    DryRunPlanner(String databaseName) {
+        this.dialect = Dialect.of(databaseName);
+    }
+
+    /**
+     * @param connection the connection to estimate rows on, its transaction is rolled back
+     */
+    PlannedMigration analyse(Connection connection, MigrationInfo migration, ScriptSource script, boolean rollback)
+            throws IOException, SQLException {
+        int statementCount = 0;
+        int dmlCount = 0;
+        int ddlCount = 0;
+        long estimatedRows = 0;
+        List<String> warnings = new ArrayList<>();
+        if (script == null) {
+            return new PlannedMigration(migration, rollback, 0, 0, 0, 0, warnings);
+        }
+        try (StatementSource statements = script instanceof TokenizedScript
+                ? ((TokenizedScript) script).openStatements() : new SqlStatementReader(script.open())) {
+            String sql;
+            while ((sql = statements.nextStatement()) != null) {
+                String normalized = normalize(sql);
+                if (startsWithAny(normalized, DDL_KEYWORDS)) {
+                    ddlCount++;
+                }
+                if (startsWithAny(normalized, DML_KEYWORDS)) {
+                    dmlCount++;
+                    if (estimatedRows >= 0) {
+                        long rows = estimateRows(connection, sql);
+                        estimatedRows = rows < 0 ? -1 : estimatedRows + rows;
+                    }
+                }
+                String warning = warning(normalized);
+                if (warning != null) {
+                    warnings.add(String.format("statement %s %s: %s", statementCount, warning,
+                            abbreviate(sql)));
+                }
+                statementCount++;
+            }
+        }
+        return new PlannedMigration(migration, rollback, statementCount, dmlCount, ddlCount, estimatedRows,
+                warnings);
+    }
+
+    /**
+     * Plans a migration that changes a table in committed chunks instead of executing its up script, so that its
+     * statements neither lock nor rewrite the table at once.
+     *
+     * @param rowQuery a query for the rows the migration changes, used to estimate their number
+     */
+    PlannedMigration analyseChunked(Connection connection, MigrationInfo migration, String rowQuery, int dmlCount,
+                                    int ddlCount) {
+        long estimatedRows = estimateRows(connection, rowQuery);
+        return new PlannedMigration(migration, false, dmlCount + ddlCount, dmlCount, ddlCount, estimatedRows,
+                new ArrayList<>());
+    }
+
+    static String warning(String normalized) {
+        for (Pattern rewrite : REWRITES) {
+            if (rewrite.matcher(normalized).find()) {
+                return normalized.startsWith("CREATE") ? "blocks writes to the table while it is indexed"
+                        : "may rewrite or lock the whole table";
+            }
+        }
+        if (UNFILTERED.matcher(normalized).find()) {
+            return "affects all rows of the table";
+        }
+        return null;
+    }
+
+    private long estimateRows(Connection connection, String sql) {
+        if (dialect == Dialect.NONE) {
+            return -1;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet plan = statement.executeQuery("EXPLAIN " + sql)) {
+            return dialect == Dialect.POSTGRES ? postgresRows(plan) : mysqlRows(plan);
+        } catch (SQLException e) {
+            return -1;
+        } finally {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // the estimate is already taken
+            }
+        }
+    }
+
+    private static long postgresRows(ResultSet plan) throws SQLException {
+        if (!plan.next()) {
+            return -1;
+        }
+        return postgresRows(plan.getString(1));
+    }
+
+    static long postgresRows(String planLine) {
+        Matcher rows = POSTGRES_ROWS.matcher(planLine);
+        return rows.find() ? Long.parseLong(rows.group(1)) : -1;
+    }
+
+    private static long mysqlRows(ResultSet plan) throws SQLException {
+        long rows = 0;
+        int column = plan.findColumn("rows");
+        boolean found = false;
+        while (plan.next()) {
+            long tableRows = plan.getLong(column);
+            if (!plan.wasNull()) {
+                rows = Math.max(rows, tableRows);
+                found = true;
+            }
+        }
+        return found ? rows : -1;
+    }
+
+    private static String normalize(String sql) {
+        return sql.trim().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT);
+    }
+
+    private static boolean startsWithAny(String normalized, String[] keywords) {
+        for (String keyword : keywords) {
+            if (normalized.startsWith(keyword) && (normalized.length() == keyword.length()
+                    || !Character.isLetterOrDigit(normalized.charAt(keyword.length())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String abbreviate(String sql) {
+        String singleLine = sql.trim().replaceAll("\\s+", " ");
+        return singleLine.length() <= MAX_STATEMENT_LENGTH ? singleLine
+                : singleLine.substring(0, MAX_STATEMENT_LENGTH - 3) + "...";
+    }
+
+    private enum Dialect {
+        POSTGRES, MYSQL, NONE;
+
+        static Dialect of(String databaseName) {
+            String name = databaseName.toLowerCase(Locale.ROOT);
+            if (name.contains("postgres")) {
+                return POSTGRES;
+            }
+            if (name.contains("mysql") || name.contains("mariadb")) {
+                return MYSQL;
+            }
+            return NONE;
+        }
+    }
+}
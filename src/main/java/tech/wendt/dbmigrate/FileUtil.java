@@ -3,6 +3,7 @@ package tech.wendt.dbmigrate;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -18,9 +19,10 @@ class FileUtil {
     }
 
     static String getFileContent(Path file) throws IOException {
-        return Files.readAllLines(file)
-                .stream()
-                .reduce((left, right) -> left.concat(right))
-                .orElseThrow(() -> new IOException(String.format("Could not read file content of %s", file.toString())));
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        if (content.isEmpty()) {
+            throw new IOException(String.format("Could not read file content of %s", file.toString()));
+        }
+        return content;
     }
 }
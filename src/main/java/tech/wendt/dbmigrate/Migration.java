@@ -1,51 +1,65 @@
 package tech.wendt.dbmigrate;
 
-import com.j256.ormlite.dao.Dao;
-import com.j256.ormlite.dao.DaoManager;
-import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.DatabaseTableConfig;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.Reader;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.concurrent.Callable;
 
 public class Migration implements MigrationInfo {
+    private static final StatementExecutor DEFAULT_EXECUTOR = new StatementExecutor(0);
+    private static final int BUFFER_SIZE = 8192;
+
     private String name;
     private int order;
-    private String upSql;
-    private String downSql;
+    private ScriptSource upScript;
+    private ScriptSource downScript;
 
     public Migration(String name, int order, String upSql) {
         this(name, order, upSql, null);
     }
 
     public Migration(String name, int order, String upSql, String downSql) {
+        this(name, order, ScriptSource.of(upSql), downSql != null ? ScriptSource.of(downSql) : null);
+    }
+
+    public Migration(String name, int order, ScriptSource upScript, ScriptSource downScript) {
         this.name = name;
         this.order = order;
-        this.upSql = upSql;
-        this.downSql = downSql;
+        this.upScript = upScript;
+        this.downScript = downScript;
     }
 
     public void up(ConnectionSource connectionSource) throws SQLException {
-            executeTransaction(connectionSource, upSql);
+        try (MigrationSession session = new MigrationSession(connectionSource, DEFAULT_EXECUTOR)) {
+            up(session);
+        }
     }
 
-    private static void executeTransaction(ConnectionSource connectionSource, String sql) throws SQLException {
-        Dao<MigrationEntry, ?> dao = DaoManager.createDao(connectionSource, MigrationEntry.class);
-        TransactionManager.callInTransaction(connectionSource, () -> {
-            String[] statements = sql.split(";");
-            for (String statement : statements) {
-                dao.executeRaw(statement.trim());
-            }
-            return null;
-        });
+    ScriptExecution up(MigrationSession session) throws SQLException {
+        return session.execute(this, upScript, false);
     }
 
     public void down(ConnectionSource connectionSource) throws SQLException {
-        if (downSql != null) {
-                executeTransaction(connectionSource, downSql);
+        try (MigrationSession session = new MigrationSession(connectionSource, DEFAULT_EXECUTOR)) {
+            down(session);
+        }
+    }
+
+    /**
+     * Analyses the up script for a dry run. Migrations that do not execute their up script as it is plan themselves.
+     */
+    PlannedMigration planUp(DryRunPlanner planner, Connection connection) throws IOException, SQLException {
+        return planner.analyse(connection, this, upScript, false);
+    }
+
+    void down(MigrationSession session) throws SQLException {
+        if (downScript != null) {
+            session.execute(this, downScript, true);
         }
     }
 
@@ -59,11 +73,31 @@ public class Migration implements MigrationInfo {
         return order;
     }
 
-    String getUpSql() {
-        return upSql;
+    public ScriptSource getUpScript() {
+        return upScript;
+    }
+
+    public ScriptSource getDownScript() {
+        return downScript;
+    }
+
+    String getUpSql() throws IOException {
+        return read(upScript);
     }
 
-    String getDownSql() {
-        return downSql;
+    String getDownSql() throws IOException {
+        return downScript != null ? read(downScript) : null;
+    }
+
+    private static String read(ScriptSource script) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
+        try (Reader reader = script.open()) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                result.append(buffer, 0, read);
+            }
+        }
+        return result.toString();
     }
 }
@@ -13,6 +13,24 @@ public class MigrationEntry implements MigrationInfo {
     @DatabaseField
     private String name = "";
 
+    @DatabaseField(columnName = "applied_at")
+    private Long appliedAt;
+
+    @DatabaseField(columnName = "execution_time_ms")
+    private Long executionTimeMs;
+
+    @DatabaseField(columnName = "checksum")
+    private Long checksum;
+
+    @DatabaseField(columnName = "statement_count")
+    private Integer statementCount;
+
+    @DatabaseField(columnName = "host")
+    private String host;
+
+    @DatabaseField(columnName = "transactional")
+    private Boolean transactional;
+
     public int getId() {
         return id;
     }
@@ -38,4 +56,66 @@ public class MigrationEntry implements MigrationInfo {
     public void setName(String name) {
         this.name = name;
     }
+
+    /**
+     * @return the time the migration was applied in milliseconds since the epoch, or {@code null} for migrations
+     * applied before it was recorded
+     */
+    public Long getAppliedAt() {
+        return appliedAt;
+    }
+
+    public void setAppliedAt(Long appliedAt) {
+        this.appliedAt = appliedAt;
+    }
+
+    public Long getExecutionTimeMs() {
+        return executionTimeMs;
+    }
+
+    public void setExecutionTimeMs(Long executionTimeMs) {
+        this.executionTimeMs = executionTimeMs;
+    }
+
+    /**
+     * @return the checksum of the up script as computed by {@link ScriptSource#checksum()}
+     */
+    public Long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(Long checksum) {
+        this.checksum = checksum;
+    }
+
+    public Integer getStatementCount() {
+        return statementCount;
+    }
+
+    public void setStatementCount(Integer statementCount) {
+        this.statementCount = statementCount;
+    }
+
+    /**
+     * @return the name of the host that applied the migration
+     */
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * @return whether the up script was committed at once, {@code false} if it was committed in parts with
+     * checkpoints
+     */
+    public Boolean getTransactional() {
+        return transactional;
+    }
+
+    public void setTransactional(Boolean transactional) {
+        this.transactional = transactional;
+    }
 }
@@ -0,0 +1,82 @@
+package tech.wendt.dbmigrate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the dependencies between migrations from their headers.
+ * <p>
+ * A migration without {@code depends-on} and {@code group} directives is a barrier: it depends on every earlier
+ * migration and every later migration depends on it. Other directives, like {@code checkpoint}, do not change that.
+ * A migration with dependency directives depends on its explicitly declared migrations, on the previous member
+ * of its group and on the most recent barrier. Only dependencies on earlier migrations are allowed, so the graph
+ * never contains cycles.
+ */
+final class MigrationGraph {
+
+    private final Map<Integer, Set<Integer>> dependencies;
+
+    private MigrationGraph(Map<Integer, Set<Integer>> dependencies) {
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * @param migrations the migrations in ascending order
+     * @param headers    the header of every migration by its order
+     */
+    static MigrationGraph build(List<? extends MigrationInfo> migrations, Map<Integer, MigrationHeader> headers)
+            throws MigrationException {
+        Map<Integer, Set<Integer>> dependencies = new HashMap<>();
+        Map<String, Integer> lastOfGroup = new HashMap<>();
+        // Every migration since the last barrier, the next barrier depends on all of them
+        List<Integer> sinceBarrier = new ArrayList<>();
+        Integer lastBarrier = null;
+        for (MigrationInfo migration : migrations) {
+            int order = migration.getOrder();
+            MigrationHeader header = headers.getOrDefault(order, MigrationHeader.EMPTY);
+            Set<Integer> resolved = new LinkedHashSet<>();
+            if (header.isBarrier()) {
+                if (lastBarrier != null) {
+                    resolved.add(lastBarrier);
+                }
+                resolved.addAll(sinceBarrier);
+                sinceBarrier.clear();
+                lastBarrier = order;
+            } else {
+                for (int dependency : header.getDependencies()) {
+                    if (dependency >= order) {
+                        throw new MigrationException(String.format(
+                                "Migration %s__%s depends on migration %s, which is not older",
+                                order, migration.getName(), dependency));
+                    }
+                    resolved.add(dependency);
+                }
+                String group = header.getGroup();
+                if (group != null && !group.isEmpty()) {
+                    Integer previous = lastOfGroup.put(group, order);
+                    if (previous != null) {
+                        resolved.add(previous);
+                    }
+                }
+                if (lastBarrier != null) {
+                    resolved.add(lastBarrier);
+                }
+                sinceBarrier.add(order);
+            }
+            dependencies.put(order, resolved);
+        }
+        return new MigrationGraph(dependencies);
+    }
+
+    /**
+     * @return the orders of the migrations the given migration depends on directly, which may include declared
+     * migrations that are not part of the graph
+     */
+    Set<Integer> dependenciesOf(int order) {
+        return dependencies.get(order);
+    }
+}
@@ -0,0 +1,160 @@
+package tech.wendt.dbmigrate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Directives declared in the leading comment lines of a script, for example
+ * <pre>
+ * -- dbmigrate:depends-on 3, 5
+ * -- dbmigrate:group users
+ * -- dbmigrate:checkpoint 1000 30s
+ * </pre>
+ * Reading stops at the first line that is neither blank nor a line comment.
+ */
+class MigrationHeader {
+
+    static final String DEPENDS_ON = "depends-on";
+    static final String GROUP = "group";
+    static final String CHECKPOINT = "checkpoint";
+
+    private static final String COMMENT = "--";
+    private static final String PREFIX = "dbmigrate:";
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int MAX_HEADER_LENGTH = 65536;
+
+    static final MigrationHeader EMPTY = new MigrationHeader(Collections.emptyMap());
+
+    private final Map<String, String> directives;
+
+    private MigrationHeader(Map<String, String> directives) {
+        this.directives = directives;
+    }
+
+    static MigrationHeader read(ScriptSource script) throws IOException {
+        try (BufferedReader reader = new BufferedReader(script.open())) {
+            return peek(reader);
+        }
+    }
+
+    /**
+     * Reads the header and resets the reader to the beginning of the script afterwards.
+     */
+    static MigrationHeader peek(BufferedReader reader) throws IOException {
+        Map<String, String> directives = new HashMap<>();
+        reader.mark(MAX_HEADER_LENGTH);
+        int length = 0;
+        StringBuilder line = new StringBuilder();
+        while (readLine(reader, line)) {
+            length += line.length() + 1;
+            if (length > MAX_HEADER_LENGTH - MAX_LINE_LENGTH) {
+                break;
+            }
+            String trimmed = line.toString().trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            if (!trimmed.startsWith(COMMENT)) {
+                break;
+            }
+            String comment = trimmed.substring(COMMENT.length()).trim();
+            if (comment.startsWith(PREFIX)) {
+                String directive = comment.substring(PREFIX.length()).trim();
+                int separator = 0;
+                while (separator < directive.length() && !Character.isWhitespace(directive.charAt(separator))) {
+                    separator++;
+                }
+                directives.put(directive.substring(0, separator).toLowerCase(Locale.ROOT),
+                        directive.substring(separator).trim());
+            }
+        }
+        reader.reset();
+        return directives.isEmpty() ? EMPTY : new MigrationHeader(directives);
+    }
+
+    private static boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = reader.read()) != -1 && c != '\n') {
+            if (line.length() == MAX_LINE_LENGTH) {
+                return false;
+            }
+            line.append((char) c);
+        }
+        return c != -1 || line.length() > 0;
+    }
+
+    /**
+     * @return whether the migration declares neither dependencies nor a group, only such migrations are barriers
+     */
+    boolean isBarrier() {
+        return !directives.containsKey(DEPENDS_ON) && !directives.containsKey(GROUP);
+    }
+
+    String get(String directive) {
+        return directives.get(directive);
+    }
+
+    String getGroup() {
+        return directives.get(GROUP);
+    }
+
+    /**
+     * @return whether the directives request the script to be committed in parts
+     */
+    boolean isCheckpointed() {
+        return directives.containsKey(CHECKPOINT);
+    }
+
+    /**
+     * Parses {@code -- dbmigrate:checkpoint <statements> [<duration>]}, where the duration has one of the units
+     * {@code ms}, {@code s} or {@code m}. Either value may be omitted.
+     *
+     * @return the number of statements and the milliseconds after which to commit, 0 if not limited
+     */
+    long[] getCheckpoint() throws MigrationException {
+        long[] checkpoint = new long[2];
+        String value = directives.get(CHECKPOINT);
+        if (value == null || value.isEmpty()) {
+            return checkpoint;
+        }
+        for (String part : value.split("\\s+")) {
+            try {
+                if (part.endsWith("ms")) {
+                    checkpoint[1] = Long.parseLong(part.substring(0, part.length() - 2));
+                } else if (part.endsWith("s")) {
+                    checkpoint[1] = Long.parseLong(part.substring(0, part.length() - 1)) * 1000;
+                } else if (part.endsWith("m")) {
+                    checkpoint[1] = Long.parseLong(part.substring(0, part.length() - 1)) * 60_000;
+                } else {
+                    checkpoint[0] = Long.parseLong(part);
+                }
+            } catch (NumberFormatException e) {
+                throw new MigrationException(String.format("Invalid %s directive: %s", CHECKPOINT, value), e);
+            }
+        }
+        return checkpoint;
+    }
+
+    int[] getDependencies() throws MigrationException {
+        String value = directives.get(DEPENDS_ON);
+        if (value == null || value.isEmpty()) {
+            return new int[0];
+        }
+        String[] orders = value.split("[,\\s]+");
+        int[] result = new int[orders.length];
+        for (int i = 0; i < orders.length; i++) {
+            try {
+                result[i] = Integer.parseInt(orders[i]);
+            } catch (NumberFormatException e) {
+                throw new MigrationException(String.format("Invalid %s directive: %s", DEPENDS_ON, value), e);
+            }
+        }
+        return result;
+    }
+}
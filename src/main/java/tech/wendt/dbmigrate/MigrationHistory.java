@@ -0,0 +1,107 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.dao.Dao;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queries the migration history including the details recorded for every applied migration.
+ */
+public class MigrationHistory {
+
+    private final Dao<MigrationEntry, Integer> migrationDao;
+
+    MigrationHistory(Dao<MigrationEntry, Integer> migrationDao) {
+        this.migrationDao = migrationDao;
+    }
+
+    /**
+     * @return all applied migrations in ascending order
+     */
+    public List<MigrationEntry> getEntries() throws MigrationException {
+        try {
+            return migrationDao.queryBuilder()
+                    .orderBy("order", true)
+                    .query();
+        } catch (SQLException e) {
+            throw new MigrationException("Could not query migration history", e);
+        }
+    }
+
+    /**
+     * @return the applied migration with the given order, or {@code null} if it is not applied
+     */
+    public MigrationEntry getEntry(int order) throws MigrationException {
+        try {
+            return migrationDao.queryBuilder()
+                    .where().eq("order", order)
+                    .queryForFirst();
+        } catch (SQLException e) {
+            throw new MigrationException("Could not query migration history", e);
+        }
+    }
+
+    /**
+     * @return the applied migrations with the longest execution time, slowest first
+     */
+    public List<MigrationEntry> getSlowest(int limit) throws MigrationException {
+        try {
+            return migrationDao.queryBuilder()
+                    .orderBy("execution_time_ms", false)
+                    .limit((long) limit)
+                    .where().isNotNull("execution_time_ms")
+                    .query();
+        } catch (SQLException e) {
+            throw new MigrationException("Could not query migration history", e);
+        }
+    }
+
+    /**
+     * @param epochMillis the earliest time of application in milliseconds since the epoch
+     * @return the migrations applied at or after the given time in ascending order
+     */
+    public List<MigrationEntry> getAppliedSince(long epochMillis) throws MigrationException {
+        try {
+            return migrationDao.queryBuilder()
+                    .orderBy("order", true)
+                    .where().ge("applied_at", epochMillis)
+                    .query();
+        } catch (SQLException e) {
+            throw new MigrationException("Could not query migration history", e);
+        }
+    }
+
+    /**
+     * Compares the recorded checksums with the current up scripts. Entries without a recorded checksum or without
+     * a matching migration are skipped.
+     *
+     * @return the applied migrations whose up script changed since they were applied
+     */
+    public List<MigrationEntry> findChangedScripts(List<Migration> migrations) throws MigrationException {
+        Map<String, Migration> migrationsByKey = new HashMap<>();
+        for (Migration migration : migrations) {
+            migrationsByKey.put(migration.getOrder() + "__" + migration.getName(), migration);
+        }
+        List<MigrationEntry> changed = new ArrayList<>();
+        for (MigrationEntry entry : getEntries()) {
+            Migration migration = migrationsByKey.get(entry.getOrder() + "__" + entry.getName());
+            if (entry.getChecksum() == null || migration == null) {
+                continue;
+            }
+            try {
+                if (migration.getUpScript().checksum() != entry.getChecksum()) {
+                    changed.add(entry);
+                }
+            } catch (IOException e) {
+                throw new MigrationException(String.format("Could not read migration %s__%s",
+                        migration.getOrder(), migration.getName()), e);
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,90 @@
+package tech.wendt.dbmigrate;
+
+/**
+ * Receives timings of the phases of a migration run. All durations are in nanoseconds.
+ * <p>
+ * Statement timings are only measured if a listener other than {@link #NONE} is configured. Methods may be called
+ * from several threads at the same time when migrations are applied in parallel.
+ */
+public interface MigrationListener {
+
+    MigrationListener NONE = new MigrationListener() {
+    };
+
+    /**
+     * Called after the available migrations were listed by the loader.
+     */
+    default void migrationsListed(int count, long nanos) {
+    }
+
+    /**
+     * Called after the history was read from the migration table.
+     */
+    default void historyQueried(int entries, long nanos) {
+    }
+
+    /**
+     * Called after the migrations to apply or roll back were planned.
+     */
+    default void migrationsPlanned(int planned, long nanos) {
+    }
+
+    /**
+     * Called after the scripts of some planned migrations were loaded.
+     */
+    default void scriptsLoaded(int count, long nanos) {
+    }
+
+    /**
+     * Called after a connection for executing scripts was acquired.
+     */
+    default void connectionAcquired(long nanos) {
+    }
+
+    default void migrationStarted(MigrationInfo migration, boolean rollback) {
+    }
+
+    /**
+     * Called after a statement that was executed on its own.
+     *
+     * @param index    the index of the statement in the script
+     * @param rowCount the number of affected rows, or -1 if the statement returned a result or the count is unknown
+     */
+    default void statementExecuted(MigrationInfo migration, int index, String statement, long nanos, int rowCount) {
+    }
+
+    /**
+     * Called after statements were executed together in one batch.
+     *
+     * @param firstIndex the index of the first statement of the batch in the script
+     * @param rowCount   the number of affected rows reported by the driver
+     */
+    default void batchExecuted(MigrationInfo migration, int firstIndex, int size, long nanos, int rowCount) {
+    }
+
+    /**
+     * Called after the script of a migration was committed, together with its history entry if the history is
+     * recorded. Migrations that are rolled back with a failing migration of their group are not reported.
+     */
+    default void migrationFinished(MigrationInfo migration, boolean rollback, long nanos, int statementCount) {
+    }
+
+    /**
+     * Called after the script of a migration failed and was rolled back.
+     */
+    default void migrationFailed(MigrationInfo migration, boolean rollback, long nanos, Exception failure) {
+    }
+
+    /**
+     * Called after a migration was added to or removed from the history.
+     */
+    default void historyUpdated(MigrationInfo migration, long nanos) {
+    }
+
+    /**
+     * @return a listener that passes every call on to all given listeners
+     */
+    static MigrationListener all(MigrationListener... listeners) {
+        return new CompositeMigrationListener(listeners);
+    }
+}
@@ -1,8 +1,44 @@
 package tech.wendt.dbmigrate;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public interface MigrationLoader {
     List<Migration> loadMigrations() throws IOException;
+
+    /**
+     * Lists the available migrations without reading their scripts, if the loader supports that.
+     */
+    default List<? extends MigrationInfo> loadMigrationInfos() throws IOException {
+        return loadMigrations();
+    }
+
+    /**
+     * Loads the scripts of migrations returned by {@link #loadMigrationInfos()}.
+     *
+     * @return the loaded migrations in the order of the given migrations
+     */
+    default List<Migration> loadMigrations(List<? extends MigrationInfo> migrations) throws IOException {
+        List<Migration> result = new ArrayList<>(migrations.size());
+        if (migrations.stream().allMatch(migration -> migration instanceof Migration)) {
+            migrations.forEach(migration -> result.add((Migration) migration));
+            return result;
+        }
+        Map<String, Migration> loadedMigrations = new HashMap<>();
+        for (Migration migration : loadMigrations()) {
+            loadedMigrations.put(migration.getOrder() + "__" + migration.getName(), migration);
+        }
+        for (MigrationInfo migration : migrations) {
+            Migration loadedMigration = loadedMigrations.get(migration.getOrder() + "__" + migration.getName());
+            if (loadedMigration == null) {
+                throw new IOException(String.format("Migration %s__%s does not exist",
+                        migration.getOrder(), migration.getName()));
+            }
+            result.add(loadedMigration);
+        }
+        return result;
+    }
 }
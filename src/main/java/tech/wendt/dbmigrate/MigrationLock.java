@@ -0,0 +1,282 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.db.DatabaseType;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Serializes migration runs of several processes with a lease on a single row of the lock table
+ * {@code <migration table>_lock}.
+ * <p>
+ * The owner extends its lease with a heartbeat while it migrates. A lease that is not extended in time expires and
+ * may be taken over by another process, so a crashed process does not block migrations forever. Lease times are
+ * taken from the clock of each process, so the lease has to be much longer than the clock skew between them.
+ * <p>
+ * When releasing the lock, the owner publishes a fingerprint of the migration history, which is cleared when the
+ * lock is acquired again. Processes that had to wait for another owner and find the fingerprint of the migrations
+ * they would apply published may skip reconciling the history, after checking the fingerprint of the history.
+ */
+class MigrationLock {
+
+    private static final int LOCK_ID = 1;
+    private static final long NO_FINGERPRINT = -1;
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private final DataSource dataSource;
+    private final long leaseMillis;
+    private final long timeoutMillis;
+    private final String owner;
+    private final String databaseUrl;
+    private final String createTable;
+    private final String selectTable;
+    private final String insertRow;
+    private final String selectRow;
+    private final String acquire;
+    private final String extend;
+    private final String release;
+    private ScheduledExecutorService heartbeat;
+    private volatile boolean lost;
+
+    MigrationLock(DataSource dataSource, DatabaseType databaseType, String databaseUrl, String migrationTableName,
+                  long leaseMillis, long timeoutMillis) {
+        this.dataSource = dataSource;
+        this.databaseUrl = databaseUrl;
+        this.leaseMillis = leaseMillis;
+        this.timeoutMillis = timeoutMillis;
+        String owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+        this.owner = owner.length() > 255 ? owner.substring(owner.length() - 255) : owner;
+
+        String table = escape(databaseType, migrationTableName + "_lock");
+        String id = escape(databaseType, "id");
+        String ownerColumn = escape(databaseType, "owner");
+        String expiresAt = escape(databaseType, "expires_at");
+        String fingerprint = escape(databaseType, "fingerprint");
+        String ifNotExists = databaseType.isCreateIfNotExistsSupported() ? "IF NOT EXISTS " : "";
+        createTable = String.format("CREATE TABLE %s%s (%s INTEGER NOT NULL PRIMARY KEY, %s VARCHAR(255), " +
+                "%s BIGINT NOT NULL, %s BIGINT NOT NULL)", ifNotExists, table, id, ownerColumn, expiresAt,
+                fingerprint);
+        insertRow = String.format("INSERT INTO %s (%s, %s, %s, %s) VALUES (%s, NULL, 0, %s)",
+                table, id, ownerColumn, expiresAt, fingerprint, LOCK_ID, NO_FINGERPRINT);
+        selectTable = String.format("SELECT %s FROM %s WHERE 1 = 0", id, table);
+        selectRow = String.format("SELECT %s FROM %s WHERE %s = %s", fingerprint, table, id, LOCK_ID);
+        acquire = String.format("UPDATE %s SET %s = ?, %s = ?, %s = %s WHERE %s = %s AND (%s IS NULL OR %s < ?)",
+                table, ownerColumn, expiresAt, fingerprint, NO_FINGERPRINT, id, LOCK_ID, ownerColumn, expiresAt);
+        extend = String.format("UPDATE %s SET %s = ? WHERE %s = %s AND %s = ?",
+                table, expiresAt, id, LOCK_ID, ownerColumn);
+        release = String.format("UPDATE %s SET %s = NULL, %s = 0, %s = ? WHERE %s = %s AND %s = ?",
+                table, ownerColumn, expiresAt, fingerprint, id, LOCK_ID, ownerColumn);
+    }
+
+    /**
+     * Waits until the lock is acquired, or until the owner that was waited for published the given fingerprint.
+     * The published fingerprint may be outdated if the history was changed without the lock, so the caller has to
+     * compare it with the history before skipping a run.
+     *
+     * @param upToDate the fingerprint of the history after a successful run, or {@code null} to always acquire
+     * @return whether the lock was acquired, {@code false} if another owner published the given fingerprint
+     * @throws MigrationException if the lock could not be acquired within the timeout
+     */
+    boolean acquire(Long upToDate) throws SQLException, MigrationException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        createIfNotExists(deadline);
+        long backoff = MIN_BACKOFF_MILLIS;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(selectRow);
+             PreparedStatement update = connection.prepareStatement(acquire)) {
+            connection.setAutoCommit(true);
+            boolean waited = false;
+            while (true) {
+                if (waited && upToDate != null && upToDate == publishedFingerprint(select)) {
+                    return false;
+                }
+                long now = System.currentTimeMillis();
+                update.setString(1, owner);
+                update.setLong(2, now + leaseMillis);
+                update.setLong(3, now);
+                if (update.executeUpdate() == 1) {
+                    startHeartbeat();
+                    return true;
+                }
+                waited = true;
+                if (now >= deadline) {
+                    throw new MigrationException(String.format("Timed out after %s ms waiting for the migration lock",
+                            timeoutMillis));
+                }
+                sleep(Math.min(backoff + ThreadLocalRandom.current().nextLong(backoff), deadline - now));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Releases the lock and publishes the fingerprint of the history.
+     *
+     * @throws MigrationException if the lease expired while the lock was held
+     */
+    void release(long fingerprint) throws SQLException, MigrationException {
+        stopHeartbeat();
+        int updated;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement update = connection.prepareStatement(release)) {
+            connection.setAutoCommit(true);
+            update.setLong(1, fingerprint);
+            update.setString(2, owner);
+            updated = update.executeUpdate();
+        }
+        if (lost || updated != 1) {
+            throw new MigrationException("The migration lock expired while migrating, " +
+                    "another process may have migrated at the same time");
+        }
+    }
+
+    /**
+     * @return a fingerprint over the order and name of the given migrations, independent of their order in the list
+     */
+    static long fingerprint(List<? extends MigrationInfo> migrations) {
+        List<MigrationInfo> sorted = new ArrayList<>(migrations);
+        sorted.sort(Comparator.comparingInt(MigrationInfo::getOrder).thenComparing(MigrationInfo::getName));
+        CRC32 checksum = new CRC32();
+        for (MigrationInfo migration : sorted) {
+            checksum.update(String.format("%s__%s\n", migration.getOrder(), migration.getName())
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return ((long) sorted.size() << 32) | checksum.getValue();
+    }
+
+    /**
+     * Creates the lock table and its row. Failures are retried only while the table exists, when another process
+     * created it but its row is not visible yet. Within a process, the table is created by one thread at a time per
+     * database.
+     */
+    private void createIfNotExists(long deadline) throws SQLException, MigrationException {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true) {
+            try {
+                synchronized (SchemaMonitors.of(databaseUrl)) {
+                    tryCreate();
+                }
+                return;
+            } catch (SQLException e) {
+                long now = System.currentTimeMillis();
+                if (now >= deadline || !tableExists()) {
+                    throw e;
+                }
+                sleep(Math.min(backoff + ThreadLocalRandom.current().nextLong(backoff), deadline - now));
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void tryCreate() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(selectRow)) {
+            if (select.executeQuery().next()) {
+                return;
+            }
+        } catch (SQLException e) {
+            // the table does not exist yet
+        }
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            try {
+                statement.execute(createTable);
+            } catch (SQLException e) {
+                if (!tableExists()) {
+                    throw e;
+                }
+                // created by another process in the meantime
+            }
+            try {
+                statement.execute(insertRow);
+            } catch (SQLException e) {
+                try (ResultSet row = statement.executeQuery(selectRow)) {
+                    if (!row.next()) {
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean tableExists() {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeQuery(selectTable).close();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static long publishedFingerprint(PreparedStatement select) throws SQLException {
+        try (ResultSet row = select.executeQuery()) {
+            return row.next() ? row.getLong(1) : NO_FINGERPRINT;
+        }
+    }
+
+    private void startHeartbeat() {
+        lost = false;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "dbmigrate-lock-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, leaseMillis / 3);
+        executor.scheduleWithFixedDelay(this::extend, interval, interval, TimeUnit.MILLISECONDS);
+        heartbeat = executor;
+    }
+
+    private void extend() {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement update = connection.prepareStatement(extend)) {
+            connection.setAutoCommit(true);
+            update.setLong(1, System.currentTimeMillis() + leaseMillis);
+            update.setString(2, owner);
+            if (update.executeUpdate() != 1) {
+                lost = true;
+            }
+        } catch (SQLException e) {
+            // retried with the next heartbeat, the lease is lost only if it expires in the meantime
+        }
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+    }
+
+    private static void sleep(long millis) throws MigrationException {
+        try {
+            Thread.sleep(Math.max(1, millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationException("Interrupted while waiting for the migration lock", e);
+        }
+    }
+
+    private static String escape(DatabaseType databaseType, String name) {
+        StringBuilder escaped = new StringBuilder();
+        databaseType.appendEscapedEntityName(escaped, name);
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package tech.wendt.dbmigrate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a dry run: the migrations that would be applied or rolled back with what their scripts do.
+ */
+public class MigrationPlan {
+
+    private final List<PlannedMigration> migrations;
+
+    MigrationPlan(List<PlannedMigration> migrations) {
+        this.migrations = Collections.unmodifiableList(migrations);
+    }
+
+    /**
+     * @return the migrations in the order they would be executed
+     */
+    public List<PlannedMigration> getMigrations() {
+        return migrations;
+    }
+
+    public boolean isEmpty() {
+        return migrations.isEmpty();
+    }
+
+    public int getStatementCount() {
+        return migrations.stream().mapToInt(PlannedMigration::getStatementCount).sum();
+    }
+
+    /**
+     * @return the estimated number of affected rows of all migrations, or -1 if some estimate is missing
+     */
+    public long getEstimatedRows() {
+        long rows = 0;
+        for (PlannedMigration migration : migrations) {
+            if (migration.getEstimatedRows() < 0) {
+                return -1;
+            }
+            rows += migration.getEstimatedRows();
+        }
+        return rows;
+    }
+
+    /**
+     * @return whether some migration contains statements that may rewrite or lock whole tables
+     */
+    public boolean hasWarnings() {
+        return migrations.stream().anyMatch(migration -> !migration.getWarnings().isEmpty());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%s migrations, %s statements, estimated rows %s%n", migrations.size(),
+                getStatementCount(), rows(getEstimatedRows())));
+        for (PlannedMigration migration : migrations) {
+            report.append(String.format("%s %s__%s: %s statements (%s DML, %s DDL), estimated rows %s%n",
+                    migration.isRollback() ? "down" : "up", migration.getOrder(), migration.getName(),
+                    migration.getStatementCount(), migration.getDmlCount(), migration.getDdlCount(),
+                    rows(migration.getEstimatedRows())));
+            for (String warning : migration.getWarnings()) {
+                report.append("    ").append(warning).append(String.format("%n"));
+            }
+        }
+        return report.toString();
+    }
+
+    private static String rows(long rows) {
+        return rows < 0 ? "unknown" : String.valueOf(rows);
+    }
+}
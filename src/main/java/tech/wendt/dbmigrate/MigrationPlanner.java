@@ -0,0 +1,144 @@
+package tech.wendt.dbmigrate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Reconciles available migrations with the migration history.
+ * <p>
+ * Both sides are sorted by order once and then walked in a single merge pass, so planning stays linear in the
+ * number of migrations apart from the sort. Migrations are identified by their order and name.
+ */
+public final class MigrationPlanner {
+
+    private static final Comparator<MigrationInfo> BY_ORDER = Comparator.comparingInt(MigrationInfo::getOrder);
+
+    private MigrationPlanner() {
+    }
+
+    /**
+     * @param available all migrations that may be applied
+     * @param applied   the migrations in the history
+     * @return the migrations that are not applied yet, in ascending order
+     * @throws MigrationException if a migration that is not applied is older than the most recent applied one
+     */
+    public static <T extends MigrationInfo> List<T> planMigration(List<T> available,
+                                                                  List<? extends MigrationInfo> applied)
+            throws MigrationException {
+        return planMigration(available, applied, false);
+    }
+
+    /**
+     * @param available       all migrations that may be applied
+     * @param applied         the migrations in the history
+     * @param allowOutOfOrder whether migrations older than the most recent applied one may still be applied
+     * @return the migrations that are not applied yet, in ascending order
+     * @throws MigrationException if out of order migrations are not allowed and a migration that is not applied is
+     *                            older than the most recent applied one
+     */
+    public static <T extends MigrationInfo> List<T> planMigration(List<T> available,
+                                                                  List<? extends MigrationInfo> applied,
+                                                                  boolean allowOutOfOrder)
+            throws MigrationException {
+        List<T> sortedAvailable = sorted(available);
+        List<? extends MigrationInfo> sortedApplied = sorted(applied);
+        int lastMigrationNumber = lastOrder(sortedApplied);
+
+        List<T> pending = new ArrayList<>();
+        List<T> illegal = new ArrayList<>();
+        int appliedIndex = 0;
+        for (T migration : sortedAvailable) {
+            appliedIndex = advance(sortedApplied, appliedIndex, migration.getOrder());
+            if (indexOfMatch(sortedApplied, appliedIndex, migration) < 0) {
+                pending.add(migration);
+                if (!allowOutOfOrder && migration.getOrder() <= lastMigrationNumber) {
+                    illegal.add(migration);
+                }
+            }
+        }
+        if (!illegal.isEmpty()) {
+            throw new MigrationException(String.format("There are migrations that are not in the database, " +
+                    "but smaller then the most recent migration number: %s", describe(illegal)));
+        }
+        return pending;
+    }
+
+    /**
+     * @param available all migrations that may be rolled back
+     * @param applied   the migrations in the history
+     * @param fromOrder the smallest order to roll back
+     * @return the applied migrations with an order of at least {@code fromOrder}, in descending order
+     * @throws MigrationException if an applied migration in that range has no matching available migration
+     */
+    public static <T extends MigrationInfo> List<T> planRollback(List<T> available,
+                                                                 List<? extends MigrationInfo> applied,
+                                                                 int fromOrder) throws MigrationException {
+        List<T> sortedAvailable = sorted(available);
+        List<? extends MigrationInfo> sortedApplied = sorted(applied);
+
+        List<T> rollbacks = new ArrayList<>();
+        List<MigrationInfo> unknown = new ArrayList<>();
+        int availableIndex = 0;
+        for (MigrationInfo entry : sortedApplied) {
+            if (entry.getOrder() < fromOrder) {
+                continue;
+            }
+            availableIndex = advance(sortedAvailable, availableIndex, entry.getOrder());
+            int match = indexOfMatch(sortedAvailable, availableIndex, entry);
+            if (match >= 0) {
+                rollbacks.add(sortedAvailable.get(match));
+            } else {
+                unknown.add(entry);
+            }
+        }
+        if (!unknown.isEmpty()) {
+            throw new MigrationException(String.format("There are migrations in the database " +
+                    "without a matching migration to roll back: %s", describe(unknown)));
+        }
+        Collections.reverse(rollbacks);
+        return rollbacks;
+    }
+
+    private static <T extends MigrationInfo> List<T> sorted(List<T> migrations) {
+        List<T> result = new ArrayList<>(migrations);
+        result.sort(BY_ORDER);
+        return result;
+    }
+
+    private static int lastOrder(List<? extends MigrationInfo> sortedMigrations) {
+        if (sortedMigrations.isEmpty()) {
+            return -1;
+        }
+        return sortedMigrations.get(sortedMigrations.size() - 1).getOrder();
+    }
+
+    private static int advance(List<? extends MigrationInfo> sortedMigrations, int index, int order) {
+        while (index < sortedMigrations.size() && sortedMigrations.get(index).getOrder() < order) {
+            index++;
+        }
+        return index;
+    }
+
+    private static int indexOfMatch(List<? extends MigrationInfo> sortedMigrations, int index,
+                                    MigrationInfo migration) {
+        for (int i = index; i < sortedMigrations.size(); i++) {
+            MigrationInfo candidate = sortedMigrations.get(i);
+            if (candidate.getOrder() != migration.getOrder()) {
+                return -1;
+            }
+            if (candidate.getName().equals(migration.getName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String describe(List<? extends MigrationInfo> migrations) {
+        return migrations.stream()
+                .map(migration -> String.format("%s__%s", migration.getOrder(), migration.getName()))
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,49 @@
+package tech.wendt.dbmigrate;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a {@link MultiTenantMigrator} run.
+ */
+public class MigrationReport {
+
+    private final List<String> succeeded;
+    private final Map<String, MigrationException> failed;
+    private final long elapsedMillis;
+
+    MigrationReport(List<String> succeeded, Map<String, MigrationException> failed, long elapsedMillis) {
+        this.succeeded = Collections.unmodifiableList(succeeded);
+        this.failed = Collections.unmodifiableMap(failed);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return the tenants that were migrated successfully, in the order the tenants were given
+     */
+    public List<String> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * @return the failure of every tenant that could not be migrated
+     */
+    public Map<String, MigrationException> getFailed() {
+        return failed;
+    }
+
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s tenants migrated, %s failed%s in %s ms", succeeded.size(), failed.size(),
+                failed.isEmpty() ? "" : " " + failed.keySet(), elapsedMillis);
+    }
+}
@@ -0,0 +1,387 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.db.DatabaseType;
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Pins a single connection for a whole migration run.
+ * <p>
+ * The connection is registered as the special connection of the {@link ConnectionSource}, so DAOs created on it
+ * use the same connection while the session is open. Scripts and history writes are executed on that connection
+ * with prepared statements that are created only once per run.
+ * <p>
+ * A session that records the history commits a transactional script together with its history entry. With a group
+ * size above 1, the scripts of that many migrations share one transaction and their entries are written in one batch.
+ */
+class MigrationSession implements AutoCloseable {
+
+    /**
+     * The columns recorded next to order and name, in the order of the parameters of the insert statement.
+     */
+    private static final String[] DETAIL_COLUMNS =
+            {"applied_at", "execution_time_ms", "checksum", "statement_count", "host", "transactional"};
+    private static final int BUFFER_SIZE = 8192;
+    private static final String HOST = hostName();
+
+    private final ConnectionSource connectionSource;
+    private final DatabaseConnection databaseConnection;
+    private final Connection connection;
+    private final boolean autoCommit;
+    private final StatementExecutor executor;
+    private final MigrationListener listener;
+    private final int groupSize;
+    private final List<MigrationInfo> pending = new ArrayList<>();
+    private final List<Runnable> finished = new ArrayList<>();
+    private PreparedStatement insertEntry;
+    private PreparedStatement deleteEntry;
+    private CheckpointProgress progress;
+
+    MigrationSession(ConnectionSource connectionSource, StatementExecutor executor) throws SQLException {
+        this(connectionSource, executor, MigrationListener.NONE, 1);
+    }
+
+    private MigrationSession(ConnectionSource connectionSource, StatementExecutor executor,
+                             MigrationListener listener, int groupSize) throws SQLException {
+        this.connectionSource = connectionSource;
+        this.executor = executor;
+        this.listener = listener;
+        this.groupSize = groupSize;
+        long start = System.nanoTime();
+        this.databaseConnection = connectionSource.getReadWriteConnection(null);
+        listener.connectionAcquired(System.nanoTime() - start);
+        try {
+            this.connection = jdbcConnection(databaseConnection);
+            connectionSource.saveSpecialConnection(databaseConnection);
+            this.autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            connectionSource.releaseConnection(databaseConnection);
+            throw e;
+        }
+    }
+
+    MigrationSession(ConnectionSource connectionSource, StatementExecutor executor, String migrationTableName,
+                     MigrationListener listener) throws SQLException {
+        this(connectionSource, executor, migrationTableName, listener, 1);
+    }
+
+    MigrationSession(ConnectionSource connectionSource, StatementExecutor executor, String migrationTableName,
+                     MigrationListener listener, int groupSize) throws SQLException {
+        this(connectionSource, executor, listener, groupSize);
+        try {
+            DatabaseType databaseType = connectionSource.getDatabaseType();
+            StringBuilder table = new StringBuilder();
+            databaseType.appendEscapedEntityName(table, migrationTableName);
+            StringBuilder order = new StringBuilder();
+            databaseType.appendEscapedEntityName(order, "order");
+            StringBuilder name = new StringBuilder();
+            databaseType.appendEscapedEntityName(name, "name");
+            StringBuilder columns = new StringBuilder().append(order).append(", ").append(name);
+            for (String column : DETAIL_COLUMNS) {
+                columns.append(", ");
+                databaseType.appendEscapedEntityName(columns, column);
+            }
+            insertEntry = connection.prepareStatement(String.format(
+                    "INSERT INTO %s (%s) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", table, columns));
+            deleteEntry = connection.prepareStatement(String.format("DELETE FROM %s WHERE %s = ? AND %s = ?",
+                    table, order, name));
+            progress = new CheckpointProgress(connection, databaseType, migrationTableName);
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes all statements of the script of the migration in one transaction while reading it. If the session
+     * records the history, the transaction is committed by {@link #record} or {@link #remove} instead.
+     * <p>
+     * Up scripts with a {@code -- dbmigrate:checkpoint} header are committed in parts instead, if the session records
+     * the history. A failed checkpointed script resumes after its last committed statement when executed again.
+     */
+    ScriptExecution execute(MigrationInfo migration, ScriptSource script, boolean rollback) throws SQLException {
+        long start = System.nanoTime();
+        listener.migrationStarted(migration, rollback);
+        try {
+            int statementCount;
+            long checksum;
+            boolean checkpointed;
+            if (script instanceof TokenizedScript) {
+                TokenizedScript tokenized = (TokenizedScript) script;
+                MigrationHeader header = MigrationHeader.read(script);
+                checkpointed = isCheckpointed(header, rollback);
+                try (StatementSource statements = tokenized.openStatements()) {
+                    statementCount = execute(migration, statements, header, checkpointed);
+                }
+                checksum = tokenized.checksum();
+            } else {
+                try (ChecksumReader checksumReader = new ChecksumReader(script.open());
+                     BufferedReader reader = new BufferedReader(checksumReader, BUFFER_SIZE);
+                     SqlStatementReader statements = new SqlStatementReader(reader)) {
+                    MigrationHeader header = MigrationHeader.peek(reader);
+                    checkpointed = isCheckpointed(header, rollback);
+                    statementCount = execute(migration, statements, header, checkpointed);
+                    checksum = checksumReader.getChecksum();
+                }
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            finished(migration, rollback, elapsedNanos, statementCount);
+            return new ScriptExecution(statementCount, checksum, elapsedNanos, !checkpointed);
+        } catch (SQLException | IOException | MigrationException | RuntimeException e) {
+            discard();
+            listener.migrationFailed(migration, rollback, System.nanoTime() - start, e);
+            if (e instanceof SQLException) {
+                throw (SQLException) e;
+            }
+            throw new SQLException("Could not execute script", e);
+        }
+    }
+
+    /**
+     * Reports the migration as finished once its script is committed. If the session records the history, that is
+     * when the group of the migration is flushed.
+     */
+    void finished(MigrationInfo migration, boolean rollback, long nanos, int statementCount) {
+        if (insertEntry == null) {
+            listener.migrationFinished(migration, rollback, nanos, statementCount);
+        } else {
+            finished.add(() -> listener.migrationFinished(migration, rollback, nanos, statementCount));
+        }
+    }
+
+    private boolean isCheckpointed(MigrationHeader header, boolean rollback) {
+        return !rollback && progress != null && header.isCheckpointed();
+    }
+
+    private int execute(MigrationInfo migration, StatementSource statements, MigrationHeader header,
+                        boolean checkpointed) throws SQLException, IOException, MigrationException {
+        if (checkpointed) {
+            return executeCheckpointed(migration, statements, header.getCheckpoint());
+        }
+        int statementCount = executor.execute(connection, statements, migration, listener);
+        if (insertEntry == null) {
+            connection.commit();
+        }
+        return statementCount;
+    }
+
+    private int executeCheckpointed(MigrationInfo migration, StatementSource statements, long[] checkpoint)
+            throws SQLException, IOException {
+        flush();
+        progress.createIfNotExists();
+        long[] saved = progress.read(migration);
+        CRC32 checksum = new CRC32();
+        int skipped = 0;
+        if (saved != null) {
+            String sql;
+            while (skipped < saved[0] && (sql = statements.nextStatement()) != null) {
+                checksum.update(sql.getBytes(StandardCharsets.UTF_8));
+                skipped++;
+            }
+            if (skipped < saved[0] || checksum.getValue() != saved[1]) {
+                throw new SQLException(String.format("The script of migration %s__%s changed since %s of its " +
+                        "statements were committed", migration.getOrder(), migration.getName(), saved[0]));
+            }
+        }
+        long statementsPerCommit = checkpoint[0];
+        long millisPerCommit = checkpoint[1];
+        long[] lastCommit = {skipped, System.currentTimeMillis()};
+        int statementCount = executor.executeEach(connection, statements, skipped, migration, listener,
+                (executedCount, sql) -> {
+                    checksum.update(sql.getBytes(StandardCharsets.UTF_8));
+                    long now = System.currentTimeMillis();
+                    if ((statementsPerCommit > 0 && executedCount - lastCommit[0] >= statementsPerCommit)
+                            || (millisPerCommit > 0 && now - lastCommit[1] >= millisPerCommit)) {
+                        progress.save(migration, executedCount, checksum.getValue());
+                        connection.commit();
+                        lastCommit[0] = executedCount;
+                        lastCommit[1] = now;
+                    }
+                });
+        progress.save(migration, statementCount, checksum.getValue());
+        connection.commit();
+        return statementCount;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    MigrationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return the progress of migrations committed in parts, or {@code null} if the session does not record the
+     * history
+     */
+    CheckpointProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Adds the migration to the history in the transaction of its script. The progress of a checkpointed migration
+     * is removed in the same transaction. The transaction is committed once the group is complete.
+     */
+    void record(MigrationInfo migration, ScriptExecution execution) throws SQLException {
+        insertEntry.setInt(1, migration.getOrder());
+        insertEntry.setString(2, migration.getName());
+        insertEntry.setLong(3, System.currentTimeMillis());
+        insertEntry.setLong(4, execution.getElapsedNanos() / 1_000_000);
+        insertEntry.setLong(5, execution.getChecksum());
+        insertEntry.setInt(6, execution.getStatementCount());
+        insertEntry.setString(7, HOST);
+        insertEntry.setBoolean(8, execution.isTransactional());
+        try {
+            insertEntry.addBatch();
+            if (!execution.isTransactional()) {
+                progress.delete(migration);
+            }
+        } catch (SQLException e) {
+            discard();
+            throw e;
+        }
+        pending.add(migration);
+        if (pending.size() >= groupSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds migrations that were replaced by a baseline to the history in one batch. They are recorded without the
+     * details of an execution, as their scripts were not executed.
+     */
+    void recordBaseline(List<? extends MigrationInfo> migrations) throws SQLException {
+        long start = System.nanoTime();
+        long appliedAt = System.currentTimeMillis();
+        try {
+            for (MigrationInfo migration : migrations) {
+                insertEntry.setInt(1, migration.getOrder());
+                insertEntry.setString(2, migration.getName());
+                insertEntry.setLong(3, appliedAt);
+                insertEntry.setNull(4, Types.BIGINT);
+                insertEntry.setNull(5, Types.BIGINT);
+                insertEntry.setNull(6, Types.INTEGER);
+                insertEntry.setString(7, HOST);
+                insertEntry.setNull(8, Types.BOOLEAN);
+                insertEntry.addBatch();
+            }
+            insertEntry.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            insertEntry.clearBatch();
+            connection.rollback();
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        for (MigrationInfo migration : migrations) {
+            listener.historyUpdated(migration, nanos / Math.max(1, migrations.size()));
+        }
+    }
+
+    /**
+     * Removes the migration from the history in the transaction of its down script. The transaction is committed
+     * once the group is complete.
+     */
+    void remove(MigrationInfo migration) throws SQLException {
+        deleteEntry.setInt(1, migration.getOrder());
+        deleteEntry.setString(2, migration.getName());
+        try {
+            deleteEntry.addBatch();
+        } catch (SQLException e) {
+            discard();
+            throw e;
+        }
+        pending.add(migration);
+        if (pending.size() >= groupSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the pending history entries in one batch and commits them together with the scripts of their
+     * migrations.
+     */
+    void flush() throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            insertEntry.executeBatch();
+            deleteEntry.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            discard();
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        finished.forEach(Runnable::run);
+        finished.clear();
+        for (MigrationInfo migration : pending) {
+            listener.historyUpdated(migration, nanos / pending.size());
+        }
+        pending.clear();
+    }
+
+    /**
+     * Rolls back the transaction together with the scripts and history entries of the group.
+     */
+    private void discard() throws SQLException {
+        if (insertEntry != null) {
+            insertEntry.clearBatch();
+            deleteEntry.clearBatch();
+        }
+        pending.clear();
+        finished.clear();
+        connection.rollback();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (insertEntry != null) {
+                insertEntry.close();
+            }
+            if (deleteEntry != null) {
+                deleteEntry.close();
+            }
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        } finally {
+            connectionSource.clearSpecialConnection(databaseConnection);
+            connectionSource.releaseConnection(databaseConnection);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            String host = InetAddress.getLocalHost().getHostName();
+            return host.length() > 255 ? host.substring(0, 255) : host;
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    private static Connection jdbcConnection(DatabaseConnection connection) throws SQLException {
+        if (connection instanceof JdbcDatabaseConnection) {
+            return ((JdbcDatabaseConnection) connection).getInternalConnection();
+        }
+        throw new SQLException(String.format("Unsupported connection type %s", connection.getClass().getName()));
+    }
+}
@@ -0,0 +1,144 @@
+package tech.wendt.dbmigrate;
+
+public class MigrationSettings {
+
+    private int batchSize = 0;
+    private int parallelism = 1;
+    private int groupSize = 1;
+    private boolean singleTransactionRollback = false;
+    private boolean locking = false;
+    private long lockLeaseMillis = 30_000;
+    private long lockTimeoutMillis = 600_000;
+    private MigrationListener listener = MigrationListener.NONE;
+    private Migration baseline;
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Groups consecutive DML statements of a script into JDBC batches of the given size.
+     * A batch size of 0 executes every statement on its own.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 0) {
+            throw new IllegalArgumentException(String.format("Batch size must not be negative: %s", batchSize));
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Applies independent migrations on up to the given number of connections at the same time.
+     * Dependencies are declared in the header of the up script with {@code -- dbmigrate:depends-on <orders>} and
+     * {@code -- dbmigrate:group <name>}; a migration without such a header waits for all earlier migrations.
+     * A parallelism of 1 applies all migrations one after another.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(String.format("Parallelism must be positive: %s", parallelism));
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    /**
+     * Commits the scripts of up to the given number of consecutive migrations in one transaction and writes their
+     * history entries in one batch. A failed script rolls back the migrations of its group that were not committed
+     * yet. Migrations committed in parts complete the group before them. Applies only to migrations applied one
+     * after another; the scripts of a group are only undone together on databases with transactional DDL.
+     */
+    public void setGroupSize(int groupSize) {
+        if (groupSize < 1) {
+            throw new IllegalArgumentException(String.format("Group size must be positive: %s", groupSize));
+        }
+        this.groupSize = groupSize;
+    }
+
+    public boolean isSingleTransactionRollback() {
+        return singleTransactionRollback;
+    }
+
+    /**
+     * Rolls back all migrations of a rollback in one transaction, so that either all or none of them are rolled
+     * back. Rollbacks are then executed one after another regardless of the parallelism. This is only atomic on
+     * databases with transactional DDL.
+     */
+    public void setSingleTransactionRollback(boolean singleTransactionRollback) {
+        this.singleTransactionRollback = singleTransactionRollback;
+    }
+
+    public boolean isLocking() {
+        return locking;
+    }
+
+    /**
+     * Serializes migrations and rollbacks of several processes on the same database with a lock table named after
+     * the migration table with the suffix {@code _lock}. Processes that wait for the lock and find the history up to
+     * date afterwards return without reconciling it again.
+     */
+    public void setLocking(boolean locking) {
+        this.locking = locking;
+    }
+
+    public long getLockLeaseMillis() {
+        return lockLeaseMillis;
+    }
+
+    /**
+     * The time after which the lock of a process that stopped extending it may be taken over.
+     */
+    public void setLockLeaseMillis(long lockLeaseMillis) {
+        if (lockLeaseMillis <= 0) {
+            throw new IllegalArgumentException(String.format("Lock lease must be positive: %s", lockLeaseMillis));
+        }
+        this.lockLeaseMillis = lockLeaseMillis;
+    }
+
+    public long getLockTimeoutMillis() {
+        return lockTimeoutMillis;
+    }
+
+    /**
+     * The time to wait for the lock before giving up.
+     */
+    public void setLockTimeoutMillis(long lockTimeoutMillis) {
+        if (lockTimeoutMillis < 0) {
+            throw new IllegalArgumentException(String.format("Lock timeout must not be negative: %s",
+                    lockTimeoutMillis));
+        }
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    public MigrationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Reports timings of loading, planning, scripts and statements to the listener.
+     * Use {@link MigrationListener#all(MigrationListener...)} to report to several listeners.
+     */
+    public void setListener(MigrationListener listener) {
+        this.listener = listener != null ? listener : MigrationListener.NONE;
+    }
+
+    public Migration getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Declares a migration that stands in for all migrations up to its order on databases without history, for
+     * example a schema dump that replaces thousands of historical migrations. On such a database only the up script
+     * of the baseline is executed, and the migrations it stands in for are recorded as applied in one batch.
+     * Databases with history keep applying the migrations themselves, so they have to remain available.
+     */
+    public void setBaseline(Migration baseline) {
+        this.baseline = baseline;
+    }
+}
@@ -0,0 +1,120 @@
+package tech.wendt.dbmigrate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies the same migrations to many databases or schemas, for example one per tenant.
+ * <p>
+ * The migrations are listed only once and shared by all tenants, as are the scripts of the load windows the
+ * tenants currently work on. Up to {@code parallelism} tenants are migrated at the same time, each with its own
+ * {@link DbMigrator}. A failing tenant does not stop the others; its failure is reported to the listener and in
+ * the returned {@link MigrationReport}.
+ */
+public class MultiTenantMigrator {
+
+    private final String migrationTableName;
+    private final MigrationLoader migrationLoader;
+    private final MigrationSettings settings;
+    private final int parallelism;
+    private TenantMigrationListener listener = TenantMigrationListener.NONE;
+
+    public MultiTenantMigrator(String migrationTableName, MigrationLoader migrationLoader, int parallelism) {
+        this(migrationTableName, migrationLoader, new MigrationSettings(), parallelism);
+    }
+
+    public MultiTenantMigrator(String migrationTableName, MigrationLoader migrationLoader,
+                               MigrationSettings settings, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(String.format("Parallelism must be positive: %s", parallelism));
+        }
+        this.migrationTableName = migrationTableName;
+        this.migrationLoader = new CachingMigrationLoader(migrationLoader, DbMigrator.LOAD_WINDOW * parallelism);
+        this.settings = settings;
+        this.parallelism = parallelism;
+    }
+
+    public void setListener(TenantMigrationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Applies all pending migrations to every tenant.
+     *
+     * @param tenants the data source of every tenant by its name
+     * @throws MigrationException if the migrations could not be loaded
+     */
+    public MigrationReport migrateAll(Map<String, DataSource> tenants) throws MigrationException {
+        try {
+            migrationLoader.loadMigrationInfos();
+        } catch (IOException e) {
+            throw new MigrationException("Could not load migrations", e);
+        }
+        long start = System.nanoTime();
+        List<String> succeeded = new ArrayList<>();
+        Map<String, MigrationException> failed = new LinkedHashMap<>();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tenants.size())),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "dbmigrate-tenant-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            Map<String, Future<MigrationException>> results = new LinkedHashMap<>();
+            for (Map.Entry<String, DataSource> tenant : tenants.entrySet()) {
+                results.put(tenant.getKey(), executor.submit(() -> migrate(tenant.getKey(), tenant.getValue())));
+            }
+            for (Map.Entry<String, Future<MigrationException>> result : results.entrySet()) {
+                MigrationException failure = await(result.getValue());
+                if (failure == null) {
+                    succeeded.add(result.getKey());
+                } else {
+                    failed.put(result.getKey(), failure);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new MigrationReport(succeeded, failed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private MigrationException migrate(String tenant, DataSource dataSource) {
+        long start = System.nanoTime();
+        listener.started(tenant);
+        try (DbMigrator migrator = new DbMigrator(migrationTableName, dataSource, migrationLoader, settings)) {
+            migrator.migrateAll();
+        } catch (MigrationException | RuntimeException e) {
+            MigrationException failure = e instanceof MigrationException ? (MigrationException) e
+                    : new MigrationException(String.format("Could not migrate tenant %s", tenant), e);
+            listener.failed(tenant, elapsedMillis(start), failure);
+            return failure;
+        }
+        listener.succeeded(tenant, elapsedMillis(start));
+        return null;
+    }
+
+    private static MigrationException await(Future<MigrationException> result) throws MigrationException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MigrationException("Interrupted while migrating tenants", e);
+        } catch (ExecutionException e) {
+            return new MigrationException("Could not migrate tenant", e.getCause());
+        }
+    }
+
+    private static long elapsedMillis(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,57 @@
+package tech.wendt.dbmigrate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replicates writes with one trigger per operation and swaps the tables with a single atomic {@code RENAME TABLE}.
+ */
+class MySqlOnlineSchemaChangeDialect implements OnlineSchemaChangeDialect {
+
+    private static final String[] OPERATIONS = {"insert", "update", "delete"};
+
+    @Override
+    public List<String> createShadowTable(String table, String shadowTable, String keyColumn) {
+        return Collections.singletonList(String.format("CREATE TABLE %s LIKE %s", shadowTable, table));
+    }
+
+    @Override
+    public List<String> createTriggers(String table, String shadowTable, String keyColumn, List<String> columns) {
+        String columnList = String.join(", ", columns);
+        List<String> values = new ArrayList<>();
+        for (String column : columns) {
+            values.add("NEW." + column);
+        }
+        String replace = String.format("REPLACE INTO %s (%s) VALUES (%s)", shadowTable, columnList,
+                String.join(", ", values));
+        return Arrays.asList(
+                String.format("CREATE TRIGGER %s AFTER INSERT ON %s FOR EACH ROW %s",
+                        trigger(shadowTable, "insert"), table, replace),
+                String.format("CREATE TRIGGER %s AFTER UPDATE ON %s FOR EACH ROW BEGIN " +
+                                "DELETE FROM %s WHERE %s = OLD.%s; %s; END",
+                        trigger(shadowTable, "update"), table, shadowTable, keyColumn, keyColumn, replace),
+                String.format("CREATE TRIGGER %s AFTER DELETE ON %s FOR EACH ROW DELETE FROM %s WHERE %s = OLD.%s",
+                        trigger(shadowTable, "delete"), table, shadowTable, keyColumn, keyColumn));
+    }
+
+    @Override
+    public List<String> dropTriggers(String table, String shadowTable) {
+        List<String> statements = new ArrayList<>();
+        for (String operation : OPERATIONS) {
+            statements.add(String.format("DROP TRIGGER IF EXISTS %s", trigger(shadowTable, operation)));
+        }
+        return statements;
+    }
+
+    @Override
+    public List<String> swapTables(String table, String shadowTable, String oldTable) {
+        return Collections.singletonList(String.format("RENAME TABLE %s TO %s, %s TO %s",
+                table, oldTable, shadowTable, table));
+    }
+
+    private static String trigger(String shadowTable, String operation) {
+        return shadowTable + "_" + operation;
+    }
+}
@@ -0,0 +1,84 @@
+package tech.wendt.dbmigrate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Creates the database specific statements of an {@link OnlineSchemaChangeMigration}.
+ * <p>
+ * Built-in dialects exist for MySQL and PostgreSQL; other databases can be supported by implementing this interface
+ * and passing it to {@link OnlineSchemaChangeMigration#setDialect(OnlineSchemaChangeDialect)}. Identifiers are
+ * passed as given to the migration and as reported by the JDBC driver, without escaping.
+ */
+public interface OnlineSchemaChangeDialect {
+
+    OnlineSchemaChangeDialect MYSQL = new MySqlOnlineSchemaChangeDialect();
+    OnlineSchemaChangeDialect POSTGRES = new PostgresOnlineSchemaChangeDialect();
+
+    /**
+     * @return the statements that create an empty copy of the table with the key column as its primary key
+     */
+    List<String> createShadowTable(String table, String shadowTable, String keyColumn);
+
+    /**
+     * @return a query whose rows, of one text column each, describe objects depending on the table that would stay
+     * with the old table after the swap, or {@code null} if the database moves all of them. The migration fails
+     * before creating the shadow table if the query returns rows.
+     */
+    default String dependentObjects(String table) {
+        return null;
+    }
+
+    /**
+     * @param columns the columns of the shadow table that also exist in the table
+     * @return the statements that create triggers replicating every insert, update and delete on the table to the
+     * shadow table, within the writing transaction
+     */
+    List<String> createTriggers(String table, String shadowTable, String keyColumn, List<String> columns);
+
+    /**
+     * @param table the table the triggers are attached to, the old table after the cutover
+     * @return the statements that drop the triggers created by
+     * {@link #createTriggers(String, String, String, List)}, without failing if they do not exist
+     */
+    List<String> dropTriggers(String table, String shadowTable);
+
+    /**
+     * @return the statements that rename the table to the old table and the shadow table to the table, atomically
+     * if the database allows it. They are executed in one transaction.
+     */
+    List<String> swapTables(String table, String shadowTable, String oldTable);
+
+    /**
+     * @return the statements that copy a chunk of rows that were not written by the triggers yet, each with the
+     * exclusive lower and the inclusive upper key of the chunk as their first two parameters. The update count of the
+     * last statement is the number of copied rows. The default locks the rows of the chunk before copying them, so
+     * concurrent writes to them are either copied or replicated by the triggers afterwards.
+     */
+    default List<String> copyChunk(String table, String shadowTable, String keyColumn, List<String> columns) {
+        String columnList = String.join(", ", columns);
+        return Arrays.asList(
+                String.format("SELECT %s FROM %s WHERE %s > ? AND %s <= ? FOR UPDATE",
+                        keyColumn, table, keyColumn, keyColumn),
+                String.format("INSERT INTO %s (%s) SELECT %s FROM %s WHERE %s > ? AND %s <= ? " +
+                                "AND NOT EXISTS (SELECT 1 FROM %s s WHERE s.%s = %s.%s)",
+                        shadowTable, columnList, columnList, table, keyColumn, keyColumn,
+                        shadowTable, keyColumn, table, keyColumn));
+    }
+
+    /**
+     * @param databaseName the product name reported by the JDBC driver
+     * @return the built-in dialect of the database, or {@code null} if there is none
+     */
+    static OnlineSchemaChangeDialect of(String databaseName) {
+        String name = databaseName.toLowerCase(Locale.ROOT);
+        if (name.contains("postgres")) {
+            return POSTGRES;
+        }
+        if (name.contains("mysql") || name.contains("mariadb")) {
+            return MYSQL;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,361 @@
+package tech.wendt.dbmigrate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Alters a table without locking it for the whole rewrite, by copying it into a shadow table of the new shape.
+ * <p>
+ * The shadow table {@code _<table>_new} is created like the table and altered with the given alteration, for example
+ * {@code ALTER COLUMN email TYPE varchar(320)}. Triggers replicate concurrent writes to the table into the shadow
+ * table while the existing rows are copied in committed chunks of an integral key. At the cutover the table is
+ * renamed to {@code _<table>_old} and the shadow table takes its place. The old table is kept unless
+ * {@link #setDropOldTable(boolean)} is set. Columns are copied by name, so columns dropped by the alteration are
+ * left out and added columns get their defaults. As chunks have an exclusive lower key, tables containing the key
+ * {@link Long#MIN_VALUE} are rejected before the copy.
+ * <p>
+ * The statements to create the shadow table, the triggers and to swap the tables are taken from an
+ * {@link OnlineSchemaChangeDialect}. Foreign keys referencing the table are not moved to the shadow table. On
+ * PostgreSQL, views, owned sequences and privileges would stay with the old table as well, and the old table could
+ * not be dropped after the swap, so the dialect rejects tables with such objects before the shadow table is
+ * created.
+ * <p>
+ * When applied by {@link DbMigrator}, the position of every committed chunk is stored with the progress of
+ * checkpointed migrations, so a failed migration continues after its last committed chunk. A migration that failed
+ * after swapping the tables, which databases like MySQL commit on their own, continues with the cleanup if the shadow
+ * table is gone and the old table exists. It is recorded in the history as not transactional, with the checksum of
+ * its up script, the {@code ALTER TABLE} statement it stands for.
+ */
+public class OnlineSchemaChangeMigration extends Migration {
+
+    /**
+     * The position stored once the tables were swapped.
+     */
+    private static final long CUTOVER = Long.MAX_VALUE;
+
+    private final String table;
+    private final String keyColumn;
+    private final String alteration;
+    private final String upSql;
+    private final String shadowTable;
+    private final String oldTable;
+    private OnlineSchemaChangeDialect dialect;
+    private long chunkSize = 1000;
+    private boolean dropOldTable;
+
+    /**
+     * @param table      the table to alter, optionally qualified with its schema
+     * @param keyColumn  an integral column of the table that is its primary key
+     * @param alteration the part of an {@code ALTER TABLE} statement after the table name
+     * @param downSql    the script to roll the migration back, may be {@code null}
+     */
+    public OnlineSchemaChangeMigration(String name, int order, String table, String keyColumn, String alteration,
+                                       String downSql) {
+        super(name, order, ScriptSource.of(upSql(table, keyColumn, alteration)),
+                downSql != null ? ScriptSource.of(downSql) : null);
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.alteration = alteration;
+        this.upSql = upSql(table, keyColumn, alteration);
+        int dot = table.lastIndexOf('.');
+        String schema = table.substring(0, dot + 1);
+        String tableName = table.substring(dot + 1);
+        this.shadowTable = schema + "_" + tableName + "_new";
+        this.oldTable = schema + "_" + tableName + "_old";
+    }
+
+    /**
+     * Uses the given dialect instead of the built-in dialect of the database.
+     */
+    public void setDialect(OnlineSchemaChangeDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(String.format("Chunk size must be positive: %s", chunkSize));
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Drops the old table after the cutover instead of keeping it.
+     */
+    public void setDropOldTable(boolean dropOldTable) {
+        this.dropOldTable = dropOldTable;
+    }
+
+    public String getShadowTable() {
+        return shadowTable;
+    }
+
+    public String getOldTable() {
+        return oldTable;
+    }
+
+    @Override
+    ScriptExecution up(MigrationSession session) throws SQLException {
+        long start = System.nanoTime();
+        MigrationListener listener = session.getListener();
+        Connection connection = session.getConnection();
+        CheckpointProgress checkpoint = session.getProgress();
+        session.flush();
+        listener.migrationStarted(this, false);
+        try {
+            OnlineSchemaChangeDialect dialect = dialect(connection);
+            long checksum = checksum();
+            long[] saved = null;
+            if (checkpoint != null) {
+                checkpoint.createIfNotExists();
+                saved = checkpoint.read(this);
+                if (saved != null && saved[1] != checksum) {
+                    throw new SQLException(String.format("The schema change %s__%s changed since it was started",
+                            getOrder(), getName()));
+                }
+            }
+            int chunks;
+            long position;
+            if (saved == null) {
+                prepare(connection, dialect);
+                chunks = 0;
+                position = Long.MIN_VALUE;
+                if (checkpoint != null) {
+                    checkpoint.save(this, chunks, checksum, position);
+                    connection.commit();
+                }
+            } else {
+                chunks = (int) saved[0];
+                position = saved[2];
+                if (position != CUTOVER && swapped(connection)) {
+                    // The swap was committed, but the run failed before the cutover was stored
+                    position = CUTOVER;
+                    checkpoint.save(this, chunks, checksum, position);
+                    connection.commit();
+                }
+            }
+            if (position != CUTOVER) {
+                List<String> columns = copiedColumns(connection);
+                chunks = copy(connection, dialect, checkpoint, listener, columns, chunks, position, checksum);
+                execute(connection, dialect.swapTables(table, shadowTable, oldTable));
+                if (checkpoint != null) {
+                    checkpoint.save(this, chunks, checksum, CUTOVER);
+                }
+                connection.commit();
+            }
+            List<String> cleanup = new ArrayList<>(dialect.dropTriggers(oldTable, shadowTable));
+            if (dropOldTable) {
+                cleanup.add(String.format("DROP TABLE %s", oldTable));
+            }
+            execute(connection, cleanup);
+            connection.commit();
+            long elapsedNanos = System.nanoTime() - start;
+            session.finished(this, false, elapsedNanos, chunks);
+            return new ScriptExecution(chunks, checksum, elapsedNanos, false);
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            listener.migrationFailed(this, false, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Plans the alteration of the shadow table and the copy of the rows, instead of the {@code ALTER TABLE}
+     * statement of the up script that the migration avoids.
+     */
+    @Override
+    PlannedMigration planUp(DryRunPlanner planner, Connection connection) {
+        return planner.analyseChunked(connection, this, String.format("SELECT %s FROM %s", keyColumn, table), 1, 1);
+    }
+
+    private OnlineSchemaChangeDialect dialect(Connection connection) throws SQLException {
+        if (dialect != null) {
+            return dialect;
+        }
+        String databaseName = connection.getMetaData().getDatabaseProductName();
+        OnlineSchemaChangeDialect builtIn = OnlineSchemaChangeDialect.of(databaseName);
+        if (builtIn == null) {
+            throw new SQLException(String.format("No online schema change dialect for %s", databaseName));
+        }
+        return builtIn;
+    }
+
+    /**
+     * Creates the shadow table of the new shape and the triggers, after checking that no objects depend on the
+     * table that the swap would leave behind. Leftovers of a run that failed while preparing are dropped first.
+     */
+    private void prepare(Connection connection, OnlineSchemaChangeDialect dialect) throws SQLException {
+        String dependentObjects = dialect.dependentObjects(table);
+        if (dependentObjects != null) {
+            List<String> objects = new ArrayList<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery(dependentObjects)) {
+                while (result.next()) {
+                    objects.add(result.getString(1));
+                }
+            } finally {
+                connection.commit();
+            }
+            if (!objects.isEmpty()) {
+                throw new SQLException(String.format("The schema change %s__%s would leave %s with the old table",
+                        getOrder(), getName(), String.join(", ", objects)));
+            }
+        }
+        List<String> statements = new ArrayList<>(dialect.dropTriggers(table, shadowTable));
+        statements.add(String.format("DROP TABLE IF EXISTS %s", shadowTable));
+        statements.addAll(dialect.createShadowTable(table, shadowTable, keyColumn));
+        statements.add(String.format("ALTER TABLE %s %s", shadowTable, alteration));
+        execute(connection, statements);
+        connection.commit();
+        execute(connection, dialect.createTriggers(table, shadowTable, keyColumn, copiedColumns(connection)));
+        connection.commit();
+    }
+
+    /**
+     * Copies the rows up to the largest key, which is taken after the triggers exist, so that later rows are
+     * replicated by the triggers.
+     */
+    private int copy(Connection connection, OnlineSchemaChangeDialect dialect, CheckpointProgress checkpoint,
+                     MigrationListener listener, List<String> columns, int chunks, long position, long checksum)
+            throws SQLException {
+        long[] range = keyRange(connection);
+        if (range == null) {
+            return chunks;
+        }
+        if (range[0] == Long.MIN_VALUE) {
+            throw new SQLException(String.format("The schema change %s__%s cannot copy the key %s, as the lower "
+                    + "bound of its chunks is exclusive", getOrder(), getName(), range[0]));
+        }
+        position = Math.max(position, range[0] - 1);
+        long last = range[1];
+        List<String> chunkStatements = dialect.copyChunk(table, shadowTable, keyColumn, columns);
+        String description = String.join(";\n", chunkStatements);
+        List<PreparedStatement> statements = new ArrayList<>();
+        try {
+            for (String sql : chunkStatements) {
+                statements.add(connection.prepareStatement(sql));
+            }
+            while (position < last) {
+                long upper = BackfillMigration.isLastChunk(position, last, chunkSize) ? last : position + chunkSize;
+                long chunkStart = System.nanoTime();
+                int copied = 0;
+                for (PreparedStatement statement : statements) {
+                    statement.setLong(1, position);
+                    statement.setLong(2, upper);
+                    copied = statement.execute() ? 0 : statement.getUpdateCount();
+                }
+                chunks++;
+                if (checkpoint != null) {
+                    checkpoint.save(this, chunks, checksum, upper);
+                }
+                connection.commit();
+                listener.statementExecuted(this, chunks - 1, description, System.nanoTime() - chunkStart, copied);
+                position = upper;
+            }
+        } finally {
+            for (PreparedStatement statement : statements) {
+                statement.close();
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @return whether the shadow table of a started run is gone and the old table exists, as after the swap
+     */
+    private boolean swapped(Connection connection) throws SQLException {
+        connection.commit();
+        return !exists(connection, shadowTable) && exists(connection, oldTable);
+    }
+
+    private static boolean exists(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeQuery(String.format("SELECT * FROM %s WHERE 1 = 0", table)).close();
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            return false;
+        }
+    }
+
+    /**
+     * @return the columns of the shadow table that also exist in the table
+     */
+    private List<String> copiedColumns(Connection connection) throws SQLException {
+        Set<String> tableColumns = new HashSet<>();
+        for (String column : columns(connection, table)) {
+            tableColumns.add(column.toLowerCase(Locale.ROOT));
+        }
+        List<String> copied = new ArrayList<>();
+        for (String column : columns(connection, shadowTable)) {
+            if (tableColumns.contains(column.toLowerCase(Locale.ROOT))) {
+                copied.add(column);
+            }
+        }
+        return copied;
+    }
+
+    private static List<String> columns(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(String.format("SELECT * FROM %s WHERE 1 = 0", table))) {
+            ResultSetMetaData metaData = result.getMetaData();
+            List<String> columns = new ArrayList<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnName(i));
+            }
+            return columns;
+        } finally {
+            connection.commit();
+        }
+    }
+
+    private long[] keyRange(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery(String.format("SELECT MIN(%s), MAX(%s) FROM %s",
+                     keyColumn, keyColumn, table))) {
+            result.next();
+            long min = result.getLong(1);
+            if (result.wasNull()) {
+                return null;
+            }
+            return new long[]{min, result.getLong(2)};
+        } finally {
+            connection.commit();
+        }
+    }
+
+    private static void execute(Connection connection, List<String> statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * @return the up script, which describes the whole change so that its checksum changes with the key column too
+     */
+    private static String upSql(String table, String keyColumn, String alteration) {
+        return String.format("-- online schema change keyed by %s\nALTER TABLE %s %s", keyColumn, table, alteration);
+    }
+
+    /**
+     * @return the checksum of the up script, as recorded in the history
+     */
+    private long checksum() {
+        CRC32 checksum = new CRC32();
+        checksum.update(upSql.getBytes(StandardCharsets.UTF_8));
+        return checksum.getValue();
+    }
+}
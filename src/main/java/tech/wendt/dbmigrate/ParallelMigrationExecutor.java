@@ -0,0 +1,232 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.support.ConnectionSource;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Applies pending migrations on a bounded number of worker threads in the order of their dependencies, or rolls
+ * them back in the reverse order.
+ * <p>
+ * Every worker pins its own connection through a {@link MigrationSession}, loads the scripts of the migrations it
+ * takes and records each migration in the history as soon as its script is committed. Once a migration fails, no
+ * further migrations are started and the failure is reported after the running ones have finished.
+ */
+class ParallelMigrationExecutor {
+
+    private static final int STOP = Integer.MAX_VALUE;
+
+    private final ConnectionSource connectionSource;
+    private final StatementExecutor statementExecutor;
+    private final String migrationTableName;
+    private final MigrationLoader migrationLoader;
+    private final int parallelism;
+    private final MigrationListener listener;
+
+    ParallelMigrationExecutor(ConnectionSource connectionSource, StatementExecutor statementExecutor,
+                              String migrationTableName, MigrationLoader migrationLoader, int parallelism,
+                              MigrationListener listener) {
+        this.connectionSource = connectionSource;
+        this.statementExecutor = statementExecutor;
+        this.migrationTableName = migrationTableName;
+        this.migrationLoader = migrationLoader;
+        this.parallelism = parallelism;
+        this.listener = listener;
+    }
+
+    /**
+     * @param pending the migrations to apply in ascending order
+     * @param graph   the dependencies of the pending migrations, dependencies outside of them are considered applied
+     */
+    void migrate(List<? extends MigrationInfo> pending, MigrationGraph graph)
+            throws SQLException, IOException, MigrationException {
+        execute(pending, graph, false);
+    }
+
+    /**
+     * Rolls back a migration once all migrations that depend on it are rolled back.
+     *
+     * @param rollbacks the migrations to roll back in descending order
+     * @param graph     the dependencies of the migrations, dependencies outside of them are not rolled back
+     */
+    void rollback(List<? extends MigrationInfo> rollbacks, MigrationGraph graph)
+            throws SQLException, IOException, MigrationException {
+        execute(rollbacks, graph, true);
+    }
+
+    private void execute(List<? extends MigrationInfo> pending, MigrationGraph graph, boolean rollback)
+            throws SQLException, IOException, MigrationException {
+        Map<Integer, Integer> indexByOrder = new HashMap<>();
+        for (int i = 0; i < pending.size(); i++) {
+            indexByOrder.put(pending.get(i).getOrder(), i);
+        }
+        int[] remaining = new int[pending.size()];
+        List<List<Integer>> dependents = new ArrayList<>();
+        for (int i = 0; i < pending.size(); i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            for (int dependency : graph.dependenciesOf(pending.get(i).getOrder())) {
+                Integer index = indexByOrder.get(dependency);
+                if (index == null) {
+                    continue;
+                }
+                if (rollback) {
+                    remaining[index]++;
+                    dependents.get(i).add(index);
+                } else {
+                    remaining[i]++;
+                    dependents.get(index).add(i);
+                }
+            }
+        }
+
+        BlockingQueue<Integer> ready = new PriorityBlockingQueue<>();
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        int started = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            if (remaining[i] == 0) {
+                ready.add(i);
+                started++;
+            }
+        }
+        int workerCount = Math.min(parallelism, pending.size());
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(() -> work(pending, rollback, ready, results), "dbmigrate-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        Exception failure = null;
+        try {
+            int finished = 0;
+            while (finished < started) {
+                Result result = results.take();
+                finished++;
+                if (result.failure != null) {
+                    if (failure == null) {
+                        failure = result.failure;
+                        started -= ready.drainTo(new ArrayList<>());
+                    } else {
+                        failure.addSuppressed(result.failure);
+                    }
+                    continue;
+                }
+                if (failure != null) {
+                    continue;
+                }
+                for (int dependent : dependents.get(result.index)) {
+                    if (--remaining[dependent] == 0) {
+                        ready.add(dependent);
+                        started++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = new MigrationException("Interrupted while waiting for migrations", e);
+        } finally {
+            ready.clear();
+            for (int i = 0; i < workerCount; i++) {
+                ready.add(STOP);
+            }
+            join(workers);
+        }
+        rethrow(failure);
+    }
+
+    private void work(List<? extends MigrationInfo> pending, boolean rollback, BlockingQueue<Integer> ready,
+                      BlockingQueue<Result> results) {
+        MigrationSession session = null;
+        try {
+            int index;
+            while ((index = ready.take()) != STOP) {
+                try {
+                    if (session == null) {
+                        session = new MigrationSession(connectionSource, statementExecutor, migrationTableName,
+                                listener);
+                    }
+                    long loadStart = System.nanoTime();
+                    List<Migration> migrations =
+                            migrationLoader.loadMigrations(Collections.singletonList(pending.get(index)));
+                    listener.scriptsLoaded(migrations.size(), System.nanoTime() - loadStart);
+                    for (Migration migration : migrations) {
+                        if (rollback) {
+                            migration.down(session);
+                            session.remove(migration);
+                        } else {
+                            ScriptExecution execution = migration.up(session);
+                            session.record(migration, execution);
+                        }
+                    }
+                    results.add(new Result(index, null));
+                } catch (SQLException | IOException | RuntimeException e) {
+                    results.add(new Result(index, e));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (session != null) {
+                try {
+                    session.close();
+                } catch (SQLException ignored) {
+                    // the connection is released regardless
+                }
+            }
+        }
+    }
+
+    private static void join(List<Thread> workers) {
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void rethrow(Exception failure) throws SQLException, IOException, MigrationException {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException) failure;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof MigrationException) {
+            throw (MigrationException) failure;
+        }
+        throw (RuntimeException) failure;
+    }
+
+    private static final class Result {
+        private final int index;
+        private final Exception failure;
+
+        private Result(int index, Exception failure) {
+            this.index = index;
+            this.failure = failure;
+        }
+    }
+}
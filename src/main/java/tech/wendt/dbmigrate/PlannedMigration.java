@@ -0,0 +1,75 @@
+package tech.wendt.dbmigrate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a dry run found out about one migration of a {@link MigrationPlan}.
+ */
+public class PlannedMigration implements MigrationInfo {
+
+    private final int order;
+    private final String name;
+    private final boolean rollback;
+    private final int statementCount;
+    private final int dmlCount;
+    private final int ddlCount;
+    private final long estimatedRows;
+    private final List<String> warnings;
+
+    PlannedMigration(MigrationInfo migration, boolean rollback, int statementCount, int dmlCount, int ddlCount,
+                     long estimatedRows, List<String> warnings) {
+        this.order = migration.getOrder();
+        this.name = migration.getName();
+        this.rollback = rollback;
+        this.statementCount = statementCount;
+        this.dmlCount = dmlCount;
+        this.ddlCount = ddlCount;
+        this.estimatedRows = estimatedRows;
+        this.warnings = Collections.unmodifiableList(warnings);
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether the down script would be executed
+     */
+    public boolean isRollback() {
+        return rollback;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    public int getDmlCount() {
+        return dmlCount;
+    }
+
+    public int getDdlCount() {
+        return ddlCount;
+    }
+
+    /**
+     * @return the number of rows the database estimates to be affected by the DML of the script, or -1 if the
+     * database gave no estimate for some of it
+     */
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    /**
+     * @return descriptions of statements that may rewrite or lock whole tables
+     */
+    public List<String> getWarnings() {
+        return warnings;
+    }
+}
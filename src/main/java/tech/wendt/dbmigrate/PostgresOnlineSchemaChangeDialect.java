@@ -0,0 +1,83 @@
+package tech.wendt.dbmigrate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replicates writes with a PL/pgSQL trigger function and swaps the tables in one transaction, which holds an
+ * exclusive lock on the table until it is committed.
+ * <p>
+ * PostgreSQL binds dependent objects to the table itself instead of its name, so views, sequences owned by its
+ * columns, foreign keys referencing it and its privileges would stay with the old table. Tables with such objects
+ * are rejected.
+ */
+class PostgresOnlineSchemaChangeDialect implements OnlineSchemaChangeDialect {
+
+    @Override
+    public List<String> createShadowTable(String table, String shadowTable, String keyColumn) {
+        return Collections.singletonList(String.format("CREATE TABLE %s (LIKE %s INCLUDING ALL)",
+                shadowTable, table));
+    }
+
+    @Override
+    public String dependentObjects(String table) {
+        String relation = String.format("'%s'::regclass", table.replace("'", "''"));
+        return String.format("SELECT DISTINCT 'view ' || v.oid::regclass FROM pg_depend d "
+                        + "JOIN pg_rewrite r ON r.oid = d.objid JOIN pg_class v ON v.oid = r.ev_class "
+                        + "WHERE d.classid = 'pg_rewrite'::regclass AND d.refobjid = %1$s AND v.oid <> %1$s "
+                        + "UNION SELECT 'sequence ' || d.objid::regclass FROM pg_depend d "
+                        + "WHERE d.classid = 'pg_class'::regclass AND d.refobjid = %1$s AND d.deptype IN ('a', 'i') "
+                        + "AND d.objid IN (SELECT oid FROM pg_class WHERE relkind = 'S') "
+                        + "UNION SELECT 'foreign key ' || conname FROM pg_constraint WHERE confrelid = %1$s "
+                        + "UNION SELECT 'privileges' FROM pg_class WHERE oid = %1$s AND relacl IS NOT NULL",
+                relation);
+    }
+
+    @Override
+    public List<String> createTriggers(String table, String shadowTable, String keyColumn, List<String> columns) {
+        List<String> values = new ArrayList<>();
+        for (String column : columns) {
+            values.add("NEW." + column);
+        }
+        String function = trigger(shadowTable);
+        return Arrays.asList(
+                String.format("CREATE FUNCTION %s() RETURNS trigger AS $$ BEGIN " +
+                                "IF TG_OP <> 'INSERT' THEN DELETE FROM %s WHERE %s = OLD.%s; END IF; " +
+                                "IF TG_OP <> 'DELETE' THEN DELETE FROM %s WHERE %s = NEW.%s; " +
+                                "INSERT INTO %s (%s) VALUES (%s); END IF; " +
+                                "RETURN NULL; END $$ LANGUAGE plpgsql",
+                        function, shadowTable, keyColumn, keyColumn, shadowTable, keyColumn, keyColumn,
+                        shadowTable, String.join(", ", columns), String.join(", ", values)),
+                String.format("CREATE TRIGGER %s AFTER INSERT OR UPDATE OR DELETE ON %s " +
+                        "FOR EACH ROW EXECUTE PROCEDURE %s()", unqualified(function), table, function));
+    }
+
+    @Override
+    public List<String> dropTriggers(String table, String shadowTable) {
+        String function = trigger(shadowTable);
+        return Arrays.asList(
+                String.format("DROP TRIGGER IF EXISTS %s ON %s", unqualified(function), table),
+                String.format("DROP FUNCTION IF EXISTS %s()", function));
+    }
+
+    @Override
+    public List<String> swapTables(String table, String shadowTable, String oldTable) {
+        return Arrays.asList(
+                String.format("LOCK TABLE %s IN ACCESS EXCLUSIVE MODE", table),
+                String.format("ALTER TABLE %s RENAME TO %s", table, unqualified(oldTable)),
+                String.format("ALTER TABLE %s RENAME TO %s", shadowTable, unqualified(table)));
+    }
+
+    /**
+     * @return the name without its schema, as triggers and the target of {@code RENAME TO} take no schema
+     */
+    private static String unqualified(String table) {
+        return table.substring(table.lastIndexOf('.') + 1);
+    }
+
+    private static String trigger(String shadowTable) {
+        return shadowTable + "_sync";
+    }
+}
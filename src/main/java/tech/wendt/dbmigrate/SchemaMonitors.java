@@ -0,0 +1,21 @@
+package tech.wendt.dbmigrate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Monitors that let only one thread of the process at a time create or alter the tables of the migrator in a
+ * database, as H2 does not isolate concurrent statements creating the same table. Databases with different URLs
+ * are set up concurrently.
+ */
+final class SchemaMonitors {
+
+    private static final ConcurrentMap<String, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private SchemaMonitors() {
+    }
+
+    static Object of(String databaseUrl) {
+        return MONITORS.computeIfAbsent(databaseUrl, url -> new Object());
+    }
+}
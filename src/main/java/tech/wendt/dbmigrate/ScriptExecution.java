@@ -0,0 +1,38 @@
+package tech.wendt.dbmigrate;
+
+/**
+ * The outcome of executing a script, recorded in the history.
+ */
+class ScriptExecution {
+
+    private final int statementCount;
+    private final long checksum;
+    private final long elapsedNanos;
+    private final boolean transactional;
+
+    ScriptExecution(int statementCount, long checksum, long elapsedNanos, boolean transactional) {
+        this.statementCount = statementCount;
+        this.checksum = checksum;
+        this.elapsedNanos = elapsedNanos;
+        this.transactional = transactional;
+    }
+
+    int getStatementCount() {
+        return statementCount;
+    }
+
+    long getChecksum() {
+        return checksum;
+    }
+
+    long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return whether the script was committed at once, {@code false} if it was committed in parts
+     */
+    boolean isTransactional() {
+        return transactional;
+    }
+}
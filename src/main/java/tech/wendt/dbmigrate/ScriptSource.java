@@ -0,0 +1,32 @@
+package tech.wendt.dbmigrate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Supplies the content of a migration script. Every call to {@link #open()} starts reading the script from its
+ * beginning, so that scripts can be executed without holding them in memory.
+ */
+@FunctionalInterface
+public interface ScriptSource {
+
+    Reader open() throws IOException;
+
+    /**
+     * @return the CRC32 of the UTF-8 encoded script, as recorded in the history when the script is executed
+     */
+    default long checksum() throws IOException {
+        try (ChecksumReader reader = new ChecksumReader(open())) {
+            char[] buffer = new char[8192];
+            while (reader.read(buffer, 0, buffer.length) != -1) {
+                // only read for the checksum
+            }
+            return reader.getChecksum();
+        }
+    }
+
+    static ScriptSource of(String sql) {
+        return () -> new StringReader(sql);
+    }
+}
@@ -0,0 +1,381 @@
+package tech.wendt.dbmigrate;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Splits a SQL script into single statements while reading it.
+ * <p>
+ * Only one statement is held in memory at a time. Semicolons inside string literals, quoted identifiers,
+ * comments, dollar quoted bodies and {@code BEGIN ... END} blocks of routine definitions do not terminate
+ * a statement. Comments in front of a statement are dropped, comments inside of a statement are kept.
+ */
+public class SqlStatementReader implements StatementSource {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int RETAINED_STATEMENT_CAPACITY = 64 * 1024;
+    private static final int MAX_KEYWORD_LENGTH = 16;
+    private static final int HEADER_WORDS = 6;
+    private static final int NO_CHAR = -2;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private int pushedBack = NO_CHAR;
+
+    private StringBuilder statement = new StringBuilder();
+    private boolean hasContent;
+    private int lastSignificant;
+
+    private final char[] word = new char[MAX_KEYWORD_LENGTH];
+    private int wordLength;
+    private boolean inWord;
+    private boolean wordQualified;
+    private int wordCount;
+    private boolean createStatement;
+    private boolean blockAware;
+    private boolean pendingBegin;
+    private boolean pendingEnd;
+    private boolean skipNextBegin;
+    private int blockDepth;
+
+    private final StringBuilder dollarTag = new StringBuilder();
+
+    public SqlStatementReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    public SqlStatementReader(ReadableByteChannel channel, Charset charset) {
+        this(Channels.newReader(channel, charset.newDecoder(), -1));
+    }
+
+    @Override
+    public String nextStatement() throws IOException {
+        resetStatement();
+        int c;
+        while ((c = read()) != -1) {
+            if (isWordChar(c)) {
+                if (!inWord) {
+                    inWord = true;
+                    wordQualified = lastSignificant == '.';
+                    wordLength = 0;
+                }
+                if (wordLength < MAX_KEYWORD_LENGTH) {
+                    word[wordLength] = Character.toUpperCase((char) c);
+                }
+                wordLength++;
+                append(c);
+                continue;
+            }
+            finishWord();
+            switch (c) {
+                case ';':
+                    resolvePendingKeywords();
+                    if (blockDepth == 0) {
+                        if (hasContent) {
+                            return takeStatement();
+                        }
+                        resetStatement();
+                    } else {
+                        append(c);
+                    }
+                    break;
+                case '\'':
+                case '"':
+                case '`':
+                    append(c);
+                    readQuoted(c);
+                    break;
+                case '-':
+                    if (peek() == '-') {
+                        readLineComment(c);
+                    } else {
+                        append(c);
+                    }
+                    break;
+                case '/':
+                    if (peek() == '*') {
+                        readBlockComment(c);
+                    } else {
+                        append(c);
+                    }
+                    break;
+                case '$':
+                    append(c);
+                    if (!isWordChar(lastSignificantBefore())) {
+                        readDollarQuoted();
+                    }
+                    break;
+                default:
+                    append(c);
+                    break;
+            }
+        }
+        finishWord();
+        resolvePendingKeywords();
+        if (hasContent) {
+            return takeStatement();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readQuoted(int quote) throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            append(c);
+            if (c == quote) {
+                return;
+            }
+        }
+    }
+
+    private void readLineComment(int first) throws IOException {
+        int c = first;
+        do {
+            appendComment(c);
+        } while ((c = read()) != -1 && c != '\n');
+        if (c == '\n') {
+            appendComment(c);
+        }
+    }
+
+    private void readBlockComment(int first) throws IOException {
+        appendComment(first);
+        appendComment(read());
+        int previous = NO_CHAR;
+        int c;
+        while ((c = read()) != -1) {
+            appendComment(c);
+            if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    private void readDollarQuoted() throws IOException {
+        dollarTag.setLength(0);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '$') {
+                append(c);
+                readDollarBody();
+                return;
+            }
+            if (!isTagChar(c, dollarTag.length() == 0)) {
+                pushBack(c);
+                return;
+            }
+            dollarTag.append((char) c);
+            append(c);
+        }
+    }
+
+    private void readDollarBody() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            append(c);
+            if (c == '$' && readClosingTag()) {
+                return;
+            }
+        }
+    }
+
+    private boolean readClosingTag() throws IOException {
+        for (int i = 0; i < dollarTag.length(); i++) {
+            int c = read();
+            if (c == -1) {
+                return true;
+            }
+            if (c != dollarTag.charAt(i)) {
+                pushBack(c);
+                return false;
+            }
+            append(c);
+        }
+        int c = read();
+        if (c == '$') {
+            append(c);
+            return true;
+        }
+        if (c != -1) {
+            pushBack(c);
+        }
+        return c == -1;
+    }
+
+    private void finishWord() {
+        if (!inWord) {
+            return;
+        }
+        inWord = false;
+        if (wordQualified) {
+            return;
+        }
+        wordCount++;
+        if (pendingBegin) {
+            pendingBegin = false;
+            if (!(isWord("TRANSACTION") || isWord("WORK") || isWord("TRAN")
+                    || isWord("DEFERRED") || isWord("IMMEDIATE") || isWord("EXCLUSIVE"))) {
+                blockDepth++;
+            }
+        }
+        if (pendingEnd) {
+            pendingEnd = false;
+            if (!(isWord("IF") || isWord("LOOP") || isWord("WHILE") || isWord("REPEAT") || isWord("FOR"))) {
+                closeBlock();
+            }
+            return;
+        }
+        if (wordCount == 1) {
+            createStatement = isWord("CREATE");
+            if (isWord("DECLARE")) {
+                blockAware = true;
+                skipNextBegin = true;
+                blockDepth++;
+                return;
+            }
+            blockAware = isWord("BEGIN");
+        } else if (createStatement && !blockAware && wordCount <= HEADER_WORDS) {
+            blockAware = isWord("FUNCTION") || isWord("PROCEDURE") || isWord("TRIGGER")
+                    || isWord("PACKAGE") || isWord("EVENT");
+        }
+        if (!blockAware) {
+            return;
+        }
+        if (isWord("BEGIN")) {
+            if (skipNextBegin) {
+                skipNextBegin = false;
+            } else {
+                pendingBegin = true;
+            }
+        } else if (isWord("CASE")) {
+            blockDepth++;
+        } else if (isWord("END")) {
+            pendingEnd = true;
+        }
+    }
+
+    private void resolvePendingKeywords() {
+        pendingBegin = false;
+        if (pendingEnd) {
+            pendingEnd = false;
+            closeBlock();
+        }
+    }
+
+    private void closeBlock() {
+        if (blockDepth > 0) {
+            blockDepth--;
+        }
+    }
+
+    private boolean isWord(String keyword) {
+        if (wordLength != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (word[i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(int c) {
+        if (c == -1) {
+            return;
+        }
+        if (!hasContent) {
+            if (Character.isWhitespace(c)) {
+                return;
+            }
+            hasContent = true;
+        }
+        statement.append((char) c);
+        if (!Character.isWhitespace(c)) {
+            lastSignificant = c;
+        }
+    }
+
+    private void appendComment(int c) {
+        if (hasContent && c != -1) {
+            statement.append((char) c);
+        }
+    }
+
+    private int lastSignificantBefore() {
+        int length = statement.length();
+        return length > 1 ? statement.charAt(length - 2) : ' ';
+    }
+
+    private String takeStatement() {
+        int end = statement.length();
+        while (end > 0 && Character.isWhitespace(statement.charAt(end - 1))) {
+            end--;
+        }
+        String result = statement.substring(0, end);
+        if (statement.capacity() > RETAINED_STATEMENT_CAPACITY) {
+            statement = new StringBuilder();
+        }
+        return result;
+    }
+
+    private void resetStatement() {
+        statement.setLength(0);
+        hasContent = false;
+        lastSignificant = ' ';
+        inWord = false;
+        wordCount = 0;
+        createStatement = false;
+        blockAware = false;
+        pendingBegin = false;
+        pendingEnd = false;
+        skipNextBegin = false;
+        blockDepth = 0;
+    }
+
+    private int peek() throws IOException {
+        int c = read();
+        pushBack(c);
+        return c;
+    }
+
+    private void pushBack(int c) {
+        pushedBack = c;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != NO_CHAR) {
+            int c = pushedBack;
+            pushedBack = NO_CHAR;
+            return c;
+        }
+        if (position == limit) {
+            limit = reader.read(buffer, 0, BUFFER_SIZE);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private static boolean isWordChar(int c) {
+        return c >= 0 && (Character.isLetterOrDigit(c) || c == '_');
+    }
+
+    private static boolean isTagChar(int c, boolean first) {
+        return Character.isLetter(c) || c == '_' || (!first && Character.isDigit(c));
+    }
+}
@@ -0,0 +1,31 @@
+package tech.wendt.dbmigrate;
+
+import java.sql.SQLException;
+
+public class StatementExecutionException extends SQLException {
+
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_STATEMENT_LENGTH = 200;
+
+    private final int statementIndex;
+
+    public StatementExecutionException(int statementIndex, String statement, SQLException cause) {
+        super(String.format("Could not execute statement at index %s: %s", statementIndex, abbreviate(statement)),
+                cause.getSQLState(), cause.getErrorCode(), cause);
+        this.statementIndex = statementIndex;
+    }
+
+    /**
+     * @return the zero based position of the failed statement within its script
+     */
+    public int getStatementIndex() {
+        return statementIndex;
+    }
+
+    private static String abbreviate(String statement) {
+        if (statement.length() <= MAX_STATEMENT_LENGTH) {
+            return statement;
+        }
+        return statement.substring(0, MAX_STATEMENT_LENGTH).concat("...");
+    }
+}
@@ -0,0 +1,212 @@
+package tech.wendt.dbmigrate;
+
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+class StatementExecutor {
+
+    private static final String[] BATCHABLE_KEYWORDS = {"INSERT", "UPDATE", "DELETE", "MERGE", "REPLACE", "UPSERT"};
+    private static final String RESULT_KEYWORD = "RETURNING";
+
+    private final int batchSize;
+
+    StatementExecutor(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Executes all statements of the script on the given connection.
+     *
+     * @return the number of executed statements
+     */
+    int execute(Connection connection, StatementSource statements) throws SQLException, IOException {
+        return execute(connection, statements, null, MigrationListener.NONE);
+    }
+
+    /**
+     * Executes all statements of the script on the given connection and reports their timings to the listener.
+     *
+     * @return the number of executed statements
+     */
+    int execute(Connection connection, StatementSource statements, MigrationInfo migration,
+                MigrationListener listener) throws SQLException, IOException {
+        try (Statement jdbcStatement = connection.createStatement()) {
+            Execution execution = new Execution(jdbcStatement, migration, listener);
+            if (batchSize > 0) {
+                return executeBatched(execution, statements);
+            }
+            int index = 0;
+            String sql;
+            while ((sql = statements.nextStatement()) != null) {
+                execution.executeSingle(index, sql);
+                index++;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Executes the remaining statements of the script one by one without batching and calls the callback after each
+     * of them, so that the caller can commit in between.
+     *
+     * @param firstIndex the index in the script of the next statement of the reader
+     * @return the index after the last executed statement
+     */
+    int executeEach(Connection connection, StatementSource statements, int firstIndex, MigrationInfo migration,
+                    MigrationListener listener, StatementCallback callback) throws SQLException, IOException {
+        try (Statement jdbcStatement = connection.createStatement()) {
+            Execution execution = new Execution(jdbcStatement, migration, listener);
+            int index = firstIndex;
+            String sql;
+            while ((sql = statements.nextStatement()) != null) {
+                execution.executeSingle(index, sql);
+                index++;
+                callback.executed(index, sql);
+            }
+            return index;
+        }
+    }
+
+    interface StatementCallback {
+        /**
+         * @param executedCount the number of statements of the script executed so far
+         */
+        void executed(int executedCount, String sql) throws SQLException;
+    }
+
+    private int executeBatched(Execution execution, StatementSource statements)
+            throws SQLException, IOException {
+        List<String> batch = new ArrayList<>(batchSize);
+        int batchStart = 0;
+        int index = 0;
+        String sql;
+        while ((sql = statements.nextStatement()) != null) {
+            if (isBatchable(sql)) {
+                if (batch.isEmpty()) {
+                    batchStart = index;
+                }
+                try {
+                    execution.jdbcStatement.addBatch(sql);
+                } catch (SQLException e) {
+                    throw new StatementExecutionException(index, sql, e);
+                }
+                batch.add(sql);
+                if (batch.size() == batchSize) {
+                    execution.executeBatch(batch, batchStart);
+                }
+            } else {
+                execution.executeBatch(batch, batchStart);
+                execution.executeSingle(index, sql);
+            }
+            index++;
+        }
+        execution.executeBatch(batch, batchStart);
+        return index;
+    }
+
+    /**
+     * Executes the statements of one script and reports them to the listener, measuring time only if a listener
+     * is configured.
+     */
+    private static final class Execution {
+        private final Statement jdbcStatement;
+        private final MigrationInfo migration;
+        private final MigrationListener listener;
+        private final boolean timed;
+
+        private Execution(Statement jdbcStatement, MigrationInfo migration, MigrationListener listener) {
+            this.jdbcStatement = jdbcStatement;
+            this.migration = migration;
+            this.listener = listener;
+            this.timed = listener != MigrationListener.NONE;
+        }
+
+        private void executeSingle(int index, String sql) throws SQLException {
+            long start = timed ? System.nanoTime() : 0;
+            boolean result;
+            try {
+                result = jdbcStatement.execute(sql);
+            } catch (SQLException e) {
+                throw new StatementExecutionException(index, sql, e);
+            }
+            if (timed) {
+                long nanos = System.nanoTime() - start;
+                listener.statementExecuted(migration, index, sql, nanos, result ? -1 : jdbcStatement.getUpdateCount());
+            }
+        }
+
+        private void executeBatch(List<String> batch, int batchStart) throws SQLException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            long start = timed ? System.nanoTime() : 0;
+            int[] updateCounts;
+            try {
+                updateCounts = jdbcStatement.executeBatch();
+            } catch (BatchUpdateException e) {
+                int failed = failedBatchOffset(e.getUpdateCounts(), batch.size());
+                String failedStatement = batch.get(failed);
+                batch.clear();
+                throw new StatementExecutionException(batchStart + failed, failedStatement, e);
+            } catch (SQLException e) {
+                String first = batch.get(0);
+                batch.clear();
+                throw new StatementExecutionException(batchStart, first, e);
+            }
+            if (timed) {
+                long nanos = System.nanoTime() - start;
+                int rowCount = 0;
+                for (int updateCount : updateCounts) {
+                    if (updateCount > 0) {
+                        rowCount += updateCount;
+                    }
+                }
+                listener.batchExecuted(migration, batchStart, batch.size(), nanos, rowCount);
+            }
+            batch.clear();
+        }
+    }
+
+    private static int failedBatchOffset(int[] updateCounts, int batchLength) {
+        if (updateCounts == null) {
+            return 0;
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return updateCounts.length < batchLength ? updateCounts.length : 0;
+    }
+
+    static boolean isBatchable(String sql) {
+        boolean dml = false;
+        for (String keyword : BATCHABLE_KEYWORDS) {
+            if (startsWithKeyword(sql, keyword)) {
+                dml = true;
+                break;
+            }
+        }
+        return dml && !containsKeyword(sql, RESULT_KEYWORD);
+    }
+
+    private static boolean startsWithKeyword(String sql, String keyword) {
+        return sql.regionMatches(true, 0, keyword, 0, keyword.length())
+                && (sql.length() == keyword.length() || !Character.isLetterOrDigit(sql.charAt(keyword.length())));
+    }
+
+    private static boolean containsKeyword(String sql, String keyword) {
+        int last = sql.length() - keyword.length();
+        for (int i = 0; i <= last; i++) {
+            if (sql.regionMatches(true, i, keyword, 0, keyword.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
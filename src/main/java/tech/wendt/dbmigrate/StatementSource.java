@@ -0,0 +1,15 @@
+package tech.wendt.dbmigrate;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Supplies the statements of a script one after another.
+ */
+public interface StatementSource extends Closeable {
+
+    /**
+     * @return the next statement without its terminating semicolon, or {@code null} if the script is exhausted
+     */
+    String nextStatement() throws IOException;
+}
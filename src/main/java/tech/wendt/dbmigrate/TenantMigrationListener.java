@@ -0,0 +1,20 @@
+package tech.wendt.dbmigrate;
+
+/**
+ * Receives the progress of a {@link MultiTenantMigrator}. Methods are called from the worker threads, so
+ * implementations have to be thread safe.
+ */
+public interface TenantMigrationListener {
+
+    TenantMigrationListener NONE = new TenantMigrationListener() {
+    };
+
+    default void started(String tenant) {
+    }
+
+    default void succeeded(String tenant, long elapsedMillis) {
+    }
+
+    default void failed(String tenant, long elapsedMillis, MigrationException exception) {
+    }
+}
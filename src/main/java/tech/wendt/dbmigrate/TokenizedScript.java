@@ -0,0 +1,14 @@
+package tech.wendt.dbmigrate;
+
+import java.io.IOException;
+
+/**
+ * A script that was split into statements in advance, so that it is executed without being split again.
+ * <p>
+ * {@link #open()} may return an equivalent script instead of the original text, for example without the comments
+ * between statements. {@link #checksum()} always returns the checksum of the original script.
+ */
+public interface TokenizedScript extends ScriptSource {
+
+    StatementSource openStatements() throws IOException;
+}
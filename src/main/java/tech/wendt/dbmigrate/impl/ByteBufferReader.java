@@ -0,0 +1,72 @@
+package tech.wendt.dbmigrate.impl;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Decodes a byte buffer, usually a memory mapped file, in small chunks, so that only the mapping but never the
+ * whole decoded text has to be held in memory.
+ */
+class ByteBufferReader extends Reader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private boolean flushing;
+    private boolean endOfInput;
+
+    ByteBufferReader(ByteBuffer bytes, CharsetDecoder decoder) {
+        this.bytes = bytes;
+        this.decoder = decoder;
+        ((Buffer) chars).flip();
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!chars.hasRemaining()) {
+            if (endOfInput) {
+                return -1;
+            }
+            fill();
+            if (!chars.hasRemaining()) {
+                return -1;
+            }
+        }
+        int read = Math.min(length, chars.remaining());
+        chars.get(buffer, offset, read);
+        return read;
+    }
+
+    private void fill() throws CharacterCodingException {
+        ((Buffer) chars).clear();
+        if (!flushing) {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            flushing = result.isUnderflow();
+        }
+        if (flushing && decoder.flush(chars).isUnderflow()) {
+            endOfInput = true;
+        }
+        ((Buffer) chars).flip();
+    }
+
+    @Override
+    public void close() {
+        endOfInput = true;
+        ((Buffer) chars).clear();
+        ((Buffer) chars).flip();
+    }
+}
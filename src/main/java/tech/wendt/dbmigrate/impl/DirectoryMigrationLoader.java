@@ -0,0 +1,439 @@
+package tech.wendt.dbmigrate.impl;
+
+import tech.wendt.dbmigrate.Migration;
+import tech.wendt.dbmigrate.MigrationLoader;
+import tech.wendt.dbmigrate.ScriptSource;
+import tech.wendt.dbmigrate.SqlStatementReader;
+import tech.wendt.dbmigrate.StatementSource;
+import tech.wendt.dbmigrate.TokenizedScript;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loads migrations from a directory of the file system and keeps them current while the directory changes.
+ * <p>
+ * All scripts are read and split into statements once when the loader is created. A watcher thread re-reads only
+ * the files that were created, modified or deleted afterwards, so {@link #loadMigrations()} returns the current
+ * migrations without touching the file system. Listeners are told about migrations that appeared or changed, for
+ * example to migrate right away:
+ * <pre>{@code
+ * loader.addListener((changed, removed) -> migrator.migrateAll());
+ * }</pre>
+ * The scripts follow the naming of {@link ResourceMigrationLoader}. Unlike there, an empty directory has no
+ * migrations instead of being an error, and empty scripts are skipped until they are written.
+ */
+public class DirectoryMigrationLoader implements MigrationLoader, Closeable {
+
+    private final Path directory;
+    private final Charset charset;
+    private final WatchService watchService;
+    private final Thread watcher;
+    private final Map<Path, ParsedScript> scripts = new HashMap<>();
+    private final Map<Path, String> readErrors = new TreeMap<>();
+    private final List<ChangeListener> listeners = new ArrayList<>();
+    private volatile Map<String, Migration> migrations = Collections.emptyMap();
+    private volatile List<Migration> sortedMigrations = Collections.emptyList();
+    private volatile String error;
+    private String watchError;
+    private Path watchErrorRoot;
+
+    public DirectoryMigrationLoader(Path directory) throws IOException {
+        this(directory, StandardCharsets.UTF_8);
+    }
+
+    public DirectoryMigrationLoader(Path directory, Charset charset) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        this.charset = Objects.requireNonNull(charset);
+        if (!Files.isDirectory(directory)) {
+            throw new IOException(String.format("Migration directory %s does not exist", directory));
+        }
+        this.watchService = directory.getFileSystem().newWatchService();
+        try {
+            synchronized (this) {
+                update(register(directory));
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        this.watcher = new Thread(this::watch, "dbmigrate-watcher-" + directory.getFileName());
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Tells the listener about every later change of the migrations. It is called on the watcher thread.
+     */
+    public void addListener(ChangeListener listener) {
+        synchronized (listeners) {
+            listeners.add(Objects.requireNonNull(listener));
+        }
+    }
+
+    public void removeListener(ChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * @return the migrations as of the last change that was seen, without reading any file
+     * @throws IOException if a script is misnamed, cannot be read or is a down script without up script
+     */
+    @Override
+    public List<Migration> loadMigrations() throws IOException {
+        String error = this.error;
+        if (error != null) {
+            throw new IOException(error);
+        }
+        return new ArrayList<>(sortedMigrations);
+    }
+
+    /**
+     * Stops watching the directory. The migrations loaded last stay available.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+        watcher.interrupt();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> touched = new LinkedHashSet<>();
+                do {
+                    collect(key, touched);
+                    key = watchService.poll();
+                } while (key != null);
+                Changes changes;
+                synchronized (this) {
+                    changes = update(touched);
+                }
+                if (!changes.isEmpty()) {
+                    notifyListeners(changes);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Adds the files the events of the key are about. New directories are registered and listed, as their files
+     * may have been created before they were watched. All files are read again if events were lost.
+     */
+    private void collect(WatchKey key, Set<Path> touched) {
+        Path watched = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                synchronized (this) {
+                    touched.addAll(scripts.keySet());
+                    touched.addAll(readErrors.keySet());
+                }
+                registerAll(directory, touched);
+                continue;
+            }
+            Path file = watched.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file)) {
+                registerAll(file, touched);
+            } else {
+                touched.add(file);
+            }
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                Stream.concat(scripts.keySet().stream(), readErrors.keySet().stream())
+                        .filter(file -> file.startsWith(watched)).forEach(touched::add);
+            }
+        }
+    }
+
+    /**
+     * Registers the directory and adds its scripts. A failure is reported by {@link #loadMigrations()} until the
+     * directory or one above it is registered successfully.
+     */
+    private void registerAll(Path root, Set<Path> touched) {
+        try {
+            touched.addAll(register(root));
+            synchronized (this) {
+                if (watchErrorRoot != null && watchErrorRoot.startsWith(root)) {
+                    watchError = null;
+                    watchErrorRoot = null;
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                watchError = String.format("Could not watch migration directory %s: %s", root, e);
+                watchErrorRoot = root;
+            }
+        }
+    }
+
+    /**
+     * Watches the directory and all directories below it.
+     *
+     * @return the scripts found in them
+     */
+    private List<Path> register(Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                } else if (isScript(path)) {
+                    files.add(path);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reads the touched scripts again and rebuilds the migrations from the scripts that are known. Scripts whose
+     * content did not change keep their instance, so that their migrations are not reported as changed. A script
+     * that could not be read is reported by {@link #loadMigrations()} until it is read successfully or deleted.
+     */
+    private Changes update(Iterable<Path> touched) {
+        for (Path file : touched) {
+            if (!isScript(file)) {
+                continue;
+            }
+            try {
+                ParsedScript script = Files.isRegularFile(file) ? ParsedScript.read(file, charset) : null;
+                if (script == null) {
+                    scripts.remove(file);
+                } else if (!script.equals(scripts.get(file))) {
+                    scripts.put(file, script);
+                }
+                readErrors.remove(file);
+            } catch (NoSuchFileException e) {
+                scripts.remove(file);
+                readErrors.remove(file);
+            } catch (IOException e) {
+                scripts.remove(file);
+                readErrors.put(file, String.format("Could not read migration script %s: %s", file, e));
+            }
+        }
+        Map<String, Migration> previous = migrations;
+        Map<String, Migration> current = new HashMap<>();
+        String buildError = null;
+        try {
+            current = buildMigrations();
+        } catch (IOException e) {
+            buildError = e.getMessage();
+        }
+        if (!readErrors.isEmpty()) {
+            error = readErrors.values().iterator().next();
+        } else {
+            error = buildError != null ? buildError : watchError;
+        }
+        Changes changes = new Changes();
+        for (Map.Entry<String, Migration> entry : current.entrySet()) {
+            Migration before = previous.get(entry.getKey());
+            Migration after = entry.getValue();
+            if (before != null && before.getUpScript() == after.getUpScript()
+                    && before.getDownScript() == after.getDownScript()) {
+                entry.setValue(before);
+            } else {
+                changes.changed.add(after);
+            }
+        }
+        for (Map.Entry<String, Migration> entry : previous.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                changes.removed.add(entry.getValue());
+            }
+        }
+        List<Migration> sorted = new ArrayList<>(current.values());
+        sorted.sort(Comparator.comparingInt(Migration::getOrder));
+        changes.changed.sort(Comparator.comparingInt(Migration::getOrder));
+        migrations = current;
+        sortedMigrations = sorted;
+        return changes;
+    }
+
+    private Map<String, Migration> buildMigrations() throws IOException {
+        Map<String, Path> ups = new HashMap<>();
+        Map<String, Path> downs = new HashMap<>();
+        for (Path file : scripts.keySet()) {
+            String fileName = file.getFileName().toString();
+            if (!ResourceMigrationLoader.FILEPATTERN.matcher(fileName).matches()) {
+                throw new IOException(String.format("migration file %s does not match regex %s",
+                        fileName, ResourceMigrationLoader.FILEPATTERN_REGEX));
+            }
+            boolean up = fileName.endsWith(ResourceMigrationLoader.FILEPATTERN_UP);
+            Map<String, Path> stems = up ? ups : downs;
+            Path other = stems.put(stem(fileName, up ? ResourceMigrationLoader.FILEPATTERN_UP
+                    : ResourceMigrationLoader.FILEPATTERN_DOWN), file);
+            if (other != null) {
+                Path first = other.compareTo(file) < 0 ? other : file;
+                Path second = first == file ? other : file;
+                throw new IOException(String.format("Migration script %s exists twice: %s and %s",
+                        fileName, directory.relativize(first), directory.relativize(second)));
+            }
+        }
+        Set<String> orphans = new HashSet<>(downs.keySet());
+        orphans.removeAll(ups.keySet());
+        if (!orphans.isEmpty()) {
+            throw new IOException("Down script without matching up script found: "
+                    + orphans.stream().sorted().collect(Collectors.joining(", ")));
+        }
+        Map<String, Migration> result = new HashMap<>();
+        for (Map.Entry<String, Path> up : ups.entrySet()) {
+            String[] migrationNameArray = up.getKey().split("__");
+            Path down = downs.get(up.getKey());
+            result.put(up.getKey(), new Migration(migrationNameArray[1], Integer.parseInt(migrationNameArray[0]),
+                    scripts.get(up.getValue()), down != null ? scripts.get(down) : null));
+        }
+        return result;
+    }
+
+    private void notifyListeners(Changes changes) {
+        List<ChangeListener> current;
+        synchronized (listeners) {
+            current = new ArrayList<>(listeners);
+        }
+        for (ChangeListener listener : current) {
+            try {
+                listener.migrationsChanged(Collections.unmodifiableList(changes.changed),
+                        Collections.unmodifiableList(changes.removed));
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    private static boolean isScript(Path file) {
+        String fileName = file.getFileName() != null ? file.getFileName().toString() : "";
+        return fileName.endsWith(ResourceMigrationLoader.FILEPATTERN_UP)
+                || fileName.endsWith(ResourceMigrationLoader.FILEPATTERN_DOWN);
+    }
+
+    private static String stem(String fileName, String suffix) {
+        return fileName.substring(0, fileName.length() - suffix.length());
+    }
+
+    /**
+     * Receives the migrations that changed on disk.
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+
+        /**
+         * @param changed the migrations that were added or whose up or down script changed, by order
+         * @param removed the migrations whose up script was deleted
+         */
+        void migrationsChanged(List<Migration> changed, List<Migration> removed);
+    }
+
+    private static final class Changes {
+        private final List<Migration> changed = new ArrayList<>();
+        private final List<Migration> removed = new ArrayList<>();
+
+        private boolean isEmpty() {
+            return changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * A script held in memory together with its statements, so that it is split only when its file changes.
+     */
+    private static final class ParsedScript implements TokenizedScript {
+        private final String content;
+        private final List<String> statements;
+        private final long checksum;
+
+        private ParsedScript(String content, List<String> statements, long checksum) {
+            this.content = content;
+            this.statements = statements;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return the script, or {@code null} if the file is empty, as it is usually still being written
+         */
+        static ParsedScript read(Path file, Charset charset) throws IOException {
+            String content = new String(Files.readAllBytes(file), charset);
+            if (content.startsWith(ResourceMigrationLoader.BYTE_ORDER_MARK)) {
+                content = content.substring(ResourceMigrationLoader.BYTE_ORDER_MARK.length());
+            }
+            if (content.isEmpty()) {
+                return null;
+            }
+            List<String> statements = new ArrayList<>();
+            try (SqlStatementReader reader = new SqlStatementReader(new StringReader(content))) {
+                String statement;
+                while ((statement = reader.nextStatement()) != null) {
+                    statements.add(statement);
+                }
+            }
+            return new ParsedScript(content, statements, ScriptSource.of(content).checksum());
+        }
+
+        @Override
+        public Reader open() {
+            return new StringReader(content);
+        }
+
+        @Override
+        public long checksum() {
+            return checksum;
+        }
+
+        @Override
+        public StatementSource openStatements() {
+            return new StatementSource() {
+                private int index;
+
+                @Override
+                public String nextStatement() {
+                    return index < statements.size() ? statements.get(index++) : null;
+                }
+
+                @Override
+                public void close() {
+                    index = statements.size();
+                }
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ParsedScript && content.equals(((ParsedScript) o).content);
+        }
+
+        @Override
+        public int hashCode() {
+            return content.hashCode();
+        }
+    }
+}
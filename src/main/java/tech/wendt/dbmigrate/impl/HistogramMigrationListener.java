@@ -0,0 +1,139 @@
+package tech.wendt.dbmigrate.impl;
+
+import tech.wendt.dbmigrate.MigrationInfo;
+import tech.wendt.dbmigrate.MigrationListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the timings of migration runs in memory.
+ */
+public class HistogramMigrationListener implements MigrationListener {
+
+    private final LatencyHistogram listing = new LatencyHistogram();
+    private final LatencyHistogram historyQueries = new LatencyHistogram();
+    private final LatencyHistogram planning = new LatencyHistogram();
+    private final LatencyHistogram scriptLoading = new LatencyHistogram();
+    private final LatencyHistogram connectionAcquisition = new LatencyHistogram();
+    private final LatencyHistogram migrations = new LatencyHistogram();
+    private final LatencyHistogram statements = new LatencyHistogram();
+    private final LatencyHistogram batches = new LatencyHistogram();
+    private final LatencyHistogram historyUpdates = new LatencyHistogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+
+    @Override
+    public void migrationsListed(int count, long nanos) {
+        listing.record(nanos);
+    }
+
+    @Override
+    public void historyQueried(int entries, long nanos) {
+        historyQueries.record(nanos);
+    }
+
+    @Override
+    public void migrationsPlanned(int planned, long nanos) {
+        planning.record(nanos);
+    }
+
+    @Override
+    public void scriptsLoaded(int count, long nanos) {
+        scriptLoading.record(nanos);
+    }
+
+    @Override
+    public void connectionAcquired(long nanos) {
+        connectionAcquisition.record(nanos);
+    }
+
+    @Override
+    public void statementExecuted(MigrationInfo migration, int index, String statement, long nanos, int rowCount) {
+        statements.record(nanos);
+        if (rowCount > 0) {
+            rows.addAndGet(rowCount);
+        }
+    }
+
+    @Override
+    public void batchExecuted(MigrationInfo migration, int firstIndex, int size, long nanos, int rowCount) {
+        batches.record(nanos);
+        rows.addAndGet(rowCount);
+    }
+
+    @Override
+    public void migrationFinished(MigrationInfo migration, boolean rollback, long nanos, int statementCount) {
+        migrations.record(nanos);
+    }
+
+    @Override
+    public void migrationFailed(MigrationInfo migration, boolean rollback, long nanos, Exception failure) {
+        failures.incrementAndGet();
+    }
+
+    @Override
+    public void historyUpdated(MigrationInfo migration, long nanos) {
+        historyUpdates.record(nanos);
+    }
+
+    public LatencyHistogram getListing() {
+        return listing;
+    }
+
+    public LatencyHistogram getHistoryQueries() {
+        return historyQueries;
+    }
+
+    public LatencyHistogram getPlanning() {
+        return planning;
+    }
+
+    public LatencyHistogram getScriptLoading() {
+        return scriptLoading;
+    }
+
+    public LatencyHistogram getConnectionAcquisition() {
+        return connectionAcquisition;
+    }
+
+    /**
+     * @return the durations of successfully executed scripts
+     */
+    public LatencyHistogram getMigrations() {
+        return migrations;
+    }
+
+    /**
+     * @return the durations of statements executed on their own
+     */
+    public LatencyHistogram getStatements() {
+        return statements;
+    }
+
+    public LatencyHistogram getBatches() {
+        return batches;
+    }
+
+    public LatencyHistogram getHistoryUpdates() {
+        return historyUpdates;
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the number of rows affected by all statements that reported a row count
+     */
+    public long getRows() {
+        return rows.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("listing[%s] historyQueries[%s] planning[%s] scriptLoading[%s] " +
+                        "connectionAcquisition[%s] migrations[%s] statements[%s] batches[%s] historyUpdates[%s] " +
+                        "failures=%s rows=%s", listing, historyQueries, planning, scriptLoading,
+                connectionAcquisition, migrations, statements, batches, historyUpdates, failures, rows);
+    }
+}
@@ -0,0 +1,109 @@
+package tech.wendt.dbmigrate.impl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares the file systems of jars between all loaders of the process.
+ * <p>
+ * A jar is opened once and closed when the last loader using it releases it. File systems that were opened outside
+ * of this registry are used but never closed. Directory listings are cached with the file system they were scanned
+ * on, as jars do not change while they are open and the listed paths are only valid as long as it is open.
+ */
+final class JarFileSystems {
+
+    private static final Map<URI, JarFileSystem> OPEN = new HashMap<>();
+
+    private JarFileSystems() {
+    }
+
+    /**
+     * Opens the file system of the jar or takes another reference to it. Every call has to be matched by a call of
+     * {@link JarFileSystem#release()}.
+     */
+    static JarFileSystem acquire(URI jarUri) throws IOException {
+        synchronized (OPEN) {
+            JarFileSystem jar = OPEN.get(jarUri);
+            if (jar == null) {
+                FileSystem fileSystem;
+                boolean owned = true;
+                try {
+                    fileSystem = FileSystems.newFileSystem(jarUri, Collections.emptyMap());
+                } catch (FileSystemAlreadyExistsException e) {
+                    fileSystem = FileSystems.getFileSystem(jarUri);
+                    owned = false;
+                }
+                jar = new JarFileSystem(jarUri, fileSystem, owned);
+                OPEN.put(jarUri, jar);
+            }
+            jar.references++;
+            return jar;
+        }
+    }
+
+    static final class JarFileSystem {
+
+        private final URI uri;
+        private final FileSystem fileSystem;
+        private final boolean owned;
+        private final ConcurrentMap<String, List<ResourceMigrationInfo>> listings = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, String> contentHashes = new ConcurrentHashMap<>();
+        private int references;
+
+        private JarFileSystem(URI uri, FileSystem fileSystem, boolean owned) {
+            this.uri = uri;
+            this.fileSystem = fileSystem;
+            this.owned = owned;
+        }
+
+        FileSystem getFileSystem() {
+            return fileSystem;
+        }
+
+        /**
+         * @return the cached listing of the directory, or {@code null} if it was not listed yet
+         */
+        List<ResourceMigrationInfo> getListing(String directory) {
+            return listings.get(directory);
+        }
+
+        void putListing(String directory, List<ResourceMigrationInfo> listing) {
+            listings.put(directory, Collections.unmodifiableList(listing));
+        }
+
+        /**
+         * @return the cached content hash for the key, or {@code null} if it was not computed yet
+         */
+        String getContentHash(String key) {
+            return contentHashes.get(key);
+        }
+
+        void putContentHash(String key, String hash) {
+            contentHashes.put(key, hash);
+        }
+
+        /**
+         * Closes the file system once no loader uses it anymore.
+         */
+        void release() throws IOException {
+            synchronized (OPEN) {
+                if (--references > 0) {
+                    return;
+                }
+                OPEN.remove(uri);
+                if (owned) {
+                    fileSystem.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package tech.wendt.dbmigrate.impl;
+
+import tech.wendt.dbmigrate.Migration;
+import tech.wendt.dbmigrate.MigrationInfo;
+import tech.wendt.dbmigrate.MigrationLoader;
+import tech.wendt.dbmigrate.ScriptSource;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Loads the migrations of one service from a catalog table that holds the migrations of many services.
+ * <p>
+ * The scripts are stored deflated together with the checksum of their UTF-8 text, in a table like this one (with
+ * {@code BYTEA} instead of {@code BLOB} on PostgreSQL):
+ * <pre>
+ * CREATE TABLE migration_catalog (
+ *     service VARCHAR(255) NOT NULL,
+ *     migration_order INT NOT NULL,
+ *     name VARCHAR(255) NOT NULL,
+ *     up_script BLOB NOT NULL,
+ *     up_checksum BIGINT NOT NULL,
+ *     down_script BLOB,
+ *     down_checksum BIGINT,
+ *     PRIMARY KEY (service, migration_order))
+ * </pre>
+ * Rows are written with {@link #store(DataSource, String, String, Migration)}. Listing the migrations only reads
+ * their names and checksums, so the scripts of applied migrations are never transferred. The scripts of pending
+ * migrations are fetched compressed and only inflated while they are executed, and must still match the listed
+ * names and checksums. With a cache directory, fetched scripts are kept on disk and used as long as they match the
+ * checksums of the catalog. A cache that cannot be read or written only means that the scripts are fetched again.
+ */
+public class JdbcMigrationLoader implements MigrationLoader {
+
+    private static final String CACHE_SUFFIX = ".sql.z";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int FETCH_BATCH_SIZE = 500;
+    private static final int MAX_DIRECTORY_NAME_LENGTH = 128;
+
+    private final DataSource dataSource;
+    private final String tableName;
+    private final String service;
+    private final Path cacheDirectory;
+
+    public JdbcMigrationLoader(DataSource dataSource, String tableName, String service) {
+        this(dataSource, tableName, service, null);
+    }
+
+    /**
+     * @param cacheDirectory the directory to keep fetched scripts in, or {@code null} to fetch the scripts of
+     *                       pending migrations every time they are loaded
+     */
+    public JdbcMigrationLoader(DataSource dataSource, String tableName, String service, Path cacheDirectory) {
+        this.dataSource = Objects.requireNonNull(dataSource);
+        this.tableName = Objects.requireNonNull(tableName);
+        this.service = Objects.requireNonNull(service);
+        this.cacheDirectory = cacheDirectory != null ? cacheDirectory.resolve(directoryName(service)) : null;
+    }
+
+    @Override
+    public List<Migration> loadMigrations() throws IOException {
+        return loadMigrations(loadMigrationInfos());
+    }
+
+    /**
+     * Reads the names and checksums of the migrations of the service, without their scripts.
+     */
+    @Override
+    public List<? extends MigrationInfo> loadMigrationInfos() throws IOException {
+        String sql = String.format("SELECT migration_order, name, up_checksum, down_checksum FROM %s "
+                + "WHERE service = ? ORDER BY migration_order", tableName);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, service);
+            List<CatalogMigrationInfo> result = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    long downChecksum = resultSet.getLong(4);
+                    boolean noDownScript = resultSet.wasNull();
+                    result.add(new CatalogMigrationInfo(resultSet.getString(2), resultSet.getInt(1),
+                            resultSet.getLong(3), noDownScript ? null : downChecksum));
+                }
+            }
+            return result;
+        } catch (SQLException e) {
+            throw new IOException(String.format("Could not list migrations of %s from %s", service, tableName), e);
+        }
+    }
+
+    /**
+     * Takes the scripts from the cache if they match the listed checksums and fetches the others in batches.
+     */
+    @Override
+    public List<Migration> loadMigrations(List<? extends MigrationInfo> migrations) throws IOException {
+        Map<Integer, Migration> loaded = new HashMap<>();
+        List<CatalogMigrationInfo> missing = new ArrayList<>();
+        for (MigrationInfo migration : migrations) {
+            if (!(migration instanceof CatalogMigrationInfo)) {
+                throw new IOException(String.format("Migration %s__%s was not listed by this loader",
+                        migration.getOrder(), migration.getName()));
+            }
+            CatalogMigrationInfo info = (CatalogMigrationInfo) migration;
+            Migration cached = readCached(info);
+            if (cached != null) {
+                loaded.put(info.getOrder(), cached);
+            } else {
+                missing.add(info);
+            }
+        }
+        if (!missing.isEmpty()) {
+            loaded.putAll(fetch(missing));
+        }
+        List<Migration> result = new ArrayList<>(migrations.size());
+        for (MigrationInfo migration : migrations) {
+            Migration loadedMigration = loaded.get(migration.getOrder());
+            if (loadedMigration == null) {
+                throw new IOException(String.format("Migration %s__%s does not exist",
+                        migration.getOrder(), migration.getName()));
+            }
+            result.add(loadedMigration);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the migration to the catalog, replacing the migration of the service with the same order.
+     */
+    public static void store(DataSource dataSource, String tableName, String service, Migration migration)
+            throws IOException {
+        byte[] upScript = deflate(migration.getUpScript());
+        byte[] downScript = migration.getDownScript() != null ? deflate(migration.getDownScript()) : null;
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement delete = connection.prepareStatement(String.format(
+                    "DELETE FROM %s WHERE service = ? AND migration_order = ?", tableName));
+                 PreparedStatement insert = connection.prepareStatement(String.format(
+                         "INSERT INTO %s (service, migration_order, name, up_script, up_checksum, down_script, "
+                                 + "down_checksum) VALUES (?, ?, ?, ?, ?, ?, ?)", tableName))) {
+                delete.setString(1, service);
+                delete.setInt(2, migration.getOrder());
+                delete.executeUpdate();
+                insert.setString(1, service);
+                insert.setInt(2, migration.getOrder());
+                insert.setString(3, migration.getName());
+                insert.setBytes(4, upScript);
+                insert.setLong(5, migration.getUpScript().checksum());
+                if (downScript != null) {
+                    insert.setBytes(6, downScript);
+                    insert.setLong(7, migration.getDownScript().checksum());
+                } else {
+                    insert.setNull(6, Types.VARBINARY);
+                    insert.setNull(7, Types.BIGINT);
+                }
+                insert.executeUpdate();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("Could not store migration %s__%s of %s in %s",
+                    migration.getOrder(), migration.getName(), service, tableName), e);
+        }
+    }
+
+    /**
+     * Fetches the scripts with one query per batch of migrations, to stay within the parameter limits of drivers.
+     */
+    private Map<Integer, Migration> fetch(List<CatalogMigrationInfo> migrations) throws IOException {
+        Map<Integer, Migration> result = new HashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            for (int start = 0; start < migrations.size(); start += FETCH_BATCH_SIZE) {
+                fetch(connection, migrations.subList(start, Math.min(start + FETCH_BATCH_SIZE, migrations.size())),
+                        result);
+            }
+        } catch (SQLException e) {
+            throw new IOException(String.format("Could not fetch migrations of %s from %s", service, tableName), e);
+        }
+        return result;
+    }
+
+    private void fetch(Connection connection, List<CatalogMigrationInfo> migrations, Map<Integer, Migration> result)
+            throws SQLException, IOException {
+        String sql = String.format("SELECT migration_order, name, up_script, up_checksum, down_script, down_checksum "
+                        + "FROM %s WHERE service = ? AND migration_order IN (%s)", tableName,
+                String.join(", ", Collections.nCopies(migrations.size(), "?")));
+        Map<Integer, CatalogMigrationInfo> listed = new HashMap<>();
+        for (CatalogMigrationInfo migration : migrations) {
+            listed.put(migration.getOrder(), migration);
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, service);
+            for (int i = 0; i < migrations.size(); i++) {
+                statement.setInt(i + 2, migrations.get(i).getOrder());
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int order = resultSet.getInt(1);
+                    String name = resultSet.getString(2);
+                    long upChecksum = resultSet.getLong(4);
+                    byte[] downBytes = resultSet.getBytes(5);
+                    Long downChecksum = downBytes != null ? resultSet.getLong(6) : null;
+                    CatalogMigrationInfo info = listed.get(order);
+                    if (!info.getName().equals(name) || info.getUpChecksum() != upChecksum
+                            || !Objects.equals(info.getDownChecksum(), downChecksum)) {
+                        throw new IOException(String.format("Migration %s__%s changed in the catalog since it was "
+                                + "listed", order, info.getName()));
+                    }
+                    DeflatedScript upScript = verify(new DeflatedScript(resultSet.getBytes(3)), upChecksum,
+                            order, name, "up");
+                    DeflatedScript downScript = downBytes != null
+                            ? verify(new DeflatedScript(downBytes), downChecksum, order, name, "down")
+                            : null;
+                    writeCached(order, "up", upScript);
+                    if (downScript != null) {
+                        writeCached(order, "down", downScript);
+                    }
+                    result.put(order, new Migration(name, order, upScript, downScript));
+                }
+            }
+        }
+    }
+
+    private static DeflatedScript verify(DeflatedScript script, long checksum, int order, String name,
+                                         String direction) throws IOException {
+        if (script.checksum() != checksum) {
+            throw new IOException(String.format("The %s script of migration %s__%s does not match its checksum",
+                    direction, order, name));
+        }
+        return script;
+    }
+
+    /**
+     * @return the migration from the cache, or {@code null} if a script is not cached or does not match the
+     * listed checksum
+     */
+    private Migration readCached(CatalogMigrationInfo migration) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        ScriptSource upScript = readCached(migration, "up", migration.getUpChecksum());
+        if (upScript == null) {
+            return null;
+        }
+        ScriptSource downScript = null;
+        if (migration.getDownChecksum() != null) {
+            downScript = readCached(migration, "down", migration.getDownChecksum());
+            if (downScript == null) {
+                return null;
+            }
+        }
+        return new Migration(migration.getName(), migration.getOrder(), upScript, downScript);
+    }
+
+    private ScriptSource readCached(CatalogMigrationInfo migration, String direction, long checksum) {
+        try {
+            DeflatedScript script = new DeflatedScript(Files.readAllBytes(cacheFile(migration.getOrder(), direction)));
+            return script.checksum() == checksum ? script : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the fetched script in the cache, if possible. A script that is not written is fetched again next time.
+     */
+    private void writeCached(int order, String direction, DeflatedScript script) {
+        if (cacheDirectory == null) {
+            return;
+        }
+        Path file = cacheFile(order, direction);
+        Path temp = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            temp = Files.createTempFile(cacheDirectory, file.getFileName().toString(), TEMP_SUFFIX);
+            Files.write(temp, script.bytes);
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // written by another process in the meantime
+        } catch (IOException e) {
+            // not cached
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    // left behind
+                }
+            }
+        }
+    }
+
+    /**
+     * The file is named by order only, as the name of a migration may contain any character and its checksum is
+     * compared whenever the file is read. A script that changed in the catalog replaces the file.
+     */
+    private Path cacheFile(int order, String direction) {
+        return cacheDirectory.resolve(String.format("%s_%s%s", order, direction, CACHE_SUFFIX));
+    }
+
+    /**
+     * @return the service with every character other than letters, digits, {@code _} and {@code -} percent-encoded,
+     * so that it cannot point outside of the cache directory. Long names are shortened and end with a hash of the
+     * service instead, to stay within the length limits of file names.
+     */
+    private static String directoryName(String service) {
+        byte[] bytes = service.getBytes(StandardCharsets.UTF_8);
+        StringBuilder escaped = new StringBuilder(bytes.length);
+        for (byte b : bytes) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-') {
+                escaped.append(c);
+            } else {
+                escaped.append(String.format("%%%02X", b & 0xFF));
+            }
+        }
+        if (escaped.length() <= MAX_DIRECTORY_NAME_LENGTH) {
+            return escaped.toString();
+        }
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        escaped.setLength(MAX_DIRECTORY_NAME_LENGTH - 2 * hash.length - 1);
+        escaped.append('_');
+        for (byte b : hash) {
+            escaped.append(String.format("%02x", b & 0xFF));
+        }
+        return escaped.toString();
+    }
+
+    private static byte[] deflate(ScriptSource script) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Reader reader = script.open();
+             Writer writer = new OutputStreamWriter(new DeflaterOutputStream(bytes), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A script held deflated in memory, which is inflated whenever it is opened.
+     */
+    private static final class DeflatedScript implements ScriptSource {
+        private final byte[] bytes;
+        private long checksum = -1;
+
+        private DeflatedScript(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public Reader open() {
+            InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes));
+            return new InputStreamReader(in, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public long checksum() throws IOException {
+            if (checksum == -1) {
+                checksum = ScriptSource.super.checksum();
+            }
+            return checksum;
+        }
+    }
+
+    private static final class CatalogMigrationInfo implements MigrationInfo {
+        private final String name;
+        private final int order;
+        private final long upChecksum;
+        private final Long downChecksum;
+
+        private CatalogMigrationInfo(String name, int order, long upChecksum, Long downChecksum) {
+            this.name = name;
+            this.order = order;
+            this.upChecksum = upChecksum;
+            this.downChecksum = downChecksum;
+        }
+
+        @Override
+        public int getOrder() {
+            return order;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        long getUpChecksum() {
+            return upChecksum;
+        }
+
+        Long getDownChecksum() {
+            return downChecksum;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package tech.wendt.dbmigrate.impl;
+
+import tech.wendt.dbmigrate.MigrationInfo;
+import tech.wendt.dbmigrate.MigrationListener;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes the timings of migration runs as {@code key=value} records to a {@link Logger}. Statements themselves
+ * are not logged, only their position in the script.
+ */
+public class LoggingMigrationListener implements MigrationListener {
+
+    private final Logger logger;
+    private final Level level;
+
+    public LoggingMigrationListener() {
+        this(Logger.getLogger("tech.wendt.dbmigrate.metrics"), Level.FINE);
+    }
+
+    public LoggingMigrationListener(Logger logger, Level level) {
+        this.logger = logger;
+        this.level = level;
+    }
+
+    @Override
+    public void migrationsListed(int count, long nanos) {
+        log("event=listed count=%s nanos=%s", count, nanos);
+    }
+
+    @Override
+    public void historyQueried(int entries, long nanos) {
+        log("event=history_queried entries=%s nanos=%s", entries, nanos);
+    }
+
+    @Override
+    public void migrationsPlanned(int planned, long nanos) {
+        log("event=planned count=%s nanos=%s", planned, nanos);
+    }
+
+    @Override
+    public void scriptsLoaded(int count, long nanos) {
+        log("event=scripts_loaded count=%s nanos=%s", count, nanos);
+    }
+
+    @Override
+    public void connectionAcquired(long nanos) {
+        log("event=connection_acquired nanos=%s", nanos);
+    }
+
+    @Override
+    public void migrationStarted(MigrationInfo migration, boolean rollback) {
+        log("event=migration_started migration=%s__%s rollback=%s", migration.getOrder(), migration.getName(),
+                rollback);
+    }
+
+    @Override
+    public void statementExecuted(MigrationInfo migration, int index, String statement, long nanos, int rowCount) {
+        log("event=statement migration=%s__%s index=%s nanos=%s rows=%s", migration.getOrder(), migration.getName(),
+                index, nanos, rowCount);
+    }
+
+    @Override
+    public void batchExecuted(MigrationInfo migration, int firstIndex, int size, long nanos, int rowCount) {
+        log("event=batch migration=%s__%s index=%s size=%s nanos=%s rows=%s", migration.getOrder(),
+                migration.getName(), firstIndex, size, nanos, rowCount);
+    }
+
+    @Override
+    public void migrationFinished(MigrationInfo migration, boolean rollback, long nanos, int statementCount) {
+        log("event=migration_finished migration=%s__%s rollback=%s nanos=%s statements=%s", migration.getOrder(),
+                migration.getName(), rollback, nanos, statementCount);
+    }
+
+    @Override
+    public void migrationFailed(MigrationInfo migration, boolean rollback, long nanos, Exception failure) {
+        log("event=migration_failed migration=%s__%s rollback=%s nanos=%s error=\"%s\"", migration.getOrder(),
+                migration.getName(), rollback, nanos, failure.getMessage());
+    }
+
+    @Override
+    public void historyUpdated(MigrationInfo migration, long nanos) {
+        log("event=history_updated migration=%s__%s nanos=%s", migration.getOrder(), migration.getName(), nanos);
+    }
+
+    private void log(String format, Object... arguments) {
+        if (logger.isLoggable(level)) {
+            logger.log(level, String.format(format, arguments));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package tech.wendt.dbmigrate.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * Binary index of a migration directory, so that the directory does not have to be listed at runtime.
+ * <p>
+ * The index stores order, name, relative file names, sizes and CRC32 checksums of all up and down scripts. The
+ * sizes and checksums are compared with the scripts when they are read, so that an index that was not regenerated
+ * after a script changed fails instead of running a different script than the one that was indexed.
+ */
+class MigrationIndex {
+
+    static final String FILE_NAME = "migrations.index";
+
+    private static final int MAGIC = 0x44424D49;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final List<Entry> entries;
+
+    private MigrationIndex(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    static MigrationIndex create(Path migrationPath, List<ResourceMigrationInfo> migrations) throws IOException {
+        List<Entry> entries = new ArrayList<>(migrations.size());
+        for (ResourceMigrationInfo migration : migrations) {
+            Path downPath = migration.getDownPath();
+            entries.add(new Entry(migration.getOrder(), migration.getName(),
+                    ScriptFile.of(migrationPath, migration.getUpPath()),
+                    downPath != null ? ScriptFile.of(migrationPath, downPath) : null));
+        }
+        return new MigrationIndex(entries);
+    }
+
+    static MigrationIndex read(Path indexPath) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(String.format("%s is not a migration index of version %s", indexPath, VERSION));
+            }
+            int count = input.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int order = input.readInt();
+                String name = input.readUTF();
+                ScriptFile up = ScriptFile.read(input);
+                ScriptFile down = input.readBoolean() ? ScriptFile.read(input) : null;
+                entries.add(new Entry(order, name, up, down));
+            }
+            return new MigrationIndex(entries);
+        }
+    }
+
+    void write(Path indexPath) throws IOException {
+        try (DataOutputStream output =
+                     new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            for (Entry entry : entries) {
+                output.writeInt(entry.order);
+                output.writeUTF(entry.name);
+                entry.up.write(output);
+                output.writeBoolean(entry.down != null);
+                if (entry.down != null) {
+                    entry.down.write(output);
+                }
+            }
+        }
+    }
+
+    List<ResourceMigrationInfo> toMigrationInfos(Path migrationPath) {
+        List<ResourceMigrationInfo> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            ScriptFile down = entry.down;
+            result.add(new ResourceMigrationInfo(entry.name, entry.order,
+                    migrationPath.resolve(entry.up.file), entry.up.size, entry.up.checksum,
+                    down != null ? migrationPath.resolve(down.file) : null,
+                    down != null ? down.size : -1, down != null ? down.checksum : -1));
+        }
+        return result;
+    }
+
+    /**
+     * Compares the indexed scripts with the scripts of the directory, which is cheap outside of jars.
+     *
+     * @throws IOException if scripts were added to or removed from the directory since the index was written
+     */
+    void verifyListing(Path migrationPath, List<Path> scripts) throws IOException {
+        Set<String> indexed = new HashSet<>();
+        for (Entry entry : entries) {
+            indexed.add(entry.up.file);
+            if (entry.down != null) {
+                indexed.add(entry.down.file);
+            }
+        }
+        Set<String> listed = new HashSet<>();
+        for (Path script : scripts) {
+            listed.add(relativeName(migrationPath, script));
+        }
+        if (!indexed.equals(listed)) {
+            Set<String> added = new TreeSet<>(listed);
+            added.removeAll(indexed);
+            Set<String> removed = new TreeSet<>(indexed);
+            removed.removeAll(listed);
+            throw new IOException(String.format("Migration index of %s is stale, regenerate it with %s. " +
+                            "Not indexed: %s, missing: %s", migrationPath,
+                    MigrationIndexGenerator.class.getSimpleName(), added, removed));
+        }
+    }
+
+    private static String relativeName(Path migrationPath, Path script) {
+        return migrationPath.relativize(script)
+                .toString()
+                .replace(script.getFileSystem().getSeparator(), "/");
+    }
+
+    private static class Entry {
+        private final int order;
+        private final String name;
+        private final ScriptFile up;
+        private final ScriptFile down;
+
+        private Entry(int order, String name, ScriptFile up, ScriptFile down) {
+            this.order = order;
+            this.name = name;
+            this.up = up;
+            this.down = down;
+        }
+    }
+
+    private static class ScriptFile {
+        private final String file;
+        private final long size;
+        private final long checksum;
+
+        private ScriptFile(String file, long size, long checksum) {
+            this.file = file;
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        private static ScriptFile of(Path migrationPath, Path script) throws IOException {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream input = Files.newInputStream(script)) {
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+            return new ScriptFile(relativeName(migrationPath, script), size, crc.getValue());
+        }
+
+        private static ScriptFile read(DataInputStream input) throws IOException {
+            return new ScriptFile(input.readUTF(), input.readLong(), input.readLong());
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeUTF(file);
+            output.writeLong(size);
+            output.writeLong(checksum);
+        }
+    }
+}
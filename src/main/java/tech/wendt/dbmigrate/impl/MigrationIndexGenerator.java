@@ -0,0 +1,40 @@
+package tech.wendt.dbmigrate.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes a {@value MigrationIndex#FILE_NAME} file into migration directories, which
+ * {@link ResourceMigrationLoader} reads instead of listing the directory.
+ * <p>
+ * Run it on the migration directories in the build output after resources were copied, for example with the
+ * exec-maven-plugin in the {@code process-classes} phase:
+ * <pre>
+ * java tech.wendt.dbmigrate.impl.MigrationIndexGenerator target/classes/db/migrations
+ * </pre>
+ * The index has to be regenerated whenever migrations are added, renamed or removed.
+ */
+public class MigrationIndexGenerator {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: MigrationIndexGenerator <migration directory>...");
+        }
+        for (String directory : args) {
+            generate(Paths.get(directory));
+        }
+    }
+
+    public static Path generate(Path migrationPath) throws IOException {
+        if (!Files.isDirectory(migrationPath)) {
+            throw new IOException(String.format("%s is not a directory", migrationPath));
+        }
+        List<ResourceMigrationInfo> migrations = ResourceMigrationLoader.scanDirectory(migrationPath);
+        Path indexPath = migrationPath.resolve(MigrationIndex.FILE_NAME);
+        MigrationIndex.create(migrationPath, migrations).write(indexPath);
+        return indexPath;
+    }
+}
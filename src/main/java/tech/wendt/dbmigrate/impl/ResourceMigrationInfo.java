@@ -0,0 +1,70 @@
+package tech.wendt.dbmigrate.impl;
+
+import tech.wendt.dbmigrate.MigrationInfo;
+
+import java.nio.file.Path;
+
+class ResourceMigrationInfo implements MigrationInfo {
+    private final String name;
+    private final int order;
+    private final Path upPath;
+    private final Path downPath;
+    private final long upSize;
+    private final long upChecksum;
+    private final long downSize;
+    private final long downChecksum;
+
+    ResourceMigrationInfo(String name, int order, Path upPath, Path downPath) {
+        this(name, order, upPath, -1, -1, downPath, -1, -1);
+    }
+
+    /**
+     * @param upSize the size of the up script as recorded in an index, or -1 if it is not known
+     * @param upChecksum the CRC32 of the bytes of the up script as recorded in an index, or -1 if it is not known
+     */
+    ResourceMigrationInfo(String name, int order, Path upPath, long upSize, long upChecksum, Path downPath,
+                          long downSize, long downChecksum) {
+        this.name = name;
+        this.order = order;
+        this.upPath = upPath;
+        this.downPath = downPath;
+        this.upSize = upSize;
+        this.upChecksum = upChecksum;
+        this.downSize = downSize;
+        this.downChecksum = downChecksum;
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    Path getUpPath() {
+        return upPath;
+    }
+
+    Path getDownPath() {
+        return downPath;
+    }
+
+    long getUpSize() {
+        return upSize;
+    }
+
+    long getUpChecksum() {
+        return upChecksum;
+    }
+
+    long getDownSize() {
+        return downSize;
+    }
+
+    long getDownChecksum() {
+        return downChecksum;
+    }
+}
@@ -1,47 +1,122 @@
 package tech.wendt.dbmigrate.impl;
 
 import tech.wendt.dbmigrate.Migration;
+import tech.wendt.dbmigrate.MigrationInfo;
 import tech.wendt.dbmigrate.MigrationLoader;
+import tech.wendt.dbmigrate.ScriptSource;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.file.FileSystem;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
-public class ResourceMigrationLoader implements MigrationLoader {
+/**
+ * Loads migrations from a directory of the class path, either on the file system or in a jar.
+ * <p>
+ * The file systems of jars are shared by all loaders of the process, so any number of loaders can be created for
+ * the same jar. The listing of a jar is only scanned by the first loader. Closing a loader releases its jar, which is
+ * closed once no loader uses it anymore.
+ * <p>
+ * Scripts are read by up to {@value #READER_THREADS} threads of the loader, which end when they are idle and are
+ * stopped when the loader is closed.
+ */
+public class ResourceMigrationLoader implements MigrationLoader, Closeable {
 
-    private static final String FILEPATTERN_UP = "_up.sql";
-    private static final String FILEPATTERN_DOWN = "_down.sql";
-    private static final String FILEPATTERN_REGEX = "\\d+_{2}[^.]+_(down|up)\\.sql";
+    static final String FILEPATTERN_UP = "_up.sql";
+    static final String FILEPATTERN_DOWN = "_down.sql";
+    static final String FILEPATTERN_REGEX = "\\d+_{2}[^.]+_(down|up)\\.sql";
+    static final Pattern FILEPATTERN = Pattern.compile(FILEPATTERN_REGEX);
+    private static final long STREAMING_THRESHOLD = 1024 * 1024;
+    static final String BYTE_ORDER_MARK = "\uFEFF";
+    private static final long CACHE_THRESHOLD = 64 * 1024;
+    private static final int HASH_LENGTH = 16;
+    private static final int READER_THREADS = 8;
+    private static final long READER_KEEP_ALIVE_SECONDS = 10;
+    private static final AtomicInteger READER_NUMBER = new AtomicInteger();
     private Path migrationPath;
+    private Path archivePath;
+    private volatile JarFileSystems.JarFileSystem jar;
+    private final Charset charset;
+    private final TokenizedScriptCache scriptCache;
+    private volatile Path cacheVersion;
+    private final ThreadPoolExecutor readers;
 
     public ResourceMigrationLoader(String resourcePath) throws IOException {
+        this(resourcePath, ResourceMigrationLoader.class.getClassLoader());
+    }
+
+    public ResourceMigrationLoader(String resourcePath, ClassLoader classLoader) throws IOException {
+        this(resourcePath, classLoader, StandardCharsets.UTF_8);
+    }
+
+    public ResourceMigrationLoader(String resourcePath, ClassLoader classLoader, Charset charset)
+            throws IOException {
+        this(resourcePath, classLoader, charset, null);
+    }
+
+    /**
+     * @param scriptCache the cache of split scripts to use, or {@code null} to split the scripts at every start
+     */
+    public ResourceMigrationLoader(String resourcePath, ClassLoader classLoader, Charset charset,
+                                   TokenizedScriptCache scriptCache) throws IOException {
+        this.charset = Objects.requireNonNull(charset);
+        this.scriptCache = scriptCache;
+        this.readers = new ThreadPoolExecutor(READER_THREADS, READER_THREADS, READER_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "dbmigrate-reader-" + READER_NUMBER.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        readers.allowCoreThreadTimeOut(true);
         resourcePath = Objects.requireNonNull(resourcePath);
         if (!(resourcePath.startsWith("/"))) {
             resourcePath = "/".concat(resourcePath);
         }
-        URL resource = ResourceMigrationLoader.class.getResource(resourcePath);
+        URL resource = classLoader.getResource(resourcePath.substring(1));
         if (resource != null) {
             try {
-                final Map<String, String> env = new HashMap<>();
                 final String[] array = resource.toString().split("!");
                 if (array.length > 1) {
-                    final FileSystem fs = FileSystems.newFileSystem(URI.create(array[0]), env);
-                    this.migrationPath = fs.getPath(array[1]);
+                    this.jar = JarFileSystems.acquire(URI.create(array[0]));
+                    this.migrationPath = jar.getFileSystem().getPath(array[1]);
+                    this.archivePath = archivePath(array[0]);
                 } else {
                     this.migrationPath = Paths.get(resource.toURI());
                 }
@@ -55,17 +130,110 @@ public class ResourceMigrationLoader implements MigrationLoader {
 
     @Override
     public List<Migration> loadMigrations() throws IOException {
+        return loadMigrations(loadMigrationInfos());
+    }
+
+    /**
+     * Reads the {@value MigrationIndex#FILE_NAME} file written by {@link MigrationIndexGenerator} if there is one,
+     * and lists the resource directory otherwise. The listing of a jar is cached while it is open.
+     * <p>
+     * Outside of jars, the names in the index are compared with a listing of the scripts, so that scripts added
+     * after the index was generated are not skipped silently.
+     *
+     * @throws IOException if the index does not list the same scripts as the directory
+     */
+    @Override
+    public List<? extends MigrationInfo> loadMigrationInfos() throws IOException {
+        JarFileSystems.JarFileSystem jar = this.jar;
+        if (jar == null) {
+            return listMigrationInfos();
+        }
+        String directory = migrationPath.toString();
+        List<ResourceMigrationInfo> listing = jar.getListing(directory);
+        if (listing == null) {
+            listing = listMigrationInfos();
+            jar.putListing(directory, listing);
+        }
+        return new ArrayList<>(listing);
+    }
+
+    private List<ResourceMigrationInfo> listMigrationInfos() throws IOException {
+        Path indexPath = migrationPath.resolve(MigrationIndex.FILE_NAME);
+        if (Files.isRegularFile(indexPath)) {
+            MigrationIndex index = MigrationIndex.read(indexPath);
+            if (jar == null) {
+                index.verifyListing(migrationPath, listScripts(migrationPath));
+            }
+            return index.toMigrationInfos(migrationPath);
+        }
+        return scanDirectory(migrationPath);
+    }
+
+    /**
+     * Prepares the scripts of the given migrations concurrently on the reader threads of the loader.
+     */
+    @Override
+    public List<Migration> loadMigrations(List<? extends MigrationInfo> migrations) throws IOException {
+        List<CompletableFuture<Migration>> futures = new ArrayList<>(migrations.size());
+        for (MigrationInfo migration : migrations) {
+            if (!(migration instanceof ResourceMigrationInfo)) {
+                throw new IOException(String.format("Migration %s__%s was not listed by this loader",
+                        migration.getOrder(), migration.getName()));
+            }
+        }
+        try {
+            for (MigrationInfo migration : migrations) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return readMigration((ResourceMigrationInfo) migration);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, readers));
+            }
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The migration loader is closed", e);
+        }
+        List<Migration> result = new ArrayList<>(migrations.size());
+        try {
+            for (CompletableFuture<Migration> future : futures) {
+                result.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Could not read migrations", e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Lists the up and down scripts below the directory without pairing them.
+     */
+    private static List<Path> listScripts(Path migrationPath) throws IOException {
         try (Stream<Path> paths = Files.walk(migrationPath)) {
-            List<Path> files = paths
-                    .collect(Collectors.toList());
-            List<Path> migrations = files.stream()
-                    .filter(file -> file.toString().endsWith(FILEPATTERN_UP))
-                    .collect(Collectors.toList());
-            List<Path> rollbacks = files.stream()
-                    .filter(file -> file.toString().endsWith(FILEPATTERN_DOWN))
-                    .collect(Collectors.toList());
+            return paths.filter(file -> {
+                String fileName = file.getFileName() != null ? file.getFileName().toString() : "";
+                return fileName.endsWith(FILEPATTERN_UP) || fileName.endsWith(FILEPATTERN_DOWN);
+            }).collect(Collectors.toList());
+        }
+    }
+
+    static List<ResourceMigrationInfo> scanDirectory(Path migrationPath) throws IOException {
+        try (Stream<Path> paths = Files.walk(migrationPath)) {
+            List<Path> migrations = new ArrayList<>();
+            Map<String, Path> rollbacks = new HashMap<>();
+            paths.forEach(file -> {
+                String fileName = file.getFileName() != null ? file.getFileName().toString() : "";
+                if (fileName.endsWith(FILEPATTERN_UP)) {
+                    migrations.add(file);
+                } else if (fileName.endsWith(FILEPATTERN_DOWN)) {
+                    rollbacks.put(fileName.substring(0, fileName.length() - FILEPATTERN_DOWN.length()), file);
+                }
+            });
             if (!migrations.isEmpty()) {
-                List<Migration> result = createMigrations(migrations, rollbacks);
+                List<ResourceMigrationInfo> result = createMigrationInfos(migrations, rollbacks);
                 if (rollbacks.isEmpty()) {
                     return result;
                 } else {
@@ -77,49 +245,211 @@ public class ResourceMigrationLoader implements MigrationLoader {
         }
     }
 
-    private List<Migration> createMigrations(List<Path> migrations, List<Path> rollbacks) throws IOException {
-        List<Migration> result = new ArrayList<>();
-        for (int i = 0; i < migrations.size(); ++i) {
-            Migration migration = createMigration(migrations.get(i), rollbacks);
-            result.add(migration);
+    private static List<ResourceMigrationInfo> createMigrationInfos(List<Path> migrations, Map<String, Path> rollbacks)
+            throws IOException {
+        List<ResourceMigrationInfo> result = new ArrayList<>(migrations.size());
+        for (Path migration : migrations) {
+            result.add(createMigrationInfo(migration, rollbacks));
         }
-        return result.stream()
-                .sorted(Comparator.comparingInt(Migration::getOrder))
-                .collect(Collectors.toList());
+        result.sort(Comparator.comparingInt(ResourceMigrationInfo::getOrder));
+        return result;
     }
 
-    private Migration createMigration(Path migrationPath, List<Path> rollbacks) throws IOException {
+    private static ResourceMigrationInfo createMigrationInfo(Path migrationPath, Map<String, Path> rollbacks)
+            throws IOException {
         String migrationFile = migrationPath.getFileName().toString();
-        if (migrationFile.matches(FILEPATTERN_REGEX)) {
+        if (FILEPATTERN.matcher(migrationFile).matches()) {
             String fullMigrationName = migrationFile.substring(0, migrationFile.length() - FILEPATTERN_UP.length());
-            Optional<Path> rollback = rollbacks.stream()
-                    .filter(path -> path
-                            .getFileName()
-                            .toString()
-                            .startsWith(fullMigrationName))
-                    .findAny();
+            Path rollback = rollbacks.remove(fullMigrationName);
             String[] migrationNameArray = fullMigrationName.split("__");
             int order = Integer.parseInt(migrationNameArray[0]);
             String migrationName = migrationNameArray[1];
-
-            String upSql = Files.readAllLines(migrationPath)
-                    .stream()
-                    .reduce(String::concat)
-                    .orElseThrow(() -> new IOException(String.format("Could not read migration: %s", migrationPath)));
-            if (rollback.isPresent()) {
-                Path rollbackPath = rollback.get();
-                rollbacks.remove(rollback.get());
-                String downSql = Files.readAllLines(rollbackPath)
-                        .stream()
-                        .reduce(String::concat)
-                        .orElseThrow(() -> new IOException(String.format("Could not read rollback: %s", rollbackPath)));
-                return new Migration(migrationName, order, upSql, downSql);
-            } else {
-                return new Migration(migrationName, order, upSql);
-            }
+            return new ResourceMigrationInfo(migrationName, order, migrationPath, rollback);
         } else {
             throw new IOException(String.format("migration file %s does not match regex %s",
                     migrationFile, FILEPATTERN_REGEX));
         }
     }
+
+    private Migration readMigration(ResourceMigrationInfo migration) throws IOException {
+        ScriptSource upScript = cachedScriptSource(migration.getUpPath(), migration.getUpSize(),
+                migration.getUpChecksum(), "Could not read migration: %s");
+        if (migration.getDownPath() != null) {
+            ScriptSource downScript = cachedScriptSource(migration.getDownPath(), migration.getDownSize(),
+                    migration.getDownChecksum(), "Could not read rollback: %s");
+            return new Migration(migration.getName(), migration.getOrder(), upScript, downScript);
+        } else {
+            return new Migration(migration.getName(), migration.getOrder(), upScript, null);
+        }
+    }
+
+    /**
+     * Reads scripts of at least {@value #CACHE_THRESHOLD} bytes split from the cache if there is one. The script
+     * itself is only read to populate the cache. Smaller scripts are read and split faster than a cache file is
+     * opened.
+     *
+     * @param indexedSize     the size recorded in the index, or -1 if the directory was listed
+     * @param indexedChecksum the CRC32 recorded in the index, or -1 if the directory was listed
+     */
+    private ScriptSource cachedScriptSource(Path script, long indexedSize, long indexedChecksum, String errorFormat)
+            throws IOException {
+        long size = Files.size(script);
+        if (indexedSize >= 0 && size != indexedSize) {
+            throw staleIndex(script);
+        }
+        if (scriptCache == null || size < CACHE_THRESHOLD) {
+            return scriptSource(script, indexedChecksum, errorFormat);
+        }
+        String name = migrationPath.relativize(script).toString().replace(script.getFileSystem().getSeparator(), "%");
+        return scriptCache.load(cacheVersion(), name, () -> scriptSource(script, indexedChecksum, errorFormat).open());
+    }
+
+    private static IOException staleIndex(Path script) {
+        return new IOException(String.format("Script %s does not match the migration index, regenerate it with %s",
+                script, MigrationIndexGenerator.class.getSimpleName()));
+    }
+
+    private Path cacheVersion() throws IOException {
+        Path version = cacheVersion;
+        if (version == null) {
+            synchronized (this) {
+                version = cacheVersion;
+                if (version == null) {
+                    version = scriptCache.openVersion(cachedContentHash());
+                    cacheVersion = version;
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Hashes the content of a jar only once while it is open.
+     */
+    private String cachedContentHash() throws IOException {
+        JarFileSystems.JarFileSystem jar = this.jar;
+        if (jar == null) {
+            return contentHash();
+        }
+        String key = charset.name() + "\n" + migrationPath;
+        String hash = jar.getContentHash(key);
+        if (hash == null) {
+            hash = contentHash();
+            jar.putContentHash(key, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the content of the jar the migrations are packaged in, or the paths, sizes and modification times of
+     * the scripts of a directory.
+     */
+    private String contentHash() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Could not hash migrations", e);
+        }
+        digest.update(charset.name().getBytes(StandardCharsets.UTF_8));
+        digest.update(migrationPath.toString().getBytes(StandardCharsets.UTF_8));
+        if (archivePath != null) {
+            try (InputStream in = new DigestInputStream(Files.newInputStream(archivePath), digest)) {
+                byte[] buffer = new byte[65536];
+                while (in.read(buffer) != -1) {
+                    // only read for the digest
+                }
+            }
+        } else {
+            try (Stream<Path> paths = Files.walk(migrationPath)) {
+                for (Path file : (Iterable<Path>) paths.filter(Files::isRegularFile).sorted()::iterator) {
+                    digest.update(String.format("%s %s %s%n", migrationPath.relativize(file), Files.size(file),
+                            Files.getLastModifiedTime(file).toMillis()).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        StringBuilder hash = new StringBuilder();
+        byte[] bytes = digest.digest();
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            hash.append(String.format("%02x", bytes[i]));
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Stops the reader threads and releases the jar the migrations are packaged in. Migrations whose scripts are
+     * not read yet cannot be loaded afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        readers.shutdown();
+        if (jar != null) {
+            JarFileSystems.JarFileSystem released = jar;
+            jar = null;
+            released.release();
+        }
+    }
+
+    /**
+     * @return the path of the jar of a {@code jar:file:} URI, or {@code null} if the jar is nested in another one
+     */
+    private static Path archivePath(String jarUri) {
+        try {
+            return Paths.get(URI.create(jarUri.substring("jar:".length())));
+        } catch (IllegalArgumentException | FileSystemNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scripts smaller than {@value #STREAMING_THRESHOLD} bytes are read right away. Larger scripts are only opened
+     * when they are executed, through a memory mapping on the default file system and as a stream otherwise. The
+     * indexed checksum is only compared for scripts that are read right away, larger ones are checked by size.
+     */
+    private ScriptSource scriptSource(Path script, long indexedChecksum, String errorFormat) throws IOException {
+        long size = Files.size(script);
+        if (size >= STREAMING_THRESHOLD) {
+            return () -> openScript(script, size);
+        }
+        byte[] bytes = Files.readAllBytes(script);
+        if (indexedChecksum >= 0) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            if (crc.getValue() != indexedChecksum) {
+                throw staleIndex(script);
+            }
+        }
+        String content = new String(bytes, charset);
+        if (content.startsWith(BYTE_ORDER_MARK)) {
+            content = content.substring(BYTE_ORDER_MARK.length());
+        }
+        if (content.isEmpty()) {
+            throw new IOException(String.format(errorFormat, script));
+        }
+        return ScriptSource.of(content);
+    }
+
+    /**
+     * Opens a reader that decodes the script while it is read. A leading byte order mark is dropped, line breaks
+     * are kept.
+     */
+    private Reader openScript(Path script, long size) throws IOException {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        Reader reader;
+        if (script.getFileSystem() == FileSystems.getDefault() && size <= Integer.MAX_VALUE) {
+            try (FileChannel channel = FileChannel.open(script, StandardOpenOption.READ)) {
+                reader = new ByteBufferReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), decoder);
+            }
+        } else {
+            reader = new InputStreamReader(Files.newInputStream(script), decoder);
+        }
+        PushbackReader pushbackReader = new PushbackReader(reader, 1);
+        int first = pushbackReader.read();
+        if (first != -1 && first != BYTE_ORDER_MARK.charAt(0)) {
+            pushbackReader.unread(first);
+        }
+        return pushbackReader;
+    }
 }
@@ -0,0 +1,406 @@
+package tech.wendt.dbmigrate.impl;
+
+import tech.wendt.dbmigrate.ScriptSource;
+import tech.wendt.dbmigrate.SqlStatementReader;
+import tech.wendt.dbmigrate.StatementSource;
+import tech.wendt.dbmigrate.TokenizedScript;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Keeps migration scripts split into statements on the local disk, so that processes starting with the same
+ * migrations neither read nor split their scripts again.
+ * <p>
+ * Scripts are cached per version of the migrations, a directory named after their content hash, with one file per
+ * script. A file holds the checksum of the script, its leading comment lines, the statements and a table of their
+ * offsets, and is memory mapped when it is used. Files are written to a temporary file and moved into place
+ * atomically, so that several processes on the same host may populate a version at the same time. As a file is
+ * thus either complete or absent, reading it only validates its header and offset table, the checksum of its
+ * content is written for diagnostics but not computed on every start.
+ * <p>
+ * When a version is opened, the least recently opened versions are deleted under a file lock until the cache fits
+ * into its size. Versions opened within the last ten minutes are kept, as other processes may still use them.
+ */
+public class TokenizedScriptCache {
+
+    private static final int MAGIC = 0x44424d43;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int MAX_HEADER_LENGTH = 65536;
+    private static final long MAPPING_THRESHOLD = 64 * 1024;
+    private static final long KEEP_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final String LOCK_FILE = ".lock";
+    private static final String CACHE_SUFFIX = ".stmts";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String SEPARATOR = "\n;\n";
+    private static final Object EVICTION_MONITOR = new Object();
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory the directory of the cache, shared by all processes of the host
+     * @param maxBytes  the size the cache is reduced to when a version is opened
+     */
+    public TokenizedScriptCache(Path directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.directory = Objects.requireNonNull(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates or touches the directory of a version and deletes old versions if the cache is too large.
+     *
+     * @return the directory of the version
+     */
+    Path openVersion(String contentHash) throws IOException {
+        Path version = directory.resolve(contentHash);
+        Files.createDirectories(version);
+        Files.setLastModifiedTime(version, FileTime.fromMillis(System.currentTimeMillis()));
+        evict(version);
+        return version;
+    }
+
+    /**
+     * Returns the cached statements of a script, splitting and caching the script if it is not cached yet. If the
+     * cache cannot be written, the script is returned as it is.
+     *
+     * @param name a name of the script that is unique within its version
+     */
+    ScriptSource load(Path version, String name, ScriptSource script) throws IOException {
+        Path file = version.resolve(name + CACHE_SUFFIX);
+        if (Files.isRegularFile(file)) {
+            try {
+                return read(file);
+            } catch (IOException e) {
+                Files.deleteIfExists(file);
+            }
+        }
+        long checksum = script.checksum();
+        try {
+            if (!write(file, script, checksum)) {
+                return script;
+            }
+            return read(file);
+        } catch (IOException e) {
+            return script;
+        }
+    }
+
+    private static boolean write(Path file, ScriptSource script, long checksum) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            CRC32 crc = new CRC32();
+            int headerLength;
+            long blobLength = 0;
+            int[] offsets = new int[64];
+            int statementCount = 0;
+            try (BufferedReader reader = new BufferedReader(script.open());
+                 DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(temp)), crc))) {
+                out.write(new byte[HEADER_SIZE]);
+                crc.reset();
+                byte[] header = readHeader(reader).getBytes(StandardCharsets.UTF_8);
+                headerLength = header.length;
+                out.write(header);
+                SqlStatementReader statements = new SqlStatementReader(reader);
+                String sql;
+                while ((sql = statements.nextStatement()) != null) {
+                    byte[] bytes = sql.getBytes(StandardCharsets.UTF_8);
+                    if (HEADER_SIZE + headerLength + blobLength + bytes.length
+                            + 4L * (statementCount + 2) > Integer.MAX_VALUE) {
+                        return false;
+                    }
+                    if (statementCount + 1 == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    }
+                    offsets[statementCount] = (int) blobLength;
+                    out.write(bytes);
+                    blobLength += bytes.length;
+                    statementCount++;
+                }
+                offsets[statementCount] = (int) blobLength;
+                for (int i = 0; i <= statementCount; i++) {
+                    out.writeInt(offsets[i]);
+                }
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(checksum).putInt(statementCount).putInt(headerLength)
+                    .putLong(blobLength).putLong(crc.getValue());
+            ((Buffer) header).flip();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(false);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // written by another process in the meantime
+            }
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the leading blank and comment lines, which the statements do not contain, and resets the reader.
+     */
+    private static String readHeader(BufferedReader reader) throws IOException {
+        char[] prefix = new char[MAX_HEADER_LENGTH];
+        reader.mark(MAX_HEADER_LENGTH);
+        int length = 0;
+        int read;
+        while (length < prefix.length && (read = reader.read(prefix, length, prefix.length - length)) != -1) {
+            length += read;
+        }
+        reader.reset();
+        int end = 0;
+        for (int lineStart = 0; lineStart < length; ) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && prefix[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            String line = new String(prefix, lineStart, lineEnd - lineStart).trim();
+            if ((!line.isEmpty() && !line.startsWith("--")) || (lineEnd == length && length == prefix.length)) {
+                break;
+            }
+            lineStart = Math.min(lineEnd + 1, length);
+            end = lineStart;
+        }
+        return new String(prefix, 0, end);
+    }
+
+    private static CachedScript read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Invalid cache file %s", file));
+            }
+            if (size >= MAPPING_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // read the whole file
+                }
+                ((Buffer) buffer).flip();
+            }
+        }
+        int statementCount = buffer.getInt(16);
+        int headerLength = buffer.getInt(20);
+        long blobLength = buffer.getLong(24);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT || statementCount < 0 || headerLength < 0
+                || blobLength < 0 || HEADER_SIZE + headerLength + blobLength + 4L * (statementCount + 1)
+                != buffer.limit()) {
+            throw new IOException(String.format("Invalid cache file %s", file));
+        }
+        int offsetsStart = buffer.limit() - 4 * (statementCount + 1);
+        int previous = 0;
+        for (int i = 0; i <= statementCount; i++) {
+            int offset = buffer.getInt(offsetsStart + 4 * i);
+            if (offset < previous || (i == 0 && offset != 0)) {
+                throw new IOException(String.format("Corrupt cache file %s", file));
+            }
+            previous = offset;
+        }
+        if (previous != blobLength) {
+            throw new IOException(String.format("Corrupt cache file %s", file));
+        }
+        return new CachedScript(buffer, buffer.getLong(8), statementCount, headerLength);
+    }
+
+    private void evict(Path current) throws IOException {
+        synchronized (EVICTION_MONITOR) {
+            try (FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = lockChannel.lock();
+                try {
+                    evictLocked(current);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private void evictLocked(Path current) throws IOException {
+        long now = System.currentTimeMillis();
+        List<Path> versions;
+        try (Stream<Path> paths = Files.list(directory)) {
+            versions = paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        List<long[]> usage = new ArrayList<>(versions.size());
+        long total = 0;
+        for (int i = 0; i < versions.size(); i++) {
+            long size = size(versions.get(i), now);
+            total += size;
+            usage.add(new long[]{i, Files.getLastModifiedTime(versions.get(i)).toMillis(), size});
+        }
+        usage.sort(Comparator.comparingLong(entry -> entry[1]));
+        for (long[] entry : usage) {
+            if (total <= maxBytes) {
+                break;
+            }
+            Path version = versions.get((int) entry[0]);
+            if (version.equals(current) || now - entry[1] < KEEP_MILLIS) {
+                continue;
+            }
+            delete(version);
+            total -= entry[2];
+        }
+    }
+
+    /**
+     * @return the size of the cached files of a version, after deleting its abandoned temporary files
+     */
+    private static long size(Path version, long now) throws IOException {
+        long size = 0;
+        try (Stream<Path> files = Files.list(version)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)
+                        && now - Files.getLastModifiedTime(file).toMillis() > KEEP_MILLIS) {
+                    Files.deleteIfExists(file);
+                } else {
+                    size += Files.size(file);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void delete(Path version) {
+        try (Stream<Path> files = Files.list(version)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(version);
+        } catch (IOException e) {
+            // still mapped or populated by another process, deleted by a later eviction
+        }
+    }
+
+    /**
+     * A script read from a cache file. The statements are decoded from the file one at a time.
+     */
+    private static final class CachedScript implements TokenizedScript {
+        private final ByteBuffer buffer;
+        private final long checksum;
+        private final int statementCount;
+        private final int headerLength;
+        private final int blobStart;
+        private final int offsetsStart;
+
+        private CachedScript(ByteBuffer buffer, long checksum, int statementCount, int headerLength) {
+            this.buffer = buffer;
+            this.checksum = checksum;
+            this.statementCount = statementCount;
+            this.headerLength = headerLength;
+            this.blobStart = HEADER_SIZE + headerLength;
+            this.offsetsStart = buffer.limit() - 4 * (statementCount + 1);
+        }
+
+        @Override
+        public long checksum() {
+            return checksum;
+        }
+
+        @Override
+        public StatementSource openStatements() {
+            return new StatementSource() {
+                private int index;
+
+                @Override
+                public String nextStatement() {
+                    return index < statementCount ? statement(index++) : null;
+                }
+
+                @Override
+                public void close() {
+                    index = statementCount;
+                }
+            };
+        }
+
+        /**
+         * Opens the leading comment lines followed by the statements, each terminated by a semicolon on a line of
+         * its own.
+         */
+        @Override
+        public Reader open() {
+            return new Reader() {
+                private String part = decode(HEADER_SIZE, headerLength);
+                private int position;
+                private int index;
+
+                @Override
+                public int read(char[] chars, int offset, int length) {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    while (position == part.length()) {
+                        if (index == statementCount) {
+                            return -1;
+                        }
+                        part = statement(index++) + SEPARATOR;
+                        position = 0;
+                    }
+                    int read = Math.min(length, part.length() - position);
+                    part.getChars(position, position + read, chars, offset);
+                    position += read;
+                    return read;
+                }
+
+                @Override
+                public void close() {
+                    index = statementCount;
+                    part = "";
+                    position = 0;
+                }
+            };
+        }
+
+        private String statement(int index) {
+            int start = buffer.getInt(offsetsStart + 4 * index);
+            int end = buffer.getInt(offsetsStart + 4 * (index + 1));
+            return decode(blobStart + start, end - start);
+        }
+
+        private String decode(int start, int length) {
+            ByteBuffer slice = buffer.duplicate();
+            ((Buffer) slice).limit(start + length).position(start);
+            return StandardCharsets.UTF_8.decode(slice).toString();
+        }
+    }
+}
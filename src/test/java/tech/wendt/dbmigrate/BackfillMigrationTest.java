@@ -0,0 +1,98 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BackfillMigrationTest {
+
+    private static final int ROWS = 10_000;
+
+    @Test
+    @DisplayName("Backfills a table in committed chunks and resumes after the last committed chunk")
+    void migrateAll_backfill() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:backfill;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id int PRIMARY KEY, v int)");
+            statement.execute("INSERT INTO t (id) SELECT x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+            statement.execute("CREATE TABLE flag (f int)");
+            statement.execute("INSERT INTO flag VALUES (0)");
+        }
+        BackfillMigration underTest = new BackfillMigration("backfill", 2, "t", "id",
+                "UPDATE t SET v = CASE WHEN id > 5000 THEN id * 2 / (SELECT f FROM flag) ELSE id * 2 END " +
+                        "WHERE id > ? AND id <= ?", null);
+        underTest.setInitialChunkSize(100);
+        underTest.setMaxChunkSize(500);
+        AtomicInteger pauseChecks = new AtomicInteger();
+        underTest.setPauseCondition(() -> pauseChecks.incrementAndGet() <= 2);
+        MigrationLoader loader = () -> Arrays.asList(new Migration("init", 1, "SELECT 1;"), underTest);
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because of the division by zero");
+            long committed = underTest.getProgress().getPosition();
+            int firstRunChunks = underTest.getProgress().getChunks();
+            assertThat(committed).isLessThanOrEqualTo(5000);
+            assertThat(count(dataSource, "SELECT count(*) FROM t WHERE v IS NOT NULL")).isEqualTo(committed);
+
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("UPDATE flag SET f = 1");
+            }
+            migrator.migrateAll();
+
+            assertThat(underTest.getProgress().getRows()).isEqualTo(ROWS - committed);
+            assertThat(underTest.getProgress().getFraction()).isEqualTo(1);
+            assertThat(count(dataSource, "SELECT count(*) FROM t WHERE v = id * 2")).isEqualTo(ROWS);
+            assertThat(count(dataSource, "SELECT count(*) FROM `test_migration_progress`")).isEqualTo(0);
+            MigrationEntry entry = migrator.getHistory().getEntry(2);
+            assertThat(entry.getTransactional()).isFalse();
+            assertThat(entry.getStatementCount()).isEqualTo(firstRunChunks + underTest.getProgress().getChunks());
+            assertThat(pauseChecks.get()).isGreaterThan(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Fails on key ranges that start at the smallest long instead of skipping them")
+    void migrateAll_smallestKey() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:backfill_smallest_key;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id bigint PRIMARY KEY, v int)");
+            statement.execute("INSERT INTO t (id) VALUES (" + Long.MIN_VALUE + "), (0), (" + Long.MAX_VALUE + ")");
+        }
+        BackfillMigration underTest = new BackfillMigration("backfill", 1, "t", "id",
+                "UPDATE t SET v = 1 WHERE id > ? AND id <= ?", null);
+        MigrationLoader loader = () -> Arrays.asList(underTest);
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because the exclusive lower bound cannot include the key");
+
+            assertThat(migrator.getHistory().getEntries()).isEmpty();
+        }
+        assertThat(BackfillMigration.isLastChunk(Long.MIN_VALUE + 1, Long.MAX_VALUE, 1000)).isFalse();
+        assertThat(BackfillMigration.isLastChunk(Long.MAX_VALUE - 10, Long.MAX_VALUE, 1000)).isTrue();
+    }
+
+    private static long count(JdbcDataSource dataSource, String query) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
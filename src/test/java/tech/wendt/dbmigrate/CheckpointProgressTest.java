@@ -0,0 +1,37 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.db.H2DatabaseType;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CheckpointProgressTest {
+
+    @Test
+    @DisplayName("Looks for the progress table without rolling back the current transaction")
+    void createIfNotExists_keepsTransaction() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:checkpoint_progress;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (v int)");
+            statement.execute("CREATE TABLE `test_migration_progress` (`order` int)");
+            connection.setAutoCommit(false);
+            statement.execute("INSERT INTO t VALUES (1)");
+
+            new CheckpointProgress(connection, new H2DatabaseType(), "test_migration").createIfNotExists();
+            connection.commit();
+
+            try (ResultSet result = statement.executeQuery("SELECT count(*) FROM t")) {
+                result.next();
+                assertThat(result.getInt(1)).isEqualTo(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckpointTest {
+
+    private static final String PREFIX = "-- dbmigrate:checkpoint 2\n" +
+            "CREATE TABLE t (id int PRIMARY KEY); INSERT INTO t VALUES (1); INSERT INTO t VALUES (2);" +
+            "INSERT INTO t VALUES (3);";
+
+    @Test
+    @DisplayName("Resumes a checkpointed migration after its last committed statement")
+    void migrateAll_resume() throws Exception {
+        JdbcDataSource dataSource = dataSource("checkpoint_resume");
+        AtomicReference<String> script = new AtomicReference<>(PREFIX + "INSERT INTO missing VALUES (4);");
+        MigrationLoader loader = () -> Collections.singletonList(new Migration("backfill", 1, script.get()));
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because the last statement fails");
+            assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(3);
+            assertThat(count(dataSource, "SELECT `statement_count` FROM `test_migration_progress`")).isEqualTo(4);
+
+            script.set(PREFIX + "INSERT INTO t VALUES (4);");
+            migrator.migrateAll();
+
+            assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(4);
+            assertThat(count(dataSource, "SELECT count(*) FROM `test_migration_progress`")).isEqualTo(0);
+            MigrationEntry entry = migrator.getHistory().getEntry(1);
+            assertThat(entry.getTransactional()).isFalse();
+            assertThat(entry.getStatementCount()).isEqualTo(5);
+        }
+    }
+
+    @Test
+    @DisplayName("Refuses to resume a checkpointed migration whose committed statements changed")
+    void migrateAll_changedScript() throws Exception {
+        JdbcDataSource dataSource = dataSource("checkpoint_changed");
+        AtomicReference<String> script = new AtomicReference<>(PREFIX + "INSERT INTO missing VALUES (4);");
+        MigrationLoader loader = () -> Collections.singletonList(new Migration("backfill", 1, script.get()));
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because the last statement fails");
+
+            script.set(PREFIX.replace("(2)", "(20)") + "INSERT INTO t VALUES (4);");
+            MigrationException thrown = assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because a committed statement changed");
+
+            assertThat(thrown.getCause()).hasMessageContaining("changed");
+        }
+    }
+
+    private static JdbcDataSource dataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static int count(JdbcDataSource dataSource, String query) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package tech.wendt.dbmigrate;
 
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import tech.wendt.dbmigrate.impl.ResourceMigrationLoader;
 
@@ -9,11 +10,13 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class DbMigratorTest {
@@ -65,6 +68,219 @@ class DbMigratorTest {
         }
     }
 
+    @Test
+    @DisplayName("Applies independent migrations in parallel in the order of their dependencies")
+    void migrateAll_parallel() throws Exception {
+        JdbcDataSource memoryDataSource = memoryDataSource("parallel");
+        MigrationSettings settings = new MigrationSettings();
+        settings.setParallelism(4);
+        try (DbMigrator migrator = new DbMigrator("test_migration", memoryDataSource, this::parallelMigrations,
+                settings)) {
+            migrator.migrateAll();
+        }
+        try (Connection connection = memoryDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            ResultSet history = statement.executeQuery("select count(*) from test_migration");
+            history.next();
+            assertThat(history.getInt(1)).isEqualTo(6);
+            ResultSet result = statement.executeQuery("select v from c");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(3);
+        }
+    }
+
+    @Test
+    @DisplayName("Only applies older migrations in parallel if no applied migration depends on them")
+    void migrateAll_parallel_outOfOrder() throws Exception {
+        JdbcDataSource memoryDataSource = memoryDataSource("parallel_out_of_order");
+        MigrationSettings settings = new MigrationSettings();
+        settings.setParallelism(4);
+        try (DbMigrator migrator = new DbMigrator("test_migration", memoryDataSource, this::parallelMigrations,
+                settings);
+             Connection connection = memoryDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            migrator.migrate(1);
+            statement.execute("insert into test_migration (`order`, `name`) values (3, 'b1'), (5, 'ab')");
+
+            MigrationException thrown = assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because applied migration 5 depends on migration 4");
+            assertThat(thrown.getMessage()).endsWith("5__ab");
+
+            statement.execute("delete from test_migration where `order` = 5");
+            statement.execute("insert into b values (1)");
+            migrator.migrateAll();
+            ResultSet result = statement.executeQuery("select v from c");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(3);
+        }
+    }
+
+    @Test
+    @DisplayName("Executes the baseline instead of the migrations it stands in for on an empty database")
+    void migrateAll_baseline() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (v int);"),
+                new Migration("insert", 2, "INSERT INTO t VALUES (1);"),
+                new Migration("update", 3, "UPDATE t SET v = v + 1;"));
+        MigrationSettings settings = new MigrationSettings();
+        settings.setBaseline(new Migration("baseline", 2, "CREATE TABLE t (v int); INSERT INTO t VALUES (10);"));
+
+        JdbcDataSource emptyDatabase = memoryDataSource("baseline_empty");
+        try (DbMigrator migrator = new DbMigrator("test_migration", emptyDatabase, () -> migrations, settings);
+             Connection connection = emptyDatabase.getConnection();
+             Statement statement = connection.createStatement()) {
+            assertThat(migrator.planMigrateAll().getMigrations()).extracting(PlannedMigration::getName)
+                    .containsExactly("baseline", "update");
+
+            migrator.migrateAll();
+
+            assertThat(migrator.getHistory().getEntries()).extracting(MigrationEntry::getOrder)
+                    .containsExactly(1, 2, 3);
+            assertThat(migrator.getHistory().getEntry(1).getChecksum()).isNull();
+            ResultSet result = statement.executeQuery("SELECT v FROM t");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(11);
+        }
+
+        JdbcDataSource existingDatabase = memoryDataSource("baseline_existing");
+        try (DbMigrator migrator = new DbMigrator("test_migration", existingDatabase, () -> migrations, settings);
+             Connection connection = existingDatabase.getConnection();
+             Statement statement = connection.createStatement()) {
+            migrator.migrate(1);
+            migrator.migrateAll();
+
+            ResultSet result = statement.executeQuery("SELECT v FROM t");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Commits groups of migrations together with their history entries")
+    void migrateAll_groupSize() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (v int);", "DROP TABLE t;"),
+                new Migration("first", 2, "INSERT INTO t VALUES (1);", "DELETE FROM t WHERE v = 1;"),
+                new Migration("second", 3, "INSERT INTO t VALUES (2);"),
+                new Migration("broken", 4, "INSERT INTO missing VALUES (3);"));
+        MigrationSettings settings = new MigrationSettings();
+        settings.setGroupSize(2);
+        List<Integer> finished = new ArrayList<>();
+        settings.setListener(new MigrationListener() {
+            @Override
+            public void migrationFinished(MigrationInfo migration, boolean rollback, long nanos, int statementCount) {
+                finished.add(migration.getOrder());
+            }
+        });
+
+        JdbcDataSource database = memoryDataSource("group_size");
+        try (DbMigrator migrator = new DbMigrator("test_migration", database, () -> migrations, settings);
+             Connection connection = database.getConnection();
+             Statement statement = connection.createStatement()) {
+            assertThrows(MigrationException.class, migrator::migrateAll);
+
+            assertThat(migrator.getHistory().getEntries()).extracting(MigrationEntry::getOrder)
+                    .containsExactly(1, 2);
+            assertThat(finished).containsExactly(1, 2);
+            ResultSet result = statement.executeQuery("SELECT count(*) FROM t");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(1);
+
+            migrator.rollback(2);
+            assertThat(migrator.getHistory().getEntries()).extracting(MigrationEntry::getOrder)
+                    .containsExactly(1);
+            result = statement.executeQuery("SELECT count(*) FROM t");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Rolls back independent migrations in parallel in the reverse order of their dependencies")
+    void rollback_parallel() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                new Migration("init", 1, "CREATE TABLE a (v int); CREATE TABLE b (v int);"),
+                new Migration("a", 2, "-- dbmigrate:group a\nINSERT INTO a VALUES (1);", "DELETE FROM a;"),
+                new Migration("b", 3, "-- dbmigrate:depends-on 2\nINSERT INTO b SELECT v FROM a;",
+                        "DELETE FROM b WHERE v IN (SELECT v FROM a);"),
+                new Migration("c", 4, "-- dbmigrate:group c\nSELECT 1;", "SELECT 1;"));
+        MigrationSettings settings = new MigrationSettings();
+        settings.setParallelism(4);
+
+        JdbcDataSource database = memoryDataSource("parallel_rollback");
+        try (DbMigrator migrator = new DbMigrator("test_migration", database, () -> migrations, settings);
+             Connection connection = database.getConnection();
+             Statement statement = connection.createStatement()) {
+            migrator.migrateAll();
+            migrator.rollback(2);
+
+            assertThat(migrator.getHistory().getEntries()).extracting(MigrationEntry::getOrder).containsExactly(1);
+            ResultSet result = statement.executeQuery("SELECT (SELECT count(*) FROM a) + (SELECT count(*) FROM b)");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Rolls back nothing if a migration to roll back has no down script")
+    void rollbackAll_missingDownScript() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (v int);", "DROP TABLE t;"),
+                new Migration("irreversible", 2, "INSERT INTO t VALUES (1);"),
+                new Migration("insert", 3, "INSERT INTO t VALUES (2);", "DELETE FROM t WHERE v = 2;"));
+
+        JdbcDataSource database = memoryDataSource("missing_down_script");
+        try (DbMigrator migrator = new DbMigrator("test_migration", database, () -> migrations)) {
+            migrator.migrateAll();
+            MigrationException thrown = assertThrows(MigrationException.class, migrator::rollbackAll);
+
+            assertThat(thrown.getMessage()).contains("2__irreversible");
+            assertThat(migrator.getHistory().getEntries()).extracting(MigrationEntry::getOrder)
+                    .containsExactly(1, 2, 3);
+        }
+    }
+
+    @Test
+    @DisplayName("Rolls back all migrations in one transaction")
+    void rollback_singleTransaction() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (v int);", "DROP TABLE t;"),
+                new Migration("first", 2, "INSERT INTO t VALUES (1);", "DELETE FROM missing;"),
+                new Migration("second", 3, "INSERT INTO t VALUES (2);", "DELETE FROM t WHERE v = 2;"));
+        MigrationSettings settings = new MigrationSettings();
+        settings.setSingleTransactionRollback(true);
+
+        JdbcDataSource database = memoryDataSource("single_transaction_rollback");
+        try (DbMigrator migrator = new DbMigrator("test_migration", database, () -> migrations, settings);
+             Connection connection = database.getConnection();
+             Statement statement = connection.createStatement()) {
+            migrator.migrateAll();
+            assertThrows(MigrationException.class, () -> migrator.rollback(2));
+
+            assertThat(migrator.getHistory().getEntries()).extracting(MigrationEntry::getOrder)
+                    .containsExactly(1, 2, 3);
+            ResultSet result = statement.executeQuery("SELECT count(*) FROM t");
+            result.next();
+            assertThat(result.getInt(1)).isEqualTo(2);
+        }
+    }
+
+    private List<Migration> parallelMigrations() {
+        return Arrays.asList(
+                new Migration("init", 1, "CREATE TABLE a (v int); CREATE TABLE b (v int); CREATE TABLE c (v int);"),
+                new Migration("a1", 2, "-- dbmigrate:group a\nINSERT INTO a VALUES (1);"),
+                new Migration("b1", 3, "-- dbmigrate:group b\nINSERT INTO b VALUES (1);"),
+                new Migration("a2", 4, "-- dbmigrate:group a\nUPDATE a SET v = v + 1;"),
+                new Migration("ab", 5, "-- dbmigrate:depends-on 3, 4\nINSERT INTO c SELECT a.v + b.v FROM a, b;"),
+                new Migration("done", 6, "SELECT 1;"));
+    }
+
+    private static JdbcDataSource memoryDataSource(String name) {
+        JdbcDataSource memoryDataSource = new JdbcDataSource();
+        memoryDataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return memoryDataSource;
+    }
+
     private void assertTablesExist(List<String> createdTables, Connection connection) throws Exception {
         for (String table : createdTables) {
             ResultSet tables = connection.getMetaData().getTables(null, null, table, null);
@@ -0,0 +1,127 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.wendt.dbmigrate.impl.DirectoryMigrationLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class DirectoryMigrationLoaderTest {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Test
+    @DisplayName("Reads added and changed scripts and reports them to apply the new migrations")
+    void loadMigrations_watch(@TempDir Path tempDir) throws Exception {
+        write(tempDir.resolve("1__create_up.sql"), "CREATE TABLE t_watch (id int);");
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:directory_watch;DB_CLOSE_DELAY=-1");
+        BlockingQueue<List<Migration>> changes = new LinkedBlockingQueue<>();
+        try (DirectoryMigrationLoader underTest = new DirectoryMigrationLoader(tempDir);
+             DbMigrator migrator = new DbMigrator("test_migration", dataSource, underTest)) {
+            migrator.migrateAll();
+            assertThat(migrator.getHistory().getEntries()).hasSize(1);
+            underTest.addListener((changed, removed) -> changes.add(changed));
+
+            write(tempDir.resolve("2__insert_up.sql"), "INSERT INTO t_watch VALUES (1);");
+            List<Migration> changed = changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            migrator.migrateAll();
+
+            assertThat(changed).extracting(Migration::getName).containsExactly("insert");
+            assertThat(underTest.loadMigrations()).extracting(Migration::getName).containsExactly("create", "insert");
+            assertThat(migrator.getHistory().getEntries()).hasSize(2);
+
+            Migration unchanged = underTest.loadMigrations().get(0);
+            write(tempDir.resolve("2__insert_down.sql"), "DELETE FROM t_watch;");
+            changed = changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            assertThat(changed).extracting(Migration::getName).containsExactly("insert");
+            assertThat(changed.get(0).getDownSql()).isEqualTo("DELETE FROM t_watch;");
+            assertThat(underTest.loadMigrations().get(0)).isSameAs(unchanged);
+        }
+    }
+
+    @Test
+    @DisplayName("Fails to load while a down script has no up script")
+    void loadMigrations_downScriptWithoutUpScript(@TempDir Path tempDir) throws Exception {
+        write(tempDir.resolve("1__create_down.sql"), "DROP TABLE t_watch;");
+        BlockingQueue<List<Migration>> changes = new LinkedBlockingQueue<>();
+        try (DirectoryMigrationLoader underTest = new DirectoryMigrationLoader(tempDir)) {
+            underTest.addListener((changed, removed) -> changes.add(changed));
+
+            assertThrows(IOException.class, underTest::loadMigrations);
+
+            write(tempDir.resolve("1__create_up.sql"), "CREATE TABLE t_watch (id int);");
+            assertThat(changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).hasSize(1);
+
+            assertThat(underTest.loadMigrations()).extracting(Migration::getName).containsExactly("create");
+        }
+    }
+
+    @Test
+    @DisplayName("Fails to load while scripts of the same name exist in different directories")
+    void loadMigrations_duplicateScript(@TempDir Path tempDir) throws Exception {
+        write(Files.createDirectory(tempDir.resolve("a")).resolve("1__create_up.sql"), "CREATE TABLE t_a (id int);");
+        Path duplicate = Files.createDirectory(tempDir.resolve("b")).resolve("1__create_up.sql");
+        write(duplicate, "CREATE TABLE t_b (id int);");
+        BlockingQueue<List<Migration>> changes = new LinkedBlockingQueue<>();
+        try (DirectoryMigrationLoader underTest = new DirectoryMigrationLoader(tempDir)) {
+            underTest.addListener((changed, removed) -> changes.add(changed));
+
+            IOException thrown = assertThrows(IOException.class, underTest::loadMigrations);
+            assertThat(thrown.getMessage()).contains("1__create_up.sql");
+
+            Files.delete(duplicate);
+            assertThat(changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).hasSize(1);
+
+            assertThat(underTest.loadMigrations().get(0).getUpSql()).isEqualTo("CREATE TABLE t_a (id int);");
+        }
+    }
+
+    @Test
+    @DisplayName("Fails to load while a script cannot be read, even after other scripts changed")
+    void loadMigrations_unreadableScript(@TempDir Path tempDir) throws Exception {
+        write(tempDir.resolve("1__create_up.sql"), "CREATE TABLE t_watch (id int);");
+        Path unreadable = tempDir.resolve("2__insert_up.sql");
+        write(unreadable, "INSERT INTO t_watch VALUES (1);");
+        BlockingQueue<List<Migration>> changes = new LinkedBlockingQueue<>();
+        try (DirectoryMigrationLoader underTest = new DirectoryMigrationLoader(tempDir)) {
+            underTest.addListener((changed, removed) -> changes.add(removed));
+
+            assumeTrue(unreadable.toFile().setReadable(false, false) && !Files.isReadable(unreadable),
+                    "Expected the file system to deny reading the script");
+            assertThat(changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).extracting(Migration::getName)
+                    .containsExactly("insert");
+            assertThrows(IOException.class, underTest::loadMigrations,
+                    "Expected loadMigrations() to throw, because the script cannot be read");
+
+            write(tempDir.resolve("3__update_up.sql"), "UPDATE t_watch SET id = 2;");
+            assertThat(changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEmpty();
+            IOException thrown = assertThrows(IOException.class, underTest::loadMigrations,
+                    "Expected loadMigrations() to throw, because the script still cannot be read");
+            assertThat(thrown.getMessage()).contains("2__insert_up.sql");
+
+            assertThat(unreadable.toFile().setReadable(true, false)).isTrue();
+            assertThat(changes.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEmpty();
+            assertThat(underTest.loadMigrations()).extracting(Migration::getName)
+                    .containsExactly("create", "insert", "update");
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
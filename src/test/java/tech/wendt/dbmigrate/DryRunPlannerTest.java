@@ -0,0 +1,125 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DryRunPlannerTest {
+
+    @Test
+    @DisplayName("Plans pending migrations without executing them")
+    void planMigrateAll() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:dry_run;DB_CLOSE_DELAY=-1");
+        MigrationLoader loader = () -> Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (id int PRIMARY KEY, v varchar(10));", "DROP TABLE t;"),
+                new Migration("change", 2, "INSERT INTO t VALUES (1, 'a'); UPDATE t SET v = 'b';" +
+                        "ALTER TABLE t ALTER COLUMN v SET DATA TYPE varchar(20);", "DELETE FROM t WHERE id = 1;"));
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            migrator.migrate(1);
+            MigrationPlan plan = migrator.planMigrateAll();
+
+            assertThat(plan.getMigrations()).extracting(PlannedMigration::getOrder).containsExactly(2);
+            PlannedMigration migration = plan.getMigrations().get(0);
+            assertThat(migration.getStatementCount()).isEqualTo(3);
+            assertThat(migration.getDmlCount()).isEqualTo(2);
+            assertThat(migration.getDdlCount()).isEqualTo(1);
+            assertThat(migration.getEstimatedRows()).isEqualTo(-1);
+            assertThat(migration.getWarnings()).hasSize(2);
+            assertThat(migration.getWarnings().get(0)).contains("statement 1 affects all rows");
+            assertThat(migration.getWarnings().get(1)).contains("statement 2 may rewrite");
+            assertThat(plan.toString()).contains("up 2__change: 3 statements");
+            assertThat(migrator.getHistory().getEntries()).hasSize(1);
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM t")) {
+                resultSet.next();
+                assertThat(resultSet.getInt(1)).isEqualTo(0);
+            }
+
+            MigrationPlan rollbackPlan = migrator.planRollbackAll();
+            assertThat(rollbackPlan.getMigrations()).extracting(PlannedMigration::getOrder).containsExactly(1);
+            assertThat(rollbackPlan.getMigrations().get(0).isRollback()).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Fails to plan rollbacks of migrations without a down script like the rollback itself")
+    void planRollbackAll_missingDownScript() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:dry_run_irreversible;DB_CLOSE_DELAY=-1");
+        MigrationLoader loader = () -> Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (id int);"),
+                new Migration("insert", 2, "INSERT INTO t VALUES (1);", "DELETE FROM t;"));
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            migrator.migrateAll();
+
+            MigrationException thrown = assertThrows(MigrationException.class, migrator::planRollbackAll,
+                    "Expected planRollbackAll() to throw, because migration 1 has no down script");
+
+            assertThat(thrown.getMessage()).contains("1__create");
+            assertThat(migrator.planRollback(2).getMigrations()).extracting(PlannedMigration::getOrder)
+                    .containsExactly(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Plans backfills and online schema changes by their chunks instead of their up scripts")
+    void planMigrateAll_chunkedMigrations() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:dry_run_chunked;DB_CLOSE_DELAY=-1");
+        MigrationLoader loader = () -> Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (id int PRIMARY KEY, v int);"),
+                new BackfillMigration("backfill", 2, "t", "id", "UPDATE t SET v = id WHERE id > ? AND id <= ?", null),
+                new OnlineSchemaChangeMigration("widen", 3, "t", "id", "ALTER COLUMN v SET DATA TYPE bigint", null));
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            migrator.migrate(1);
+            MigrationPlan plan = migrator.planMigrateAll();
+
+            assertThat(plan.getMigrations()).extracting(PlannedMigration::getOrder).containsExactly(2, 3);
+            assertThat(plan.hasWarnings()).isFalse();
+            PlannedMigration backfill = plan.getMigrations().get(0);
+            assertThat(backfill.getDmlCount()).isEqualTo(1);
+            assertThat(backfill.getDdlCount()).isEqualTo(0);
+            PlannedMigration schemaChange = plan.getMigrations().get(1);
+            assertThat(schemaChange.getDmlCount()).isEqualTo(1);
+            assertThat(schemaChange.getDdlCount()).isEqualTo(1);
+            assertThat(count(dataSource, "SELECT count(*) FROM INFORMATION_SCHEMA.TABLES "
+                    + "WHERE TABLE_NAME = '_T_NEW'")).isEqualTo(0);
+        }
+    }
+
+    @Test
+    @DisplayName("Flags statements that rewrite tables and reads Postgres row estimates")
+    void warning() {
+        assertThat(DryRunPlanner.warning("ALTER TABLE T ALTER COLUMN V TYPE BIGINT")).isNotNull();
+        assertThat(DryRunPlanner.warning("ALTER TABLE T MODIFY COLUMN V BIGINT")).isNotNull();
+        assertThat(DryRunPlanner.warning("ALTER TABLE T ADD COLUMN X INT NOT NULL DEFAULT 0")).isNotNull();
+        assertThat(DryRunPlanner.warning("CREATE INDEX I ON T (V)")).isNotNull();
+        assertThat(DryRunPlanner.warning("CREATE INDEX CONCURRENTLY I ON T (V)")).isNull();
+        assertThat(DryRunPlanner.warning("ALTER TABLE T ADD COLUMN X INT")).isNull();
+        assertThat(DryRunPlanner.warning("DELETE FROM T WHERE ID = 1")).isNull();
+        assertThat(DryRunPlanner.postgresRows("Update on t  (cost=0.00..35.50 rows=2550 width=10)"))
+                .isEqualTo(2550);
+    }
+
+    private static long count(JdbcDataSource dataSource, String query) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replicates writes with a Java trigger, as H2 has no procedural triggers. The tables are swapped with two renames
+ * that do not wait for running statements, so writes have to be held off during the cutover.
+ */
+class H2OnlineSchemaChangeDialect implements OnlineSchemaChangeDialect {
+
+    private static final String TRIGGER_SUFFIX = "_SYNC";
+
+    @Override
+    public List<String> createShadowTable(String table, String shadowTable, String keyColumn) {
+        return Arrays.asList(
+                String.format("CREATE TABLE %s AS SELECT * FROM %s WITH NO DATA", shadowTable, table),
+                String.format("ALTER TABLE %s ALTER COLUMN %s SET NOT NULL", shadowTable, keyColumn),
+                String.format("ALTER TABLE %s ADD PRIMARY KEY (%s)", shadowTable, keyColumn));
+    }
+
+    @Override
+    public List<String> createTriggers(String table, String shadowTable, String keyColumn, List<String> columns) {
+        return Collections.singletonList(String.format("CREATE TRIGGER %s%s AFTER INSERT, UPDATE, DELETE ON %s " +
+                "FOR EACH ROW CALL \"%s\"", shadowTable, TRIGGER_SUFFIX, table, SyncTrigger.class.getName()));
+    }
+
+    @Override
+    public List<String> dropTriggers(String table, String shadowTable) {
+        return Collections.singletonList(String.format("DROP TRIGGER IF EXISTS %s%s", shadowTable, TRIGGER_SUFFIX));
+    }
+
+    @Override
+    public List<String> swapTables(String table, String shadowTable, String oldTable) {
+        return Arrays.asList(
+                String.format("ALTER TABLE %s RENAME TO %s", table, oldTable),
+                String.format("ALTER TABLE %s RENAME TO %s", shadowTable, table));
+    }
+
+    /**
+     * Copies the rows by updating their keys to themselves, so that the trigger copies every row while the update
+     * holds its lock. Unlike locking the rows and reading them again in a second statement, this leaves no window in
+     * which a row deleted by a concurrent transaction is copied: the update waits for the deleting transaction and
+     * skips the row.
+     */
+    @Override
+    public List<String> copyChunk(String table, String shadowTable, String keyColumn, List<String> columns) {
+        return Collections.singletonList(String.format("UPDATE %s SET %s = %s WHERE %s > ? AND %s <= ?",
+                table, keyColumn, keyColumn, keyColumn, keyColumn));
+    }
+
+    /**
+     * Finds the key column by the primary key of the table and the shadow table by its own name.
+     */
+    public static class SyncTrigger implements Trigger {
+
+        private final List<Integer> columnIndexes = new ArrayList<>();
+        private String shadowTable;
+        private int keyIndex;
+        private String delete;
+        private String insert;
+
+        @Override
+        public void init(Connection connection, String schemaName, String triggerName, String tableName,
+                         boolean before, int type) throws SQLException {
+            shadowTable = String.format("\"%s\".\"%s\"", schemaName,
+                    triggerName.substring(0, triggerName.length() - TRIGGER_SUFFIX.length()));
+            List<String> tableColumns = columns(connection, String.format("\"%s\".\"%s\"", schemaName, tableName));
+            String keyColumn;
+            try (ResultSet keys = connection.getMetaData().getPrimaryKeys(null, schemaName, tableName)) {
+                keys.next();
+                keyColumn = keys.getString("COLUMN_NAME");
+            }
+            keyIndex = tableColumns.indexOf(keyColumn);
+            List<String> copied = new ArrayList<>();
+            for (String column : columns(connection, shadowTable)) {
+                if (tableColumns.contains(column)) {
+                    copied.add(column);
+                    columnIndexes.add(tableColumns.indexOf(column));
+                }
+            }
+            delete = String.format("DELETE FROM %s WHERE %s = ?", shadowTable, keyColumn);
+            insert = String.format("INSERT INTO %s (%s) VALUES (%s)", shadowTable, String.join(", ", copied),
+                    String.join(", ", Collections.nCopies(copied.size(), "?")));
+        }
+
+        @Override
+        public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+            try (PreparedStatement statement = connection.prepareStatement(delete)) {
+                if (oldRow != null) {
+                    statement.setObject(1, oldRow[keyIndex]);
+                    statement.executeUpdate();
+                }
+                if (newRow != null) {
+                    statement.setObject(1, newRow[keyIndex]);
+                    statement.executeUpdate();
+                }
+            }
+            if (newRow != null) {
+                try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                    for (int i = 0; i < columnIndexes.size(); i++) {
+                        statement.setObject(i + 1, newRow[columnIndexes.get(i)]);
+                    }
+                    statement.executeUpdate();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void remove() {
+        }
+
+        private static List<String> columns(Connection connection, String table) throws SQLException {
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery(String.format("SELECT * FROM %s WHERE 1 = 0", table))) {
+                List<String> columns = new ArrayList<>();
+                for (int i = 1; i <= result.getMetaData().getColumnCount(); i++) {
+                    columns.add(result.getMetaData().getColumnName(i));
+                }
+                return columns;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import tech.wendt.dbmigrate.impl.HistogramMigrationListener;
+import tech.wendt.dbmigrate.impl.LatencyHistogram;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HistogramMigrationListenerTest {
+
+    @Test
+    @DisplayName("Collects timings of all phases of a migration run")
+    void migrateAll_timings() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:histogram_listener;DB_CLOSE_DELAY=-1");
+        HistogramMigrationListener underTest = new HistogramMigrationListener();
+        MigrationSettings settings = new MigrationSettings();
+        settings.setBatchSize(10);
+        settings.setListener(underTest);
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, () -> Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (id int);"),
+                new Migration("insert", 2, "INSERT INTO t VALUES (1); INSERT INTO t VALUES (2);")), settings)) {
+            migrator.migrateAll();
+        }
+
+        assertThat(underTest.getListing().getCount()).isEqualTo(1);
+        assertThat(underTest.getHistoryQueries().getCount()).isEqualTo(1);
+        assertThat(underTest.getPlanning().getCount()).isEqualTo(1);
+        assertThat(underTest.getConnectionAcquisition().getCount()).isEqualTo(1);
+        assertThat(underTest.getMigrations().getCount()).isEqualTo(2);
+        assertThat(underTest.getStatements().getCount()).isEqualTo(1);
+        assertThat(underTest.getBatches().getCount()).isEqualTo(1);
+        assertThat(underTest.getHistoryUpdates().getCount()).isEqualTo(2);
+        assertThat(underTest.getRows()).isEqualTo(2);
+        assertThat(underTest.getFailures()).isZero();
+    }
+
+    @Test
+    @DisplayName("Reports percentiles as power of two bucket bounds")
+    void histogram_percentiles() {
+        LatencyHistogram underTest = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            underTest.record(i * 1000L);
+        }
+
+        assertThat(underTest.getCount()).isEqualTo(100);
+        assertThat(underTest.getMeanNanos()).isEqualTo(50_500);
+        assertThat(underTest.getPercentileNanos(50)).isBetween(50_000L, 65_535L);
+        assertThat(underTest.getPercentileNanos(100)).isEqualTo(100_000);
+    }
+}
@@ -0,0 +1,155 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.wendt.dbmigrate.impl.JdbcMigrationLoader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JdbcMigrationLoaderTest {
+
+    private static final String CATALOG_TABLE = "migration_catalog";
+
+    private JdbcDataSource catalog;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        catalog = memoryDataSource("catalog");
+        try (Connection connection = catalog.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + CATALOG_TABLE);
+            statement.execute("CREATE TABLE " + CATALOG_TABLE + " (service VARCHAR(255) NOT NULL, "
+                    + "migration_order INT NOT NULL, name VARCHAR(255) NOT NULL, up_script BLOB NOT NULL, "
+                    + "up_checksum BIGINT NOT NULL, down_script BLOB, down_checksum BIGINT, "
+                    + "PRIMARY KEY (service, migration_order))");
+        }
+        JdbcMigrationLoader.store(catalog, CATALOG_TABLE, "orders",
+                new Migration("create", 1, "CREATE TABLE t_orders (id int);", "DROP TABLE t_orders;"));
+        JdbcMigrationLoader.store(catalog, CATALOG_TABLE, "orders",
+                new Migration("insert", 2, "INSERT INTO t_orders VALUES (1);\nINSERT INTO t_orders VALUES (2);"));
+        JdbcMigrationLoader.store(catalog, CATALOG_TABLE, "billing",
+                new Migration("create", 1, "CREATE TABLE t_billing (id int);"));
+    }
+
+    @Test
+    @DisplayName("Loads the migrations of a service from a catalog and caches the fetched scripts")
+    void migrateAll_catalog(@TempDir Path tempDir) throws Exception {
+        JdbcMigrationLoader underTest = new JdbcMigrationLoader(catalog, CATALOG_TABLE, "orders", tempDir);
+        try (DbMigrator migrator = new DbMigrator("test_migration", memoryDataSource("catalog_target"), underTest)) {
+            migrator.migrate(1);
+            assertThat(Files.list(tempDir.resolve("orders")))
+                    .extracting(file -> file.getFileName().toString())
+                    .containsExactlyInAnyOrder("1_up.sql.z", "1_down.sql.z");
+
+            migrator.migrateAll();
+
+            List<MigrationEntry> entries = migrator.getHistory().getEntries();
+            assertThat(entries).extracting(MigrationEntry::getName).containsExactly("create", "insert");
+            assertThat(entries.get(1).getChecksum()).isEqualTo(
+                    ScriptSource.of("INSERT INTO t_orders VALUES (1);\nINSERT INTO t_orders VALUES (2);").checksum());
+            assertThat(Files.exists(tempDir.resolve("orders").resolve("2_up.sql.z"))).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Fetches scripts again whose cached copy does not match the checksum of the catalog")
+    void loadMigrations_corruptCache(@TempDir Path tempDir) throws Exception {
+        new JdbcMigrationLoader(catalog, CATALOG_TABLE, "orders", tempDir).loadMigrations();
+        Path cached = tempDir.resolve("orders").resolve("2_up.sql.z");
+        byte[] fetched = Files.readAllBytes(cached);
+        Files.write(cached, "garbage".getBytes(StandardCharsets.UTF_8));
+
+        List<Migration> migrations = new JdbcMigrationLoader(catalog, CATALOG_TABLE, "orders", tempDir)
+                .loadMigrations();
+
+        assertThat(migrations).extracting(Migration::getName).containsExactly("create", "insert");
+        assertThat(migrations.get(1).getUpSql())
+                .isEqualTo("INSERT INTO t_orders VALUES (1);\nINSERT INTO t_orders VALUES (2);");
+        assertThat(migrations.get(0).getDownSql()).isEqualTo("DROP TABLE t_orders;");
+        assertThat(Files.readAllBytes(cached)).isEqualTo(fetched);
+    }
+
+    @Test
+    @DisplayName("Rejects scripts that do not match their checksum in the catalog")
+    void loadMigrations_checksumMismatch() throws Exception {
+        try (Connection connection = catalog.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE " + CATALOG_TABLE + " SET up_checksum = up_checksum + 1 "
+                    + "WHERE service = 'billing'");
+        }
+        JdbcMigrationLoader underTest = new JdbcMigrationLoader(catalog, CATALOG_TABLE, "billing");
+
+        assertThrows(IOException.class, underTest::loadMigrations);
+    }
+
+    @Test
+    @DisplayName("Fetches many scripts in batches and caches them for services with long names and path separators")
+    void loadMigrations_manyMigrations(@TempDir Path tempDir) throws Exception {
+        String service = "../" + String.join("", Collections.nCopies(100, "\u00e4"));
+        String longName = String.join("", Collections.nCopies(200, "\u00f6"));
+        for (int order = 1; order <= 1200; order++) {
+            JdbcMigrationLoader.store(catalog, CATALOG_TABLE, service,
+                    new Migration(order == 1 ? "../" + longName : "m" + order, order, "SELECT " + order + ";"));
+        }
+        JdbcMigrationLoader underTest = new JdbcMigrationLoader(catalog, CATALOG_TABLE, service,
+                tempDir.resolve("cache"));
+
+        List<Migration> migrations = underTest.loadMigrations();
+
+        assertThat(migrations).hasSize(1200);
+        assertThat(migrations.get(0).getName()).isEqualTo("../" + longName);
+        assertThat(migrations.get(1199).getUpSql()).isEqualTo("SELECT 1200;");
+        assertThat(Files.list(tempDir)).extracting(file -> file.getFileName().toString()).containsExactly("cache");
+        List<Path> serviceDirectories = Files.list(tempDir.resolve("cache")).collect(Collectors.toList());
+        assertThat(serviceDirectories).hasSize(1);
+        assertThat(serviceDirectories.get(0).getFileName().toString()).hasSizeLessThanOrEqualTo(128);
+        assertThat(Files.list(serviceDirectories.get(0))).hasSize(1200)
+                .anyMatch(file -> file.getFileName().toString().equals("1_up.sql.z"));
+    }
+
+    @Test
+    @DisplayName("Fetches the scripts when the cache directory cannot be used")
+    void loadMigrations_unusableCache(@TempDir Path tempDir) throws Exception {
+        Path cache = Files.createFile(tempDir.resolve("cache"));
+        JdbcMigrationLoader underTest = new JdbcMigrationLoader(catalog, CATALOG_TABLE, "orders", cache);
+
+        List<Migration> migrations = underTest.loadMigrations();
+
+        assertThat(migrations).extracting(Migration::getName).containsExactly("create", "insert");
+        assertThat(migrations.get(0).getDownSql()).isEqualTo("DROP TABLE t_orders;");
+        assertThat(Files.isRegularFile(cache)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Rejects fetched migrations that differ from the listed ones")
+    void loadMigrations_changedSinceListed() throws Exception {
+        JdbcMigrationLoader underTest = new JdbcMigrationLoader(catalog, CATALOG_TABLE, "orders");
+        List<? extends MigrationInfo> infos = underTest.loadMigrationInfos();
+        JdbcMigrationLoader.store(catalog, CATALOG_TABLE, "orders",
+                new Migration("renamed", 2, "INSERT INTO t_orders VALUES (1);\nINSERT INTO t_orders VALUES (2);"));
+
+        IOException thrown = assertThrows(IOException.class, () -> underTest.loadMigrations(infos));
+
+        assertThat(thrown.getMessage()).contains("2__insert");
+    }
+
+    private static JdbcDataSource memoryDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+}
@@ -0,0 +1,90 @@
+package tech.wendt.dbmigrate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MigrationGraphTest {
+
+    @Test
+    @DisplayName("Resolves barriers, groups and declared dependencies")
+    void build_dependencies() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                migration(1, ""),
+                migration(2, "-- dbmigrate:group a"),
+                migration(3, "-- dbmigrate:group b"),
+                migration(4, "-- dbmigrate:group a"),
+                migration(5, "-- some comment\n-- dbmigrate:depends-on 3, 4"),
+                migration(6, ""),
+                migration(7, "-- dbmigrate:group a"));
+
+        MigrationGraph graph = MigrationGraph.build(migrations, headers(migrations));
+
+        assertThat(graph.dependenciesOf(1)).isEmpty();
+        assertThat(graph.dependenciesOf(2)).containsExactly(1);
+        assertThat(graph.dependenciesOf(3)).containsExactly(1);
+        assertThat(graph.dependenciesOf(4)).containsExactlyInAnyOrder(2, 1);
+        assertThat(graph.dependenciesOf(5)).containsExactlyInAnyOrder(3, 4, 1);
+        assertThat(graph.dependenciesOf(6)).containsExactlyInAnyOrder(1, 2, 3, 4, 5);
+        assertThat(graph.dependenciesOf(7)).containsExactlyInAnyOrder(4, 6);
+    }
+
+    @Test
+    @DisplayName("Keeps migrations that only declare a checkpoint as barriers")
+    void build_checkpointOnlyBarrier() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                migration(1, "-- dbmigrate:group a"),
+                migration(2, "-- dbmigrate:checkpoint 100"),
+                migration(3, "-- dbmigrate:group a"));
+
+        MigrationGraph graph = MigrationGraph.build(migrations, headers(migrations));
+
+        assertThat(graph.dependenciesOf(2)).containsExactly(1);
+        assertThat(graph.dependenciesOf(3)).containsExactlyInAnyOrder(1, 2);
+    }
+
+    @Test
+    @DisplayName("Fails on dependencies on newer migrations")
+    void build_forwardDependency() throws Exception {
+        List<Migration> migrations = Arrays.asList(
+                migration(1, "-- dbmigrate:depends-on 2"),
+                migration(2, ""));
+        Map<Integer, MigrationHeader> headers = headers(migrations);
+
+        MigrationException thrown = assertThrows(MigrationException.class,
+                () -> MigrationGraph.build(migrations, headers),
+                "Expected build() to throw, because migration 1 depends on migration 2");
+
+        assertThat(thrown.getMessage()).contains("1__m1");
+    }
+
+    @Test
+    @DisplayName("Stops reading the header at the first statement")
+    void header_stopsAtStatement() throws Exception {
+        MigrationHeader header = MigrationHeader.read(ScriptSource.of(
+                "\n-- dbmigrate:group a\nCREATE TABLE t (id int);\n-- dbmigrate:depends-on 1"));
+
+        assertThat(header.getGroup()).isEqualTo("a");
+        assertThat(header.getDependencies()).isEmpty();
+    }
+
+    private static Migration migration(int order, String header) {
+        return new Migration("m" + order, order, header + "\nSELECT 1;");
+    }
+
+    private static Map<Integer, MigrationHeader> headers(List<Migration> migrations) throws IOException {
+        Map<Integer, MigrationHeader> headers = new HashMap<>();
+        for (Migration migration : migrations) {
+            headers.put(migration.getOrder(), MigrationHeader.read(migration.getUpScript()));
+        }
+        return headers;
+    }
+}
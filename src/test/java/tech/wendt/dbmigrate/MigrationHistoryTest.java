@@ -0,0 +1,66 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MigrationHistoryTest {
+
+    @Test
+    @DisplayName("Upgrades an existing history table and records details of applied migrations")
+    void migrateAll_details() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:migration_history;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE `test_migration` (`id` INTEGER AUTO_INCREMENT PRIMARY KEY, " +
+                    "`order` INTEGER NOT NULL UNIQUE, `name` VARCHAR(255) NOT NULL)");
+            statement.execute("INSERT INTO `test_migration` (`order`, `name`) VALUES (1, 'legacy')");
+        }
+        long start = System.currentTimeMillis();
+        List<Migration> migrations = Arrays.asList(
+                new Migration("legacy", 1, "SELECT 1;"),
+                new Migration("create", 2, "CREATE TABLE t (id int); INSERT INTO t VALUES (1);"));
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, () -> migrations)) {
+            migrator.migrateAll();
+            MigrationHistory underTest = migrator.getHistory();
+
+            List<MigrationEntry> entries = underTest.getEntries();
+            assertThat(entries).extracting(MigrationEntry::getOrder).containsExactly(1, 2);
+            assertThat(entries.get(0).getChecksum()).isNull();
+            MigrationEntry applied = entries.get(1);
+            assertThat(applied.getAppliedAt()).isGreaterThanOrEqualTo(start);
+            assertThat(applied.getExecutionTimeMs()).isNotNegative();
+            assertThat(applied.getStatementCount()).isEqualTo(2);
+            assertThat(applied.getHost()).isNotEmpty();
+            assertThat(applied.getChecksum()).isEqualTo(migrations.get(1).getUpScript().checksum());
+            assertThat(underTest.getSlowest(10)).extracting(MigrationEntry::getOrder).containsExactly(2);
+            assertThat(underTest.getAppliedSince(start)).extracting(MigrationEntry::getOrder).containsExactly(2);
+            assertThat(underTest.findChangedScripts(migrations)).isEmpty();
+            assertThat(underTest.findChangedScripts(Collections.singletonList(
+                    new Migration("create", 2, "CREATE TABLE t (id bigint);"))))
+                    .extracting(MigrationEntry::getOrder).containsExactly(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Computes the checksum of the UTF-8 encoded script")
+    void checksum_utf8() throws Exception {
+        String script = "INSERT INTO t VALUES ('\u00e4\u20ac\ud83d\ude00');";
+        CRC32 expected = new CRC32();
+        expected.update(script.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(ScriptSource.of(script).checksum()).isEqualTo(expected.getValue());
+    }
+}
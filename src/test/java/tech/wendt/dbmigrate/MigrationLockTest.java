@@ -0,0 +1,171 @@
+package tech.wendt.dbmigrate;
+
+import com.j256.ormlite.db.H2DatabaseType;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MigrationLockTest {
+
+    private static final int NODES = 20;
+
+    @Test
+    @DisplayName("Lets only one of many concurrently starting nodes migrate")
+    void migrateAll_concurrentNodes() throws Exception {
+        JdbcDataSource dataSource = dataSource("lock_nodes");
+        MigrationSettings settings = lockingSettings();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService nodes = Executors.newFixedThreadPool(NODES);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < NODES; i++) {
+                results.add(nodes.submit(() -> {
+                    try (DbMigrator migrator = new DbMigrator("test_migration", dataSource,
+                            MigrationLockTest::migrations, settings)) {
+                        start.await();
+                        migrator.migrateAll();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            nodes.shutdownNow();
+        }
+
+        assertThat(count(dataSource, "SELECT count(*) FROM test_migration")).isEqualTo(2);
+        assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Takes over the lock of a node whose lease expired")
+    void migrateAll_expiredLease() throws Exception {
+        JdbcDataSource dataSource = dataSource("lock_expired");
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, MigrationLockTest::migrations,
+                lockingSettings())) {
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE `test_migration_lock` (`id` INTEGER NOT NULL PRIMARY KEY, " +
+                        "`owner` VARCHAR(255), `expires_at` BIGINT NOT NULL, `fingerprint` BIGINT NOT NULL)");
+                statement.execute("INSERT INTO `test_migration_lock` VALUES (1, 'crashed', 1, -1)");
+            }
+
+            migrator.migrateAll();
+        }
+
+        assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(1);
+        assertThat(count(dataSource, "SELECT count(*) FROM `test_migration_lock` WHERE `owner` IS NULL"))
+                .isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Skips reconciling the history after waiting for a node that applied the same migrations")
+    void migrateAll_waitForOwner() throws Exception {
+        JdbcDataSource dataSource = dataSource("lock_waiter");
+        AtomicInteger planned = new AtomicInteger();
+        MigrationSettings settings = lockingSettings();
+        settings.setListener(new MigrationListener() {
+            @Override
+            public void migrationsPlanned(int count, long nanos) {
+                planned.incrementAndGet();
+            }
+        });
+        MigrationLock owner = new MigrationLock(dataSource, new H2DatabaseType(), dataSource.getURL(),
+                "test_migration", 5_000, 30_000);
+        try (DbMigrator waiter = new DbMigrator("test_migration", dataSource, MigrationLockTest::migrations,
+                settings)) {
+            assertThat(owner.acquire(null)).isTrue();
+            try (DbMigrator unlocked = new DbMigrator("test_migration", dataSource,
+                    MigrationLockTest::migrations)) {
+                unlocked.migrateAll();
+            }
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                AtomicReference<Thread> waiterThread = new AtomicReference<>();
+                Future<?> result = executor.submit(() -> {
+                    waiterThread.set(Thread.currentThread());
+                    waiter.migrateAll();
+                    return null;
+                });
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (waiterThread.get() == null || waiterThread.get().getState() != Thread.State.TIMED_WAITING) {
+                    assertThat(System.currentTimeMillis()).isLessThan(deadline);
+                    Thread.sleep(1);
+                }
+                owner.release(MigrationLock.fingerprint(migrations()));
+                result.get();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        assertThat(planned.get()).isEqualTo(0);
+        assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Applies migrations again whose history entries were removed without the lock")
+    void migrateAll_historyChangedWithoutLock() throws Exception {
+        JdbcDataSource dataSource = dataSource("lock_history_changed");
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, MigrationLockTest::migrations,
+                lockingSettings())) {
+            migrator.migrateAll();
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("DELETE FROM test_migration WHERE `order` = 2");
+            }
+
+            migrator.migrateAll();
+        }
+
+        assertThat(count(dataSource, "SELECT count(*) FROM test_migration")).isEqualTo(2);
+        assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(2);
+    }
+
+    private static List<Migration> migrations() {
+        return Arrays.asList(
+                new Migration("create", 1, "CREATE TABLE t (id int);"),
+                new Migration("insert", 2, "INSERT INTO t VALUES (1);"));
+    }
+
+    private static MigrationSettings lockingSettings() {
+        MigrationSettings settings = new MigrationSettings();
+        settings.setLocking(true);
+        settings.setLockLeaseMillis(5_000);
+        settings.setLockTimeoutMillis(30_000);
+        return settings;
+    }
+
+    private static JdbcDataSource dataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static int count(JdbcDataSource dataSource, String query) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
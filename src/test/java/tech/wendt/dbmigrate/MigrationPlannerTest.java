@@ -0,0 +1,84 @@
+package tech.wendt.dbmigrate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MigrationPlannerTest {
+
+    @Test
+    @DisplayName("Plans all migrations that are not applied yet in ascending order")
+    void planMigration_pending() throws Exception {
+        List<Migration> available = Arrays.asList(migration(3, "c"), migration(1, "a"), migration(2, "b"));
+
+        List<Migration> pending = MigrationPlanner.planMigration(available, Collections.singletonList(entry(1, "a")));
+
+        assertThat(pending).extracting(Migration::getOrder).containsExactly(2, 3);
+    }
+
+    @Test
+    @DisplayName("Fails to plan migrations older than the most recent applied migration")
+    void planMigration_illegal() {
+        List<Migration> available = Arrays.asList(migration(1, "a"), migration(2, "b"), migration(3, "c"));
+
+        MigrationException thrown = assertThrows(MigrationException.class,
+                () -> MigrationPlanner.planMigration(available, Arrays.asList(entry(1, "a"), entry(3, "c"))),
+                "Expected planMigration() to throw, because migration 2 was skipped");
+
+        assertThat(thrown.getMessage()).endsWith("2__b");
+    }
+
+    @Test
+    @DisplayName("Treats a migration with a different name as not applied")
+    void planMigration_renamed() {
+        List<Migration> available = Arrays.asList(migration(1, "renamed"), migration(2, "b"));
+
+        MigrationException thrown = assertThrows(MigrationException.class,
+                () -> MigrationPlanner.planMigration(available, Arrays.asList(entry(1, "a"), entry(2, "b"))),
+                "Expected planMigration() to throw, because migration 1 was renamed");
+
+        assertThat(thrown.getMessage()).endsWith("1__renamed");
+    }
+
+    @Test
+    @DisplayName("Plans applied migrations from the given order in descending order")
+    void planRollback_partial() throws Exception {
+        List<Migration> available = Arrays.asList(migration(1, "a"), migration(2, "b"), migration(3, "c"),
+                migration(4, "d"));
+
+        List<Migration> rollbacks = MigrationPlanner.planRollback(available,
+                Arrays.asList(entry(1, "a"), entry(2, "b"), entry(3, "c")), 2);
+
+        assertThat(rollbacks).extracting(Migration::getOrder).containsExactly(3, 2);
+    }
+
+    @Test
+    @DisplayName("Fails to plan a rollback for applied migrations without a matching migration")
+    void planRollback_unknown() {
+        List<Migration> available = Arrays.asList(migration(1, "a"), migration(2, "b"));
+
+        MigrationException thrown = assertThrows(MigrationException.class,
+                () -> MigrationPlanner.planRollback(available, Arrays.asList(entry(1, "a"), entry(2, "x")),
+                        Integer.MIN_VALUE),
+                "Expected planRollback() to throw, because migration 2 does not match");
+
+        assertThat(thrown.getMessage()).endsWith("2__x");
+    }
+
+    private static Migration migration(int order, String name) {
+        return new Migration(name, order, "SELECT 1");
+    }
+
+    private static MigrationEntry entry(int order, String name) {
+        MigrationEntry entry = new MigrationEntry();
+        entry.setOrder(order);
+        entry.setName(name);
+        return entry;
+    }
+}
@@ -0,0 +1,115 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MultiTenantMigratorTest {
+
+    @Test
+    @DisplayName("Migrates every tenant with migrations loaded once and isolates failing tenants")
+    void migrateAll_tenants() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        MigrationLoader loader = () -> {
+            loads.incrementAndGet();
+            return Arrays.asList(
+                    new Migration("create", 1, "CREATE TABLE t (id int);"),
+                    new Migration("insert", 2, "INSERT INTO t VALUES (1);"));
+        };
+        Map<String, DataSource> tenants = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            tenants.put("tenant" + i, dataSource("tenant" + i));
+        }
+        try (Connection connection = tenants.get("tenant3").getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id int)");
+        }
+        Map<String, String> progress = new ConcurrentHashMap<>();
+        MultiTenantMigrator underTest = new MultiTenantMigrator("test_migration", loader, 2);
+        underTest.setListener(new TenantMigrationListener() {
+            @Override
+            public void succeeded(String tenant, long elapsedMillis) {
+                progress.put(tenant, "succeeded");
+            }
+
+            @Override
+            public void failed(String tenant, long elapsedMillis, MigrationException exception) {
+                progress.put(tenant, "failed");
+            }
+        });
+
+        MigrationReport report = underTest.migrateAll(tenants);
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(report.getSucceeded()).containsExactly("tenant0", "tenant1", "tenant2", "tenant4");
+        assertThat(report.getFailed()).containsOnlyKeys("tenant3");
+        assertThat(progress).containsEntry("tenant0", "succeeded").containsEntry("tenant3", "failed");
+        assertThat(count(tenants.get("tenant4"), "SELECT count(*) FROM t")).isEqualTo(1);
+        assertThat(count(tenants.get("tenant3"), "SELECT count(*) FROM test_migration")).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("Shares only the most recently loaded migrations between tenants")
+    void loadMigrations_boundedCache() throws Exception {
+        List<Migration> available = Arrays.asList(
+                new Migration("first", 1, "SELECT 1;"),
+                new Migration("second", 2, "SELECT 2;"),
+                new Migration("third", 3, "SELECT 3;"));
+        AtomicInteger loaded = new AtomicInteger();
+        MigrationLoader loader = new MigrationLoader() {
+            @Override
+            public List<Migration> loadMigrations() {
+                return available;
+            }
+
+            @Override
+            public List<Migration> loadMigrations(List<? extends MigrationInfo> migrations) {
+                loaded.addAndGet(migrations.size());
+                return new ArrayList<>(available.subList(migrations.get(0).getOrder() - 1,
+                        migrations.get(migrations.size() - 1).getOrder()));
+            }
+        };
+        CachingMigrationLoader underTest = new CachingMigrationLoader(loader, 2);
+
+        underTest.loadMigrations(available.subList(0, 2));
+        underTest.loadMigrations(available.subList(0, 2));
+        assertThat(loaded.get()).isEqualTo(2);
+
+        assertThat(underTest.loadMigrations(available.subList(2, 3))).extracting(Migration::getName)
+                .containsExactly("third");
+        underTest.loadMigrations(available.subList(0, 1));
+        assertThat(loaded.get()).isEqualTo(4);
+
+        underTest.loadMigrations(available);
+        assertThat(loaded.get()).isEqualTo(7);
+    }
+
+    private static DataSource dataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static int count(DataSource dataSource, String query) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
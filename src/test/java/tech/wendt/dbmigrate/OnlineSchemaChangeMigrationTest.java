@@ -0,0 +1,263 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OnlineSchemaChangeMigrationTest {
+
+    private static final int ROWS = 20_000;
+    private static final int WRITERS = 4;
+
+    @Test
+    @DisplayName("Alters a table through a shadow table while other connections keep writing to it")
+    void migrateAll_onlineSchemaChange() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:online_schema_change;DB_CLOSE_DELAY=-1");
+        Map<Integer, Integer> expected = new ConcurrentHashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id int PRIMARY KEY, v int)");
+            statement.execute("INSERT INTO t SELECT x, x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+        }
+        for (int id = 1; id <= ROWS; id++) {
+            expected.put(id, id);
+        }
+        OnlineSchemaChangeMigration underTest = new OnlineSchemaChangeMigration("widen", 2, "t", "id",
+                "ADD COLUMN w int DEFAULT 7", null);
+        ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+        underTest.setDialect(new H2OnlineSchemaChangeDialect() {
+
+            /**
+             * Holds off the writers during the cutover, like the lock taken by the swap on MySQL and PostgreSQL,
+             * as statements of H2 that wait for a renamed table continue on it.
+             */
+            @Override
+            public List<String> swapTables(String table, String shadowTable, String oldTable) {
+                tableLock.writeLock().lock();
+                return super.swapTables(table, shadowTable, oldTable);
+            }
+
+            @Override
+            public List<String> dropTriggers(String table, String shadowTable) {
+                if (tableLock.isWriteLockedByCurrentThread()) {
+                    tableLock.writeLock().unlock();
+                }
+                return super.dropTriggers(table, shadowTable);
+            }
+        });
+        underTest.setChunkSize(200);
+        MigrationLoader loader = () -> Arrays.asList(new Migration("init", 1, "SELECT 1;"), underTest);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger writes = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int writer = 0; writer < WRITERS; writer++) {
+                int index = writer;
+                writers.add(executor.submit(() -> write(dataSource, tableLock, index, expected, done, writes)));
+            }
+            while (writes.get() < 100) {
+                Thread.sleep(1);
+            }
+            migrator.migrateAll();
+            int writesBeforeCutover = writes.get();
+            while (writes.get() < writesBeforeCutover + 100) {
+                Thread.sleep(1);
+            }
+            done.set(true);
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+
+            Map<Integer, Integer> actual = new HashMap<>();
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery("SELECT id, v, w FROM t")) {
+                while (result.next()) {
+                    actual.put(result.getInt(1), result.getInt(2));
+                    assertThat(result.getInt(3)).isEqualTo(7);
+                }
+            }
+            assertThat(actual).isEqualTo(expected);
+            assertThat(count(dataSource, "SELECT count(*) FROM _t_old")).isGreaterThan(0);
+            assertThat(count(dataSource, "SELECT count(*) FROM INFORMATION_SCHEMA.TRIGGERS")).isEqualTo(0);
+            MigrationEntry entry = migrator.getHistory().getEntry(2);
+            assertThat(entry.getTransactional()).isFalse();
+            assertThat(entry.getChecksum()).isEqualTo(underTest.getUpScript().checksum());
+            assertThat(entry.getStatementCount()).isGreaterThanOrEqualTo(ROWS / 200 - 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Continues with the cleanup after a run failed between the swap and storing the cutover")
+    void migrateAll_resumeAfterSwap() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:online_schema_change_swapped;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id int PRIMARY KEY, v int)");
+            statement.execute("INSERT INTO t SELECT x, x FROM SYSTEM_RANGE(1, 1000)");
+        }
+        OnlineSchemaChangeMigration underTest = new OnlineSchemaChangeMigration("widen", 2, "t", "id",
+                "ADD COLUMN w int DEFAULT 7", null);
+        AtomicBoolean failAfterSwap = new AtomicBoolean(true);
+        underTest.setDialect(new H2OnlineSchemaChangeDialect() {
+            @Override
+            public List<String> swapTables(String table, String shadowTable, String oldTable) {
+                List<String> statements = new ArrayList<>(super.swapTables(table, shadowTable, oldTable));
+                if (failAfterSwap.getAndSet(false)) {
+                    statements.add("SELECT 1 / 0");
+                }
+                return statements;
+            }
+        });
+        underTest.setChunkSize(200);
+        MigrationLoader loader = () -> Arrays.asList(new Migration("init", 1, "SELECT 1;"), underTest);
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because of the division by zero after the swap");
+            migrator.migrateAll();
+
+            assertThat(count(dataSource, "SELECT count(*) FROM t WHERE w = 7")).isEqualTo(1000);
+            assertThat(count(dataSource, "SELECT count(*) FROM _t_old")).isEqualTo(1000);
+            assertThat(count(dataSource, "SELECT count(*) FROM INFORMATION_SCHEMA.TRIGGERS")).isEqualTo(0);
+            assertThat(migrator.getHistory().getEntry(2).getStatementCount()).isEqualTo(5);
+        }
+    }
+
+    @Test
+    @DisplayName("Fails on tables with the smallest long as key before swapping them")
+    void migrateAll_smallestKey() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:online_schema_change_smallest_key;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id bigint PRIMARY KEY, v int)");
+            statement.execute("INSERT INTO t VALUES (" + Long.MIN_VALUE + ", 1), (" + Long.MAX_VALUE + ", 2)");
+        }
+        OnlineSchemaChangeMigration underTest = new OnlineSchemaChangeMigration("widen", 1, "t", "id",
+                "ADD COLUMN w int DEFAULT 7", null);
+        underTest.setDialect(new H2OnlineSchemaChangeDialect());
+        MigrationLoader loader = () -> Arrays.asList(underTest);
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because the exclusive lower bound cannot include the key");
+
+            assertThat(migrator.getHistory().getEntries()).isEmpty();
+            assertThat(count(dataSource, "SELECT count(*) FROM t")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Fails on tables with objects that would stay with the old table before creating the shadow table")
+    void migrateAll_dependentObjects() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:online_schema_change_dependent_objects;DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id int PRIMARY KEY, v int)");
+            statement.execute("CREATE VIEW t_view AS SELECT * FROM t");
+        }
+        OnlineSchemaChangeMigration underTest = new OnlineSchemaChangeMigration("widen", 1, "t", "id",
+                "ADD COLUMN w int DEFAULT 7", null);
+        underTest.setDialect(new H2OnlineSchemaChangeDialect() {
+            @Override
+            public String dependentObjects(String table) {
+                return "SELECT 'view ' || TABLE_NAME FROM INFORMATION_SCHEMA.VIEWS";
+            }
+        });
+        MigrationLoader loader = () -> Arrays.asList(underTest);
+
+        try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, loader)) {
+            MigrationException exception = assertThrows(MigrationException.class, migrator::migrateAll,
+                    "Expected migrateAll() to throw, because the view would stay with the old table");
+
+            assertThat(exception).hasStackTraceContaining("view T_VIEW");
+            assertThat(count(dataSource, "SELECT count(*) FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = '_T_NEW'"))
+                    .isEqualTo(0);
+            assertThat(migrator.getHistory().getEntries()).isEmpty();
+        }
+    }
+
+    /**
+     * Updates, deletes and inserts rows whose key belongs to the writer and tracks the expected content of the table.
+     */
+    private static Void write(JdbcDataSource dataSource, ReentrantReadWriteLock tableLock, int index,
+                              Map<Integer, Integer> expected, AtomicBoolean done, AtomicInteger writes)
+            throws SQLException {
+        Random random = new Random(index);
+        int nextId = ROWS + 1 + index;
+        try (Connection connection = dataSource.getConnection()) {
+            while (!done.get()) {
+                int id = random.nextInt(ROWS / WRITERS) * WRITERS + 1 + index;
+                int value = random.nextInt();
+                int operation = random.nextInt(3);
+                String sql = operation == 0 ? "UPDATE t SET v = ? WHERE id = ?"
+                        : operation == 1 ? "DELETE FROM t WHERE id = ? AND ? IS NOT NULL"
+                        : "INSERT INTO t (v, id) VALUES (?, ?)";
+                if (operation == 2) {
+                    id = nextId;
+                    nextId += WRITERS;
+                }
+                tableLock.readLock().lock();
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    if (operation == 1) {
+                        statement.setInt(1, id);
+                        statement.setInt(2, value);
+                    } else {
+                        statement.setInt(1, value);
+                        statement.setInt(2, id);
+                    }
+                    if (statement.executeUpdate() > 0) {
+                        if (operation == 1) {
+                            expected.remove(id);
+                        } else {
+                            expected.put(id, value);
+                        }
+                    }
+                } finally {
+                    tableLock.readLock().unlock();
+                }
+                writes.incrementAndGet();
+            }
+        }
+        return null;
+    }
+
+    private static long count(JdbcDataSource dataSource, String query) throws Exception {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
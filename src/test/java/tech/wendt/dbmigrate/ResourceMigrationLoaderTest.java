@@ -1,12 +1,30 @@
 package tech.wendt.dbmigrate;
 
+import org.h2.jdbcx.JdbcDataSource;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tech.wendt.dbmigrate.impl.MigrationIndexGenerator;
 import tech.wendt.dbmigrate.impl.ResourceMigrationLoader;
+import tech.wendt.dbmigrate.impl.TokenizedScriptCache;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -115,6 +133,204 @@ class ResourceMigrationLoaderTest {
         assertThat(migrations.get(2).getDownSql()).isEqualTo(downSql3);
     }
 
+    @Test
+    @DisplayName("Can list Migrations and load only the selected scripts")
+    void loadMigrationInfos_multiple_updown() throws Exception {
+        String upSql2 = FileUtil.getFileContent("/migration_multiple_updown/02__test2_up.sql");
+        underTest = new ResourceMigrationLoader("/migration_multiple_updown");
+
+        List<? extends MigrationInfo> migrationInfos = underTest.loadMigrationInfos();
+        List<Migration> migrations = underTest.loadMigrations(migrationInfos.subList(1, 2));
+
+        assertThat(migrationInfos).extracting(MigrationInfo::getOrder).containsExactly(1, 2, 11);
+        assertThat(migrations).hasSize(1);
+        assertThat(migrations.get(0).getName()).isEqualTo("test2");
+        assertThat(migrations.get(0).getUpSql()).isEqualTo(upSql2);
+    }
+
+    @Test
+    @DisplayName("Reads scripts on threads of the loader, which are stopped when it is closed")
+    void loadMigrations_readerThreads() throws Exception {
+        underTest = new ResourceMigrationLoader("/migration_multiple_updown");
+
+        assertThat(underTest.loadMigrations()).hasSize(3);
+        assertThat(Thread.getAllStackTraces().keySet()).extracting(Thread::getName)
+                .anyMatch(name -> name.startsWith("dbmigrate-reader-"));
+
+        underTest.close();
+        List<? extends MigrationInfo> migrationInfos = underTest.loadMigrationInfos();
+        assertThrows(IOException.class, () -> underTest.loadMigrations(migrationInfos),
+                "Expected loadMigrations() to throw, because the loader is closed");
+    }
+
+    @Test
+    @DisplayName("Can list Migrations from a generated index instead of the directory")
+    void loadMigrationInfos_index(@TempDir Path tempDir) throws Exception {
+        Path migrationDir = Files.createDirectory(tempDir.resolve("indexed_migrations"));
+        for (String file : new String[]{"1__test1_up.sql", "1__test1_down.sql", "02__test2_up.sql"}) {
+            Files.copy(Paths.get(getClass().getResource("/migration_multiple_updown/" + file).toURI()),
+                    migrationDir.resolve(file));
+        }
+        MigrationIndexGenerator.generate(migrationDir);
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{tempDir.toUri().toURL()}, null)) {
+            underTest = new ResourceMigrationLoader("/indexed_migrations", classLoader);
+            List<Migration> migrations = underTest.loadMigrations();
+
+            assertThat(migrations).extracting(Migration::getName).containsExactly("test1", "test2");
+            assertThat(migrations.get(0).getDownSql())
+                    .isEqualTo(FileUtil.getFileContent("/migration_multiple_updown/1__test1_down.sql"));
+            assertThat(migrations.get(1).getDownSql()).isNull();
+        }
+    }
+
+    @Test
+    @DisplayName("Fails on an index that was not regenerated after scripts were added or changed")
+    void loadMigrationInfos_staleIndex(@TempDir Path tempDir) throws Exception {
+        Path migrationDir = Files.createDirectory(tempDir.resolve("stale_migrations"));
+        Files.write(migrationDir.resolve("1__test1_up.sql"), "SELECT 1;".getBytes(StandardCharsets.UTF_8));
+        MigrationIndexGenerator.generate(migrationDir);
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{tempDir.toUri().toURL()}, null)) {
+            underTest = new ResourceMigrationLoader("/stale_migrations", classLoader);
+            Path unindexed = Files.write(migrationDir.resolve("2__unindexed_up.sql"),
+                    "SELECT 2;".getBytes(StandardCharsets.UTF_8));
+
+            IOException added = assertThrows(IOException.class, underTest::loadMigrationInfos);
+            assertThat(added).hasMessageContaining("2__unindexed_up.sql");
+
+            Files.delete(unindexed);
+            Files.write(migrationDir.resolve("1__test1_up.sql"), "SELECT 3;".getBytes(StandardCharsets.UTF_8));
+
+            assertThrows(IOException.class, underTest::loadMigrations);
+        }
+    }
+
+    @Test
+    @DisplayName("Can load large scripts and scripts in other charsets")
+    void loadMigrations_charset(@TempDir Path tempDir) throws Exception {
+        Path migrationDir = Files.createDirectory(tempDir.resolve("charset_migrations"));
+        StringBuilder largeSql = new StringBuilder();
+        while (largeSql.length() < 2 * 1024 * 1024) {
+            largeSql.append("INSERT INTO t_test VALUES ('\u00e4');\n");
+        }
+        Files.write(migrationDir.resolve("1__large_up.sql"),
+                largeSql.toString().getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(migrationDir.resolve("1__large_down.sql"),
+                "DELETE FROM t_test WHERE value = '\u00e4';".getBytes(StandardCharsets.ISO_8859_1));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{tempDir.toUri().toURL()}, null)) {
+            underTest = new ResourceMigrationLoader("/charset_migrations", classLoader, StandardCharsets.ISO_8859_1);
+            List<Migration> migrations = underTest.loadMigrations();
+
+            assertThat(migrations).hasSize(1);
+            assertThat(migrations.get(0).getUpSql()).isEqualTo(largeSql.toString());
+            assertThat(migrations.get(0).getDownSql()).isEqualTo("DELETE FROM t_test WHERE value = '\u00e4';");
+        }
+    }
+
+    @Test
+    @DisplayName("Reads split scripts from the cache on warm starts")
+    void loadMigrations_scriptCache(@TempDir Path tempDir) throws Exception {
+        Path migrationDir = Files.createDirectory(tempDir.resolve("cached_migrations"));
+        StringBuilder upSqlBuilder = new StringBuilder("-- dbmigrate:group users\n" +
+                "CREATE TABLE t (v varchar(10)); -- trailing\n");
+        while (upSqlBuilder.length() < 128 * 1024) {
+            upSqlBuilder.append("INSERT INTO t VALUES ('1'); /* kept */ INSERT INTO t VALUES ('\u00e4;');\n");
+        }
+        String upSql = upSqlBuilder.toString();
+        List<String> expected = statements(new SqlStatementReader(new StringReader(upSql)));
+        Files.write(migrationDir.resolve("1__cached_up.sql"), upSql.getBytes(StandardCharsets.UTF_8));
+        Files.write(migrationDir.resolve("1__cached_down.sql"), "DROP TABLE t;".getBytes(StandardCharsets.UTF_8));
+        Files.write(migrationDir.resolve("2__small_up.sql"), "SELECT 1;".getBytes(StandardCharsets.UTF_8));
+        TokenizedScriptCache cache = new TokenizedScriptCache(tempDir.resolve("cache"), 1024 * 1024);
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{tempDir.toUri().toURL()}, null)) {
+            for (int start = 0; start < 2; start++) {
+                underTest = new ResourceMigrationLoader("/cached_migrations", classLoader, StandardCharsets.UTF_8,
+                        cache);
+                List<Migration> migrations = underTest.loadMigrations();
+                Migration migration = migrations.get(0);
+
+                assertThat(migration.getUpScript()).isInstanceOf(TokenizedScript.class);
+                assertThat(migrations.get(1).getUpScript()).isNotInstanceOf(TokenizedScript.class);
+                assertThat(statements(((TokenizedScript) migration.getUpScript()).openStatements()))
+                        .isEqualTo(expected)
+                        .isEqualTo(statements(new SqlStatementReader(migration.getUpScript().open())));
+                assertThat(migration.getUpScript().checksum()).isEqualTo(ScriptSource.of(upSql).checksum());
+                assertThat(migration.getUpSql()).startsWith("-- dbmigrate:group users\n");
+            }
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:script_cache;DB_CLOSE_DELAY=-1");
+            try (DbMigrator migrator = new DbMigrator("test_migration", dataSource, underTest)) {
+                migrator.migrateAll();
+                MigrationEntry entry = migrator.getHistory().getEntry(1);
+                assertThat(entry.getStatementCount()).isEqualTo(expected.size());
+                assertThat(entry.getChecksum()).isEqualTo(ScriptSource.of(upSql).checksum());
+            }
+        }
+        try (Stream<Path> files = Files.walk(tempDir.resolve("cache"))) {
+            assertThat(files.filter(file -> file.toString().endsWith(".stmts"))).hasSize(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Evicts old versions from the script cache")
+    void loadMigrations_scriptCacheEviction(@TempDir Path tempDir) throws Exception {
+        Path oldVersion = Files.createDirectories(tempDir.resolve("cache").resolve("old"));
+        Files.write(oldVersion.resolve("1__test1_up.sql.stmts"), new byte[4096]);
+        Files.setLastModifiedTime(oldVersion, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+        Path recentVersion = Files.createDirectories(tempDir.resolve("cache").resolve("recent"));
+        Files.write(recentVersion.resolve("1__test1_up.sql.stmts"), new byte[4096]);
+
+        Path migrationDir = Files.createDirectory(tempDir.resolve("evicting_migrations"));
+        StringBuilder largeSql = new StringBuilder();
+        while (largeSql.length() < 128 * 1024) {
+            largeSql.append("SELECT 1;\n");
+        }
+        Files.write(migrationDir.resolve("1__large_up.sql"), largeSql.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{tempDir.toUri().toURL()}, null)) {
+            underTest = new ResourceMigrationLoader("/evicting_migrations", classLoader, StandardCharsets.UTF_8,
+                    new TokenizedScriptCache(tempDir.resolve("cache"), 1024));
+            assertThat(underTest.loadMigrations()).hasSize(1);
+        }
+
+        assertThat(oldVersion).doesNotExist();
+        assertThat(recentVersion).exists();
+    }
+
+    @Test
+    @DisplayName("Shares the file system and listing of a jar between loaders")
+    void loadMigrations_sharedJar(@TempDir Path tempDir) throws Exception {
+        Path jar = tempDir.resolve("migrations.jar");
+        try (FileSystem jarFileSystem = FileSystems.newFileSystem(URI.create("jar:" + jar.toUri()),
+                Collections.singletonMap("create", "true"))) {
+            Path migrationDir = Files.createDirectory(jarFileSystem.getPath("/jar_migrations"));
+            Files.write(migrationDir.resolve("1__test1_up.sql"), "SELECT 1;".getBytes(StandardCharsets.UTF_8));
+            Files.write(migrationDir.resolve("2__test2_up.sql"), "SELECT 2;".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+            ResourceMigrationLoader first = new ResourceMigrationLoader("/jar_migrations", classLoader);
+            ResourceMigrationLoader second = new ResourceMigrationLoader("/jar_migrations", classLoader);
+            List<? extends MigrationInfo> firstInfos = first.loadMigrationInfos();
+            List<? extends MigrationInfo> secondInfos = second.loadMigrationInfos();
+            assertThat(secondInfos).extracting(MigrationInfo::getOrder).containsExactly(1, 2);
+            assertThat(secondInfos.get(0)).isSameAs(firstInfos.get(0));
+
+            first.close();
+            first.close();
+            assertThat(second.loadMigrations()).extracting(Migration::getUpSql)
+                    .containsExactly("SELECT 1;", "SELECT 2;");
+            second.close();
+
+            try (ResourceMigrationLoader reopened = new ResourceMigrationLoader("/jar_migrations", classLoader)) {
+                assertThat(reopened.loadMigrations()).hasSize(2);
+            }
+        }
+    }
+
     @Test
     @DisplayName("Fails to load Migration with mismatched down script")
     void loadMigrations_multiple_name_mismatch() throws Exception {
@@ -178,4 +394,15 @@ class ResourceMigrationLoaderTest {
 
         assertThat(thrown.getMessage()).isEqualTo("/notDir.sql is not a directory");
     }
-}
\ No newline at end of file
+
+    private static List<String> statements(StatementSource source) throws IOException {
+        List<String> statements = new ArrayList<>();
+        try (StatementSource statementSource = source) {
+            String sql;
+            while ((sql = statementSource.nextStatement()) != null) {
+                statements.add(sql);
+            }
+        }
+        return statements;
+    }
+}
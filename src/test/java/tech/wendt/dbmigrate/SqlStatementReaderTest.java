@@ -0,0 +1,96 @@
+package tech.wendt.dbmigrate;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlStatementReaderTest {
+
+    @Test
+    @DisplayName("Splits statements on semicolons and skips empty statements")
+    void nextStatement_simple() throws Exception {
+        List<String> statements = readAll("CREATE TABLE a (id int);\n;\n  INSERT INTO a VALUES (1) ;\nDROP TABLE b");
+
+        assertThat(statements).containsExactly("CREATE TABLE a (id int)", "INSERT INTO a VALUES (1)", "DROP TABLE b");
+    }
+
+    @Test
+    @DisplayName("Keeps line breaks so that line comments do not swallow the next line")
+    void nextStatement_lineComments() throws Exception {
+        List<String> statements = readAll("-- leading comment; with semicolon\n" +
+                "INSERT INTO a -- trailing comment;\n" +
+                "VALUES (1);\n" +
+                "-- comment without statement");
+
+        assertThat(statements).containsExactly("INSERT INTO a -- trailing comment;\nVALUES (1)");
+    }
+
+    @Test
+    @DisplayName("Ignores semicolons in block comments, strings and quoted identifiers")
+    void nextStatement_quotes() throws Exception {
+        List<String> statements = readAll("/* setup; */ INSERT INTO \"a;b\" VALUES ('x;''y', `c;d`);" +
+                "SELECT 1 /* inner; */ FROM dual;");
+
+        assertThat(statements).containsExactly(
+                "INSERT INTO \"a;b\" VALUES ('x;''y', `c;d`)",
+                "SELECT 1 /* inner; */ FROM dual");
+    }
+
+    @Test
+    @DisplayName("Ignores semicolons in dollar quoted bodies")
+    void nextStatement_dollarQuoting() throws Exception {
+        List<String> statements = readAll("CREATE FUNCTION f() RETURNS int AS $body$ BEGIN RETURN 1; END; $body$ " +
+                "LANGUAGE plpgsql;\nSELECT $$a;b$$, $1;");
+
+        assertThat(statements).containsExactly(
+                "CREATE FUNCTION f() RETURNS int AS $body$ BEGIN RETURN 1; END; $body$ LANGUAGE plpgsql",
+                "SELECT $$a;b$$, $1");
+    }
+
+    @Test
+    @DisplayName("Keeps BEGIN ... END blocks of routines together")
+    void nextStatement_blocks() throws Exception {
+        List<String> statements = readAll("CREATE TRIGGER t BEFORE INSERT ON a FOR EACH ROW BEGIN\n" +
+                "  IF NEW.id < 0 THEN SET NEW.id = 0; END IF;\n" +
+                "  CASE NEW.x WHEN 1 THEN SET NEW.y = 1; ELSE SET NEW.y = 2; END CASE;\n" +
+                "END;\n" +
+                "BEGIN;\n" +
+                "CREATE TABLE b (begin_at int, end_at int);");
+
+        assertThat(statements).hasSize(3);
+        assertThat(statements.get(0)).endsWith("END CASE;\nEND");
+        assertThat(statements.get(1)).isEqualTo("BEGIN");
+        assertThat(statements.get(2)).isEqualTo("CREATE TABLE b (begin_at int, end_at int)");
+    }
+
+    @Test
+    @DisplayName("Reads statements spanning multiple buffer fills")
+    void nextStatement_largeScript() throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            script.append("INSERT INTO a VALUES (").append(i).append(", 'value;").append(i).append("');\n");
+        }
+
+        List<String> statements = readAll(script.toString());
+
+        assertThat(statements).hasSize(10_000);
+        assertThat(statements.get(9_999)).isEqualTo("INSERT INTO a VALUES (9999, 'value;9999')");
+    }
+
+    private static List<String> readAll(String script) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (SqlStatementReader reader = new SqlStatementReader(new StringReader(script))) {
+            String statement;
+            while ((statement = reader.nextStatement()) != null) {
+                result.add(statement);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package tech.wendt.dbmigrate;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StatementExecutorTest {
+
+    private Connection connection;
+
+    @BeforeEach
+    void init() throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:statement_executor");
+        connection = dataSource.getConnection();
+    }
+
+    @AfterEach
+    void cleanup() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    @DisplayName("Executes DML in batches and DDL as barriers")
+    void execute_batched() throws Exception {
+        StatementExecutor underTest = new StatementExecutor(2);
+
+        int executed = underTest.execute(connection, statements("CREATE TABLE t (id int PRIMARY KEY);" +
+                "INSERT INTO t VALUES (1); INSERT INTO t VALUES (2); INSERT INTO t VALUES (3);" +
+                "CREATE INDEX t_id ON t (id);" +
+                "UPDATE t SET id = id + 10; DELETE FROM t WHERE id = 11;"));
+
+        assertThat(executed).isEqualTo(7);
+        assertThat(count("SELECT count(*) FROM t")).isEqualTo(2);
+        assertThat(count("SELECT min(id) FROM t")).isEqualTo(12);
+    }
+
+    @Test
+    @DisplayName("Reports the index of the failed statement inside a batch")
+    void execute_batched_failure() throws Exception {
+        StatementExecutor underTest = new StatementExecutor(10);
+
+        StatementExecutionException thrown = assertThrows(StatementExecutionException.class,
+                () -> underTest.execute(connection, statements("CREATE TABLE t (id int PRIMARY KEY);" +
+                        "INSERT INTO t VALUES (1); INSERT INTO t VALUES (2); INSERT INTO t VALUES (1);" +
+                        "INSERT INTO t VALUES (4);")),
+                "Expected execute() to throw, because of a duplicate key");
+
+        assertThat(thrown.getStatementIndex()).isEqualTo(3);
+        assertThat(thrown.getMessage()).contains("INSERT INTO t VALUES (1)");
+    }
+
+    @Test
+    @DisplayName("Reports the index of the failed statement without batching")
+    void execute_single_failure() throws Exception {
+        StatementExecutor underTest = new StatementExecutor(0);
+
+        StatementExecutionException thrown = assertThrows(StatementExecutionException.class,
+                () -> underTest.execute(connection, statements("CREATE TABLE t (id int);" +
+                        "INSERT INTO missing VALUES (1);")),
+                "Expected execute() to throw, because the table does not exist");
+
+        assertThat(thrown.getStatementIndex()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Only plain DML statements can be batched")
+    void isBatchable() {
+        assertThat(StatementExecutor.isBatchable("INSERT INTO t VALUES (1)")).isTrue();
+        assertThat(StatementExecutor.isBatchable("update t set a = 1")).isTrue();
+        assertThat(StatementExecutor.isBatchable("DELETE FROM t RETURNING id")).isFalse();
+        assertThat(StatementExecutor.isBatchable("SELECT * FROM t")).isFalse();
+        assertThat(StatementExecutor.isBatchable("INSERTS")).isFalse();
+        assertThat(StatementExecutor.isBatchable("ALTER TABLE t ADD c int")).isFalse();
+    }
+
+    private static SqlStatementReader statements(String script) {
+        return new SqlStatementReader(new StringReader(script));
+    }
+
+    private int count(String query) throws Exception {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}